@@ -8,16 +8,18 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
-import android.view.MotionEvent;
 import android.view.View;
 
 import org.taom.android.alljoyn.AllJoynService;
+import org.taom.android.input.FrameCoalescer;
+import org.taom.android.input.TouchpadGestures;
 import org.taom.android.tabs.fragments.ControlsFragment;
 
 public class TouchpadActivity extends Activity {
-    private int x, y;
     private Intent service;
     private Handler serviceHandler;
+    private FrameCoalescer mouseMoves;
+    private TouchpadGestures gestures;
 
     private boolean mBound = false;
 
@@ -38,6 +40,13 @@ public class TouchpadActivity extends Activity {
 
     @Override
     protected void onStop() {
+        // the PC would keep the button down after the touchpad is gone
+        if (gestures != null && gestures.isDragging()) {
+            gestures.release();
+        }
+        if (mouseMoves != null) {
+            mouseMoves.cancel();
+        }
         if (mBound) {
             unbindService(mConnection);
             mBound = false;
@@ -50,22 +59,12 @@ public class TouchpadActivity extends Activity {
         public void onServiceConnected(ComponentName className, IBinder service) {
             AllJoynService.AllJoynBinder binder = ((AllJoynService.AllJoynBinder) service);
             serviceHandler = binder.getHandler();
+            mouseMoves = new FrameCoalescer(serviceHandler, ControlsFragment.MOUSE_MOVE, ControlsFragment.GESTURE);
 
             final View touchView = findViewById(R.id.touchView);
-            touchView.setOnTouchListener(new View.OnTouchListener() {
-                @Override
-                public boolean onTouch(View v, MotionEvent event) {
-                    if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                        x = (int) event.getX();
-                        y = (int) event.getY();
-                    } else {
-                        serviceHandler.sendMessage(serviceHandler.obtainMessage(ControlsFragment.MOUSE_MOVE, (int) event.getX() - x, (int) event.getY() - y));
-                        x = (int) event.getX();
-                        y = (int) event.getY();
-                    }
-                    return true;
-                }
-            });
+            gestures = new TouchpadGestures(TouchpadActivity.this, mouseMoves, serviceHandler,
+                    ControlsFragment.MOUSE_BUTTON);
+            touchView.setOnTouchListener(gestures);
 
             final View leftButton = findViewById(R.id.left_click);
             leftButton.setOnClickListener(new View.OnClickListener() {
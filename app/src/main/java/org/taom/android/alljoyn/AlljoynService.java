@@ -15,6 +15,7 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 
 import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.ErrorReplyBusException;
 import org.alljoyn.bus.ProxyBusObject;
 import org.alljoyn.bus.Variant;
 import org.taom.android.NotificationService;
@@ -22,15 +23,27 @@ import org.taom.android.R;
 import org.taom.android.devices.DeviceAdapter;
 import org.taom.android.devices.DeviceAdapterItem;
 import org.taom.android.tabs.fragments.ControlsFragment;
-import org.taom.izconnect.network.interfaces.BoardInterface;
-import org.taom.izconnect.network.interfaces.MobileInterface;
-import org.taom.izconnect.network.interfaces.PCInterface;
+import org.taom.izconnect.network.DeviceExecutors;
+import org.taom.izconnect.network.PropertyWrites;
+import org.taom.izconnect.network.TrafficLanes;
+import org.taom.izconnect.network.client.AsyncClient;
+import org.taom.izconnect.network.client.AsyncDevice;
+import org.taom.izconnect.network.client.RemoteFuture;
+import org.taom.izconnect.network.input.Gesture;
+import org.taom.izconnect.network.input.GestureDeltas;
+import org.taom.izconnect.network.input.InputCommand;
+import org.taom.izconnect.network.input.MouseDeltas;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+import org.taom.izconnect.network.macro.Macro;
+import org.taom.izconnect.network.transfer.BroadcastSession;
+import org.taom.izconnect.network.transfer.TransferScheduler;
+import org.taom.izconnect.network.transfer.TransferStats;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -41,15 +54,24 @@ import static org.taom.izconnect.network.GFLogger.*;
 public class AllJoynService extends Service {
     private static final String TAG = "AllJoynService";
     private static final int NOTIFICATION_ID = 0xdefaced;
-    private static final int MAX_BYTES = 114500;
 
     private AndroidNetworkService mNetworkService;
     private MobileServiceImpl mobileService;
     private BackgroundHandler mBackgroundHandler;
+    private BroadcastSession broadcastSession;
+    private TrafficLanes trafficLanes = new TrafficLanes();
+    private PropertyWrites propertyWrites = new PropertyWrites();
+    private DeviceExecutors deviceExecutors = new DeviceExecutors();
+    private TransferScheduler transferScheduler =
+            new TransferScheduler(TransferScheduler.DEFAULT_CONCURRENT_TRANSFERS, trafficLanes);
+    private AsyncClient asyncClient = new AsyncClient(deviceExecutors, transferScheduler);
     private Set<String> subscribers = Collections.synchronizedSet(new HashSet<String>());
 
     private DeviceAdapter deviceAdapter;
-    private Map<DeviceAdapterItem, ProxyBusObject> map = new ConcurrentHashMap<>();
+    /** Sessions of the discovered devices by bus name */
+    private Map<String, DeviceSession> sessions = new ConcurrentHashMap<>();
+    private volatile DeviceSession selectedSession;
+    private Map<String, String> scriptRuns = new ConcurrentHashMap<>();
 
     @Nullable
     @Override
@@ -64,8 +86,57 @@ public class AllJoynService extends Service {
 
         startForeground(NOTIFICATION_ID, createNotification());
 
-        mobileService = new MobileServiceImpl(subscribers);
         mNetworkService = new AndroidNetworkService(mBackgroundHandler);
+        mobileService = new MobileServiceImpl(subscribers, mNetworkService);
+        broadcastSession = new BroadcastSession(mNetworkService, mobileService);
+        transferScheduler.setListener(new TransferScheduler.Listener() {
+            @Override
+            public void onTransferChanged(TransferScheduler.Transfer transfer) {
+                if (transfer.getState().isDone()) {
+                    Intent i = new Intent(ControlsFragment.STATUS_BROADCAST_ACTION);
+                    sendBroadcast(i);
+                }
+            }
+
+            @Override
+            public void onTransferProgress(TransferScheduler.Transfer transfer) {
+                sendProgress();
+            }
+        });
+
+        mobileService.setScriptOutputListener(new MobileServiceImpl.ScriptOutputListener() {
+            @Override
+            public void onScriptOutput(final String sender, final String runId, final int sequence, boolean isError,
+                                       String[] lines) {
+                StringBuilder text = new StringBuilder();
+                for (String line : lines) {
+                    text.append(text.length() == 0 ? "" : "\n").append(line);
+                }
+                Intent i = new Intent(ControlsFragment.SCRIPT_OUTPUT_ACTION);
+                i.putExtra(ControlsFragment.EXTRA_SCRIPT_NAME, getScriptName(runId));
+                i.putExtra(ControlsFragment.EXTRA_SCRIPT_LINES, text.toString());
+                i.putExtra(ControlsFragment.EXTRA_SCRIPT_ERROR, isError);
+                sendBroadcast(i);
+                deviceExecutors.execute(sender, new Runnable() {
+                    @Override
+                    public void run() {
+                        ackScriptOutput(sender, runId, sequence);
+                    }
+                });
+            }
+
+            @Override
+            public void onScriptFinished(String sender, String runId, int exitCode, long durationMillis,
+                                         int droppedLines) {
+                Intent i = new Intent(ControlsFragment.SCRIPT_FINISHED_ACTION);
+                i.putExtra(ControlsFragment.EXTRA_SCRIPT_NAME, getScriptName(runId));
+                i.putExtra(ControlsFragment.EXTRA_EXIT_CODE, exitCode);
+                i.putExtra(ControlsFragment.EXTRA_DURATION, durationMillis);
+                i.putExtra(ControlsFragment.EXTRA_DROPPED_LINES, droppedLines);
+                sendBroadcast(i);
+                scriptRuns.remove(runId);
+            }
+        });
 
         mBackgroundHandler.connect();
         mBackgroundHandler.registerInterface();
@@ -138,8 +209,42 @@ public class AllJoynService extends Service {
             mBackgroundHandler.sendMessage(msg);
         }
 
+        /**
+         * Interactive commands hold back transfer chunks from the moment they are queued. Property writes are
+         * conflated: their value goes to {@link #propertyWrites} and only a message naming the device is queued,
+         * unless one is already waiting.
+         */
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            String property = propertyName(msg.what);
+            if (property != null) {
+                DeviceAdapterItem device = deviceAdapter == null ? null : deviceAdapter.getSelectedItem();
+                Object value = msg.what == ControlsFragment.VOLUME_CHANGED ? (Object) msg.arg1 : msg.obj;
+                if (device == null || !propertyWrites.offer(device.getBusName(), property, value)) {
+                    return true;
+                }
+                msg.obj = device.getBusName();
+            }
+            boolean interactive = isInteractive(msg.what);
+            if (interactive) {
+                trafficLanes.beginInteractive();
+            }
+            boolean queued = super.sendMessageAtTime(msg, uptimeMillis);
+            if (interactive && !queued) {
+                trafficLanes.endInteractive();
+            }
+            return queued;
+        }
+
+        /**
+         * Commands for a device are handed to its serial executor, see {@link #dispatch}.
+         */
         @Override
         public void handleMessage(Message msg) {
+            processMessage(msg);
+        }
+
+        private void processMessage(Message msg) {
             switch (msg.what) {
                 case CONNECT:
                     mNetworkService.doConnect();
@@ -173,48 +278,21 @@ public class AllJoynService extends Service {
                     break;
 
                 case NotificationService.NOTIFY_SUBSCRIBERS:
-                    Iterator<String> it = subscribers.iterator();
-                    while (it.hasNext()) {
-                        String busName = it.next();
-                        DeviceAdapterItem device = deviceAdapter.findByBusName(busName);
-                        ProxyBusObject proxyBusObject = map.get(device);
-                        if (proxyBusObject == null) {
-                            it.remove();
-                        }
-                        String[] titleAndText = ((String) msg.obj).split(":");
-                        switch (device.getDeviceType()) {
-                            case PC:
-                                PCInterface pcInterface = proxyBusObject.getInterface(PCInterface.class);
-                                try {
-                                    pcInterface.notify(mobileService.getDeviceName(), titleAndText[0].trim(), titleAndText[1].trim());
-                                } catch (BusException e) {
-                                    log(Level.SEVERE, TAG, "Cannot send notification");
-                                }
-                                break;
-                            case MOBILE:
-                                MobileInterface mobileInterface = proxyBusObject.getInterface(MobileInterface.class);
-                                try {
-                                    mobileInterface.notify(mobileService.getDeviceName(), titleAndText[0].trim(), titleAndText[1].trim());
-                                } catch (BusException e) {
-                                    log(Level.SEVERE, TAG, "Cannot send notification");
-                                }
-                                break;
-                        }
-                    }
+                    notifySubscribers((String) msg.obj);
+                    break;
+
+                case ControlsFragment.FILE_BROADCAST:
+                    broadcastFile((String) msg.obj);
+                    break;
+
+                case ControlsFragment.VOLUME_CHANGED:
+                case ControlsFragment.LIGHT_TOGGLE:
+                case ControlsFragment.AUTO_MODE_TOGGLE:
+                    dispatch(sessions.get((String) msg.obj), msg);
                     break;
 
                 default:
-                    switch (deviceAdapter.getSelectedItem().getDeviceType()) {
-                        case BOARD:
-                            processBoardMessage(msg);
-                            break;
-                        case MOBILE:
-                            processMobileMessage(msg);
-                            break;
-                        case PC:
-                            processPCMessage(msg);
-                            break;
-                    }
+                    dispatch(getSelectedSession(), msg);
                     break;
             }
         }
@@ -230,300 +308,555 @@ public class AllJoynService extends Service {
     private static final int DEVICE_DISCOVERED = 8;
     private static final int DEVICE_LOST = 9;
 
-    private void processPCMessage(Message msg) {
-        PCInterface pcInterface = getCurrentProxyObj().getInterface(PCInterface.class);
-        boolean isScript = false;
-        switch (msg.what) {
+    /**
+     * Input and property messages go on the interactive lane, ahead of bulk transfers. New input messages
+     * have to be listed here.
+     */
+    static boolean isInteractive(int what) {
+        switch (what) {
             case ControlsFragment.VOLUME_CHANGED:
-                try {
-                    pcInterface.setVolume(msg.arg1);
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot change volume");
-                }
+            case ControlsFragment.MEDIA_PLAY_BUTTON:
+            case ControlsFragment.MEDIA_STOP_BUTTON:
+            case ControlsFragment.MEDIA_NEXT_BUTTON:
+            case ControlsFragment.MEDIA_PREVIOUS_BUTTON:
+            case ControlsFragment.MOUSE_MOVE:
+            case ControlsFragment.MOUSE_LEFT_CLICK:
+            case ControlsFragment.MOUSE_RIGHT_CLICK:
+            case ControlsFragment.KEY_PRESSED:
+            case ControlsFragment.SLIDESHOW_START:
+            case ControlsFragment.SLIDESHOW_STOP:
+            case ControlsFragment.NEXT_SLIDE:
+            case ControlsFragment.PREV_SLIDE:
+            case ControlsFragment.TYPE_TEXT:
+            case ControlsFragment.KEY_EVENTS:
+            case ControlsFragment.GESTURE:
+            case ControlsFragment.MOUSE_BUTTON:
+            case ControlsFragment.LIGHT_TOGGLE:
+            case ControlsFragment.AUTO_MODE_TOGGLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Runs a command on the serial executor of its device, so a slow device holds back only its own commands.
+     * The message is copied, the handler recycles it once this returns. A command that never runs, rejected
+     * here or dropped later with its device, is released by {@link #dropped}.
+     */
+    private void dispatch(final DeviceSession session, Message msg) {
+        final Message command = Message.obtain(msg);
+        final boolean interactive = isInteractive(command.what);
+        boolean queued = session != null && deviceExecutors.execute(session.getBusName(),
+                new DeviceExecutors.DroppableCommand() {
+                    @Override
+                    public void run() {
+                        try {
+                            processDeviceMessage(session, command);
+                        } finally {
+                            if (interactive) {
+                                trafficLanes.endInteractive();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onDropped() {
+                        dropped(command);
+                    }
+                });
+        if (queued) {
+            return;
+        }
+        dropped(command);
+        if (session != null) {
+            log(Level.WARNING, TAG, "Dropped command", String.valueOf(command.what), "for", session.getBusName(),
+                    deviceExecutors.toString());
+        }
+    }
+
+    /**
+     * Releases what a command holds from the moment it was sent to the handler.
+     */
+    private void dropped(Message command) {
+        if (isInteractive(command.what)) {
+            trafficLanes.endInteractive();
+        }
+        String property = propertyName(command.what);
+        if (property != null) {
+            // the value will not be written, a later change has to queue a write again
+            propertyWrites.take((String) command.obj, property);
+        }
+        discardDeltas(command);
+    }
+
+    /**
+     * Drains touchpad deltas that will not be sent, so the next movement schedules a send again.
+     */
+    private static void discardDeltas(Message msg) {
+        if (msg.obj instanceof MouseDeltas) {
+            ((MouseDeltas) msg.obj).drain();
+        } else if (msg.obj instanceof GestureDeltas) {
+            ((GestureDeltas) msg.obj).drain();
+        }
+    }
+
+    private void processDeviceMessage(DeviceSession session, Message msg) {
+        if (propertyName(msg.what) != null) {
+            writeProperty(msg.what, session);
+            return;
+        }
+        if (msg.what == ControlsFragment.MACRO_RUN) {
+            runMacro(session, (Macro) msg.obj);
+            return;
+        }
+        switch (session.getDeviceType()) {
+            case BOARD:
+                processBoardMessage(session, msg);
+                break;
+            case MOBILE:
+                processMobileMessage(session, msg);
                 break;
+            case PC:
+                processPCMessage(session, msg);
+                break;
+        }
+    }
 
-            case ControlsFragment.MEDIA_PLAY_BUTTON:
-                try {
-                    pcInterface.mediaControlPlayPause();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
+    /**
+     * Sends the notification to every subscriber from its own device executor.
+     */
+    private void notifySubscribers(String notification) {
+        final String[] titleAndText = notification.split(":");
+        Iterator<String> it = subscribers.iterator();
+        while (it.hasNext()) {
+            String busName = it.next();
+            final DeviceSession session = sessions.get(busName);
+            if (session == null) {
+                it.remove();
+                continue;
+            }
+            deviceExecutors.execute(busName, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        switch (session.getDeviceType()) {
+                            case PC:
+                                session.getPC().notify(mobileService.getDeviceName(), titleAndText[0].trim(), titleAndText[1].trim());
+                                break;
+                            case MOBILE:
+                                session.getMobile().notify(mobileService.getDeviceName(), titleAndText[0].trim(), titleAndText[1].trim());
+                                break;
+                        }
+                    } catch (BusException e) {
+                        log(Level.SEVERE, TAG, "Cannot send notification");
+                    }
                 }
+            });
+        }
+    }
+
+    private static String propertyName(int what) {
+        switch (what) {
+            case ControlsFragment.VOLUME_CHANGED:
+                return "Volume";
+            case ControlsFragment.LIGHT_TOGGLE:
+                return "Light";
+            case ControlsFragment.AUTO_MODE_TOGGLE:
+                return "AutoMode";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Writes the newest value offered for a property. When no newer one came meanwhile, the value the device
+     * ended up with is broadcast so the controls show it, read back from the device if the write failed.
+     */
+    private void writeProperty(int what, DeviceSession session) {
+        String busName = session.getBusName();
+        String property = propertyName(what);
+        Object value = propertyWrites.take(busName, property);
+        if (value == null) {
+            return;
+        }
+        try {
+            switch (what) {
+                case ControlsFragment.VOLUME_CHANGED:
+                    session.getPC().setVolume((Integer) value);
+                    break;
+                case ControlsFragment.LIGHT_TOGGLE:
+                    session.getBoard().setLight((Boolean) value);
+                    break;
+                case ControlsFragment.AUTO_MODE_TOGGLE:
+                    session.getBoard().setAutoMode((Boolean) value);
+                    break;
+            }
+        } catch (BusException e) {
+            log(Level.SEVERE, TAG, "Cannot write", property, "of", busName + ":", e.getMessage());
+            value = readProperty(what, session);
+        }
+        if (value != null && !propertyWrites.isPending(busName, property)) {
+            Intent i = new Intent(ControlsFragment.PROPERTY_APPLIED_ACTION);
+            i.putExtra(ControlsFragment.EXTRA_DEVICE, busName);
+            i.putExtra(ControlsFragment.EXTRA_PROPERTY, what);
+            i.putExtra(ControlsFragment.EXTRA_PROPERTY_VALUE,
+                    value instanceof Boolean ? ((Boolean) value ? 1 : 0) : (Integer) value);
+            sendBroadcast(i);
+        }
+    }
+
+    /**
+     * @return the current value of the property, null when it cannot be read either
+     */
+    private Object readProperty(int what, DeviceSession session) {
+        try {
+            switch (what) {
+                case ControlsFragment.VOLUME_CHANGED:
+                    return session.getPC().getVolume();
+                case ControlsFragment.LIGHT_TOGGLE:
+                    return session.getBoard().getLight();
+                case ControlsFragment.AUTO_MODE_TOGGLE:
+                    return session.getBoard().getAutoMode();
+                default:
+                    return null;
+            }
+        } catch (BusException e) {
+            return null;
+        }
+    }
+
+    private void processPCMessage(DeviceSession session, Message msg) {
+        boolean isScript = false;
+        switch (msg.what) {
+            case ControlsFragment.MEDIA_PLAY_BUTTON:
+                sendInput(session, InputCommand.MEDIA_PLAY_PAUSE, 0);
                 break;
 
             case ControlsFragment.MEDIA_STOP_BUTTON:
-                try {
-                    pcInterface.mediaControlStop();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.MEDIA_STOP, 0);
                 break;
 
             case ControlsFragment.MEDIA_NEXT_BUTTON:
-                try {
-                    pcInterface.mediaControlNext();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.MEDIA_NEXT, 0);
                 break;
 
             case ControlsFragment.MEDIA_PREVIOUS_BUTTON:
-                try {
-                    pcInterface.mediaControlPrevious();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.MEDIA_PREVIOUS, 0);
                 break;
 
             case ControlsFragment.MOUSE_MOVE:
-                try {
-                    pcInterface.mouseMove(msg.arg1, msg.arg2);
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
+                moveMouse(session, ((MouseDeltas) msg.obj).drain());
+                break;
+
+            case ControlsFragment.GESTURE:
+                int[] gestures = ((GestureDeltas) msg.obj).drain();
+                if (gestures[0] != 0 || gestures[1] != 0) {
+                    sendGesture(session, Gesture.SCROLL, gestures[0], gestures[1]);
+                }
+                if (gestures[2] != GestureDeltas.NO_ZOOM) {
+                    sendGesture(session, Gesture.ZOOM, gestures[2], 0);
                 }
                 break;
 
+            case ControlsFragment.MOUSE_BUTTON:
+                sendGesture(session, Gesture.BUTTON, msg.arg1, msg.arg2);
+                break;
+
             case ControlsFragment.MOUSE_LEFT_CLICK:
-                try {
-                    pcInterface.mouseLeftClick();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.LEFT_CLICK, 0);
                 break;
 
             case ControlsFragment.MOUSE_RIGHT_CLICK:
-                try {
-                    pcInterface.mouseRightClick();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.RIGHT_CLICK, 0);
                 break;
 
             case ControlsFragment.KEY_PRESSED:
+                sendInput(session, InputCommand.KEY_PRESSED, msg.arg1);
+                break;
+
+            case ControlsFragment.TYPE_TEXT:
                 try {
-                    pcInterface.keyPressed(msg.arg1);
+                    session.getInputSender().typeText((String) msg.obj);
                 } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
+                    log(Level.SEVERE, TAG, "Cannot type text");
                 }
                 break;
 
-            case ControlsFragment.SLIDESHOW_START:
+            case ControlsFragment.KEY_EVENTS:
                 try {
-                    pcInterface.slideshowStart();
+                    session.getInputSender().keyEvents((int[]) msg.obj);
                 } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
+                    log(Level.SEVERE, TAG, "Cannot send key events");
                 }
                 break;
 
+            case ControlsFragment.SLIDESHOW_START:
+                sendInput(session, InputCommand.SLIDESHOW_START, 0);
+                break;
+
             case ControlsFragment.SLIDESHOW_STOP:
-                try {
-                    pcInterface.slideshowStop();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.SLIDESHOW_STOP, 0);
                 break;
 
             case ControlsFragment.NEXT_SLIDE:
-                try {
-                    pcInterface.nextSlide();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.NEXT_SLIDE, 0);
                 break;
 
             case ControlsFragment.PREV_SLIDE:
-                try {
-                    pcInterface.previousSlide();
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send media control signal");
-                }
+                sendInput(session, InputCommand.PREVIOUS_SLIDE, 0);
                 break;
 
             case ControlsFragment.SCRIPT_ADD:
                 isScript = true;
             case ControlsFragment.FILE_SEND:
-
-                File file = new File((String) msg.obj);
-                if (!file.exists())
-                    break;
-
-                try {
-                    FileInputStream in = new FileInputStream(file);
-                    int length = (int) file.length();
-                    byte[] tempBytes;
-                    int numRead = 0;
-                    int numChunks = length / MAX_BYTES + (length % MAX_BYTES == 0 ? 0 : 1);
-                    int maxProgress = numChunks;
-                    for (int i = 0; i < numChunks; i++) {
-                        tempBytes = null;
-                        int offset = 0;
-                        numRead = 0;
-                        if (MAX_BYTES > length) {
-                            tempBytes = new byte[length];
-                        } else {
-                            tempBytes = new byte[MAX_BYTES];
-                        }
-                        while (offset < tempBytes.length && (numRead = in.read(tempBytes, 0, tempBytes.length - offset)) >= 0) {
-                            offset += numRead;
-                        }
-                        length -= MAX_BYTES;
-                        pcInterface.fileData(file.getName(), tempBytes, isScript);
-                    }
-                    in.close();
-                    pcInterface.fileData(file.getName(), new byte[0], isScript);
-                } catch (Exception e) {
-                    log(Level.SEVERE, TAG, "Cannot send file");
-                } finally {
-                    Intent i = new Intent(ControlsFragment.STATUS_BROADCAST_ACTION);
-                    sendBroadcast(i);
-                }
-
+                sendFile((String) msg.obj, session, isScript);
                 break;
 
             case ControlsFragment.SCRIPT_RUN:
-                try {
-                    pcInterface.runScript((String)msg.obj);
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot start script");
-                }
+                runScript(session, (String) msg.obj);
                 break;
         }
 
     }
 
-    private void processMobileMessage(Message msg) {
+    private void sendInput(DeviceSession session, int command, int arg) {
+        try {
+            session.getInputSender().command(command, arg);
+        } catch (BusException e) {
+            log(Level.SEVERE, TAG, "Cannot send media control signal");
+        }
+    }
+
+    private void moveMouse(DeviceSession session, int[] samples) {
+        try {
+            session.getInputSender().moveMouse(samples);
+        } catch (BusException e) {
+            log(Level.SEVERE, TAG, "Cannot send media control signal");
+        }
+    }
+
+    private void sendGesture(DeviceSession session, int type, int x, int y) {
+        try {
+            session.getInputSender().gesture(type, x, y);
+        } catch (BusException e) {
+            log(Level.SEVERE, TAG, "Cannot send gesture");
+        }
+    }
+
+    private void processMobileMessage(DeviceSession session, Message msg) {
         boolean isScript = false;
-        MobileInterface mobileInterface = getCurrentProxyObj().getInterface(MobileInterface.class);
         switch (msg.what) {
             case ControlsFragment.SCRIPT_ADD:
                 isScript = true;
             case ControlsFragment.FILE_SEND:
-
-                File file = new File((String) msg.obj);
-                if (!file.exists())
-                    break;
-
-                try {
-                    FileInputStream in = new FileInputStream(file);
-                    int length = (int) file.length();
-                    byte[] tempBytes;
-                    int numRead = 0;
-                    int numChunks = length / MAX_BYTES + (length % MAX_BYTES == 0 ? 0 : 1);
-                    int maxProgress = numChunks;
-                    for (int i = 0; i < numChunks; i++) {
-                        tempBytes = null;
-                        int offset = 0;
-                        numRead = 0;
-                        if (MAX_BYTES > length) {
-                            tempBytes = new byte[length];
-                        } else {
-                            tempBytes = new byte[MAX_BYTES];
-                        }
-                        while (offset < tempBytes.length && (numRead = in.read(tempBytes, 0, tempBytes.length - offset)) >= 0) {
-                            offset += numRead;
-                        }
-                        length -= MAX_BYTES;
-                        mobileInterface.fileData(file.getName(), tempBytes, isScript);
-                    }
-                    in.close();
-                    mobileInterface.fileData(file.getName(), new byte[0], isScript);
-                } catch (Exception e) {
-                    log(Level.SEVERE, TAG, "Cannot send file");
-                } finally {
-                    Intent i = new Intent(ControlsFragment.STATUS_BROADCAST_ACTION);
-                    sendBroadcast(i);
-                }
-
+                sendFile((String) msg.obj, session, isScript);
                 break;
 
             case ControlsFragment.SCRIPT_RUN:
-                try {
-                    mobileInterface.runScript((String)msg.obj);
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot start script");
-                }
+                runScript(session, (String) msg.obj);
+                break;
+
+            default:
+                discardDeltas(msg);
                 break;
         }
     }
 
-    private void processBoardMessage(Message msg) {
-        BoardInterface boardInterface = getCurrentProxyObj().getInterface(BoardInterface.class);
+    private void processBoardMessage(DeviceSession session, Message msg) {
         switch (msg.what) {
-            case ControlsFragment.LIGHT_TOGGLE:
-                try {
-                    boardInterface.setLight((Boolean) msg.obj);
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send turn on signal");
-                }
+            case ControlsFragment.SCRIPT_ADD:
+                sendFile((String) msg.obj, session, true);
                 break;
 
-            case ControlsFragment.AUTO_MODE_TOGGLE:
-                try {
-                    boardInterface.setAutoMode((Boolean) msg.obj);
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot send auto mode signal");
-                }
+            case ControlsFragment.SCRIPT_RUN:
+                runScript(session, (String) msg.obj);
                 break;
 
-            case ControlsFragment.SCRIPT_ADD:
+            default:
+                discardDeltas(msg);
+                break;
+        }
+    }
 
-                File file = new File((String) msg.obj);
-                if (!file.exists())
-                    break;
+    /**
+     * Starts the script with its output streamed back, or without output on devices that cannot stream it.
+     * A script that cannot be started says so in the script output.
+     */
+    private void runScript(DeviceSession session, final String scriptName) {
+        final AsyncDevice<?> device = session.getAsync();
+        device.startScript(scriptName).addCallback(new RemoteFuture.Callback<String>() {
+            @Override
+            public void onSuccess(String runId) {
+                scriptRuns.put(runId, scriptName);
+            }
 
-                try {
-                    FileInputStream in = new FileInputStream(file);
-                    int length = (int) file.length();
-                    byte[] tempBytes;
-                    int numRead = 0;
-                    int numChunks = length / MAX_BYTES + (length % MAX_BYTES == 0 ? 0 : 1);
-                    int maxProgress = numChunks;
-                    for (int i = 0; i < numChunks; i++) {
-                        tempBytes = null;
-                        int offset = 0;
-                        numRead = 0;
-                        if (MAX_BYTES > length) {
-                            tempBytes = new byte[length];
-                        } else {
-                            tempBytes = new byte[MAX_BYTES];
+            @Override
+            public void onFailure(Throwable error) {
+                if (error instanceof ErrorReplyBusException) {
+                    device.runScript(scriptName).addCallback(new RemoteFuture.Callback<Void>() {
+                        @Override
+                        public void onSuccess(Void value) {
                         }
-                        while (offset < tempBytes.length && (numRead = in.read(tempBytes, 0, tempBytes.length - offset)) >= 0) {
-                            offset += numRead;
+
+                        @Override
+                        public void onFailure(Throwable error) {
+                            reportScriptFailure(scriptName, error);
                         }
-                        length -= MAX_BYTES;
-                        boardInterface.fileData(file.getName(), tempBytes, true);
-                    }
-                    in.close();
-                    boardInterface.fileData(file.getName(), new byte[0], true);
-                } catch (Exception e) {
-                    log(Level.SEVERE, TAG, "Cannot send file");
-                } finally {
-                    Intent i = new Intent(ControlsFragment.STATUS_BROADCAST_ACTION);
-                    sendBroadcast(i);
+                    });
+                } else {
+                    reportScriptFailure(scriptName, error);
                 }
+            }
+        });
+    }
 
-                break;
+    /**
+     * The macro is queued behind the commands already sent to the device and takes one call there,
+     * two when the device has to be sent the macro first.
+     */
+    private void runMacro(DeviceSession session, final Macro macro) {
+        if (session.getMacros() == null) {
+            log(Level.WARNING, TAG, "Cannot run macro", macro.getName(), "on", session.getBusName());
+            return;
+        }
+        asyncClient.runMacro(session.getBusName(), session.getMacros(), macro)
+                .addCallback(new RemoteFuture.Callback<Void>() {
+                    @Override
+                    public void onSuccess(Void value) {
+                    }
 
-            case ControlsFragment.SCRIPT_RUN:
-                try {
-                    boardInterface.runScript((String)msg.obj);
-                } catch (BusException e) {
-                    log(Level.SEVERE, TAG, "Cannot start script");
-                }
-                break;
+                    @Override
+                    public void onFailure(Throwable error) {
+                        log(Level.SEVERE, TAG, "Cannot run macro", macro.getName() + ":", String.valueOf(error));
+                    }
+                });
+    }
+
+    private void reportScriptFailure(String scriptName, Throwable error) {
+        log(Level.SEVERE, TAG, "Cannot start script", scriptName + ":", String.valueOf(error));
+        Intent i = new Intent(ControlsFragment.SCRIPT_OUTPUT_ACTION);
+        i.putExtra(ControlsFragment.EXTRA_SCRIPT_NAME, scriptName);
+        i.putExtra(ControlsFragment.EXTRA_SCRIPT_LINES, "Cannot start: " + error.getMessage());
+        i.putExtra(ControlsFragment.EXTRA_SCRIPT_ERROR, true);
+        sendBroadcast(i);
+    }
+
+    private void ackScriptOutput(String busName, String runId, int sequence) {
+        DeviceSession session = sessions.get(busName);
+        if (session == null || session.getScriptExecution() == null) {
+            return;
+        }
+        try {
+            session.getScriptExecution().ackScriptOutput(runId, sequence);
+        } catch (BusException e) {
+            log(Level.WARNING, TAG, "Cannot acknowledge script output");
         }
     }
 
-    private ProxyBusObject getCurrentProxyObj() {
-        return map.get(deviceAdapter.getSelectedItem());
+    /**
+     * Output can arrive before {@code startScript} returns the run id.
+     */
+    private String getScriptName(String runId) {
+        String scriptName = scriptRuns.get(runId);
+        return scriptName != null ? scriptName : "script";
     }
 
-    private void doDeviceDiscovered(int id, ProxyBusObject proxyBusObject) {
-        String busName = proxyBusObject.getBusName();
+    private void sendFile(String path, DeviceSession session, boolean isScript) {
+        File file = new File(path);
+        if (!file.exists()) {
+            Intent i = new Intent(ControlsFragment.STATUS_BROADCAST_ACTION);
+            sendBroadcast(i);
+            return;
+        }
+
+        transferScheduler.submit(session.getBusName(), session.getFileTransfer(), file, isScript);
+    }
+
+    /**
+     * Sends the file to every device of the selected device's type in one broadcast.
+     */
+    private void broadcastFile(String path) {
+        File file = new File(path);
+        DeviceAdapterItem selected = deviceAdapter == null ? null : deviceAdapter.getSelectedItem();
+        DeviceAdapterItem.DeviceType group = selected == null ? null : selected.getDeviceType();
+        Map<String, FileTransferInterface> devices = new LinkedHashMap<>();
+        for (DeviceSession session : sessions.values()) {
+            if (group != null && session.getDeviceType() == group) {
+                devices.put(session.getBusName(), session.getFileTransfer());
+            }
+        }
+        if (!file.exists() || devices.isEmpty()) {
+            Intent i = new Intent(ControlsFragment.STATUS_BROADCAST_ACTION);
+            sendBroadcast(i);
+            return;
+        }
+
+        transferScheduler.submitBroadcast(group.name(), devices, broadcastSession, file, false);
+    }
+
+    /**
+     * Reports all running transfers together, they share one progress dialog.
+     */
+    private void sendProgress() {
+        long toSend = 0;
+        long acked = 0;
+        double throughput = 0;
+        for (TransferScheduler.Transfer transfer : transferScheduler.getTransfers()) {
+            if (transfer.getState() == TransferScheduler.State.RUNNING) {
+                TransferStats stats = transfer.getStats();
+                toSend += stats.getBytesToSend();
+                acked += stats.getBytesAcked();
+                throughput += stats.getInstantaneousThroughput();
+            }
+        }
+        if (toSend == 0) {
+            return;
+        }
+
+        Intent i = new Intent(ControlsFragment.PROGRESS_BROADCAST_ACTION);
+        i.putExtra(ControlsFragment.EXTRA_BYTES_ACKED, acked);
+        i.putExtra(ControlsFragment.EXTRA_BYTES_TO_SEND, toSend);
+        i.putExtra(ControlsFragment.EXTRA_THROUGHPUT, throughput);
+        i.putExtra(ControlsFragment.EXTRA_ETA, throughput > 0 ? Math.max(0, toSend - acked) / throughput : -1);
+        sendBroadcast(i);
+    }
+
+    /**
+     * The session of the device selected in the adapter, looked up again only when the selection changed.
+     */
+    private DeviceSession getSelectedSession() {
+        DeviceAdapterItem selected = deviceAdapter == null ? null : deviceAdapter.getSelectedItem();
+        DeviceSession session = selectedSession;
+        if (session == null || session.getItem() != selected) {
+            session = selected == null ? null : sessions.get(selected.getBusName());
+            selectedSession = session;
+        }
+        return session;
+    }
+
+    /**
+     * Fetching the device properties is a round trip, so the session is set up on the device's executor
+     * rather than on the bus handler thread.
+     */
+    private void doDeviceDiscovered(int id, final ProxyBusObject proxyBusObject) {
+        final String busName = proxyBusObject.getBusName();
         if (busName.equals(mNetworkService.getBusName()))
             return;
 
-        DeviceAdapterItem.DeviceType deviceType = DeviceAdapterItem.DeviceType.valueOf(id);
+        final DeviceAdapterItem.DeviceType deviceType = DeviceAdapterItem.DeviceType.valueOf(id);
+        boolean queued = deviceExecutors.execute(busName, new Runnable() {
+            @Override
+            public void run() {
+                addSession(busName, deviceType, proxyBusObject);
+            }
+        });
+        if (!queued) {
+            log(Level.WARNING, TAG, "Cannot set up discovered device", busName, deviceExecutors.toString());
+        }
+    }
 
+    private void addSession(String busName, DeviceAdapterItem.DeviceType deviceType, ProxyBusObject proxyBusObject) {
         String deviceName;
         String deviceOS;
         try {
@@ -542,23 +875,58 @@ public class AllJoynService extends Service {
         if (deviceAdapter != null) {
             deviceAdapter.add(deviceAdapterItem);
         }
-        map.put(deviceAdapterItem, proxyBusObject);
+        sessions.put(busName, new DeviceSession(deviceAdapterItem, proxyBusObject, asyncClient));
     }
 
-    private void doDeviceLost(ProxyBusObject device) {
-        for (Map.Entry<DeviceAdapterItem, ProxyBusObject> entry : map.entrySet()) {
-            if (device == entry.getValue()) {
-                if (deviceAdapter != null) {
-                    deviceAdapter.remove(entry.getKey());
+    /**
+     * The session is closed on the device's executor, after the command still running, so that command does
+     * not lose its input channel halfway. A setup still fetching properties adds its session before that.
+     */
+    private void doDeviceLost(final ProxyBusObject device) {
+        final String busName = device.getBusName();
+        final DeviceSession session = removeSession(busName, device);
+        transferScheduler.cancelAll(busName);
+        propertyWrites.clear(busName);
+        boolean queued = deviceExecutors.remove(busName, new Runnable() {
+            @Override
+            public void run() {
+                DeviceSession closing = session != null ? session : removeSession(busName, device);
+                if (closing != null) {
+                    closing.close();
                 }
-                map.remove(entry.getKey());
-                return;
             }
+        });
+        if (!queued && session != null) {
+            session.close();
         }
     }
 
+    /**
+     * @return the removed session, null when there is none for that proxy
+     */
+    private DeviceSession removeSession(String busName, ProxyBusObject device) {
+        DeviceSession session = sessions.get(busName);
+        if (session == null || session.getProxy() != device) {
+            return null;
+        }
+        if (deviceAdapter != null) {
+            deviceAdapter.remove(session.getItem());
+        }
+        sessions.remove(busName);
+        if (selectedSession == session) {
+            selectedSession = null;
+        }
+        return session;
+    }
+
     @Override
     public void onDestroy() {
+        transferScheduler.shutdown();
+        deviceExecutors.shutdown();
+        mobileService.shutdown();
+        for (DeviceSession session : sessions.values()) {
+            session.close();
+        }
         mBackgroundHandler.unregisterListeners();
         mBackgroundHandler.unregisterInterface();
         mBackgroundHandler.disconnect();
@@ -566,11 +934,19 @@ public class AllJoynService extends Service {
 
     public void setDeviceAdapter(DeviceAdapter deviceAdapter) {
         if (this.deviceAdapter != deviceAdapter) {
-            deviceAdapter.addAll(map.keySet());
+            Set<DeviceAdapterItem> items = new HashSet<>();
+            for (DeviceSession session : sessions.values()) {
+                items.add(session.getItem());
+            }
+            deviceAdapter.addAll(items);
             this.deviceAdapter = deviceAdapter;
         }
     }
 
+    public TransferScheduler getTransferScheduler() {
+        return transferScheduler;
+    }
+
     public class AllJoynBinder extends Binder {
         public AllJoynService getInstance() {
             return AllJoynService.this;
@@ -0,0 +1,129 @@
+package org.taom.android.alljoyn;
+
+import org.alljoyn.bus.ProxyBusObject;
+import org.taom.android.devices.DeviceAdapterItem;
+import org.taom.izconnect.network.client.AsyncBoard;
+import org.taom.izconnect.network.client.AsyncClient;
+import org.taom.izconnect.network.client.AsyncDevice;
+import org.taom.izconnect.network.client.AsyncMobile;
+import org.taom.izconnect.network.client.AsyncPC;
+import org.taom.izconnect.network.input.InputSender;
+import org.taom.izconnect.network.interfaces.BoardInterface;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+import org.taom.izconnect.network.interfaces.MacroInterface;
+import org.taom.izconnect.network.interfaces.MobileInterface;
+import org.taom.izconnect.network.interfaces.PCInterface;
+import org.taom.izconnect.network.interfaces.ScriptExecutionInterface;
+
+/**
+ * A discovered device with its typed proxy, resolved once at discovery so that commands do not go through
+ * {@link ProxyBusObject#getInterface(Class)} every time. PCs also keep their {@link InputSender} here,
+ * and every known device type an {@link AsyncDevice} over the same proxy.
+ */
+class DeviceSession {
+    private final DeviceAdapterItem item;
+    private final ProxyBusObject proxy;
+    private final Object remote;
+    private final AsyncDevice<?> async;
+    private InputSender inputSender;
+
+    DeviceSession(DeviceAdapterItem item, ProxyBusObject proxy, AsyncClient client) {
+        this.item = item;
+        this.proxy = proxy;
+        Class interfaceClass = item.getDeviceType().getInterfaceClass();
+        this.remote = interfaceClass == null ? null : proxy.getInterface(interfaceClass);
+        if (getPC() != null) {
+            async = new AsyncPC(client, getBusName(), getPC());
+        } else if (getMobile() != null) {
+            async = new AsyncMobile(client, getBusName(), getMobile());
+        } else if (getBoard() != null) {
+            async = new AsyncBoard(client, getBusName(), getBoard());
+        } else {
+            async = null;
+        }
+    }
+
+    DeviceAdapterItem getItem() {
+        return item;
+    }
+
+    String getBusName() {
+        return item.getBusName();
+    }
+
+    DeviceAdapterItem.DeviceType getDeviceType() {
+        return item.getDeviceType();
+    }
+
+    ProxyBusObject getProxy() {
+        return proxy;
+    }
+
+    /**
+     * @return null when the device is not a PC
+     */
+    PCInterface getPC() {
+        return remote instanceof PCInterface ? (PCInterface) remote : null;
+    }
+
+    /**
+     * @return null when the device is not a mobile
+     */
+    MobileInterface getMobile() {
+        return remote instanceof MobileInterface ? (MobileInterface) remote : null;
+    }
+
+    /**
+     * @return null when the device is not a board
+     */
+    BoardInterface getBoard() {
+        return remote instanceof BoardInterface ? (BoardInterface) remote : null;
+    }
+
+    /**
+     * @return null for devices of unknown type
+     */
+    FileTransferInterface getFileTransfer() {
+        return remote instanceof FileTransferInterface ? (FileTransferInterface) remote : null;
+    }
+
+    /**
+     * @return null for devices of unknown type
+     */
+    ScriptExecutionInterface getScriptExecution() {
+        return remote instanceof ScriptExecutionInterface ? (ScriptExecutionInterface) remote : null;
+    }
+
+    /**
+     * @return null when the device is neither a PC nor a board
+     */
+    MacroInterface getMacros() {
+        return remote instanceof MacroInterface ? (MacroInterface) remote : null;
+    }
+
+    /**
+     * @return null for devices of unknown type
+     */
+    AsyncDevice<?> getAsync() {
+        return async;
+    }
+
+    /**
+     * Created on first use by a command on the device's executor. Those run one at a time, but on any of
+     * the executor's threads, and {@link #close()} comes from others.
+     *
+     * @return null when the device is not a PC
+     */
+    synchronized InputSender getInputSender() {
+        if (inputSender == null && getPC() != null) {
+            inputSender = new InputSender(getBusName(), getPC());
+        }
+        return inputSender;
+    }
+
+    synchronized void close() {
+        if (inputSender != null) {
+            inputSender.close();
+        }
+    }
+}
@@ -5,23 +5,50 @@ import android.os.Environment;
 
 import org.alljoyn.bus.BusException;
 import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+import org.taom.izconnect.network.AbstractNetworkService;
+import org.taom.izconnect.network.interfaces.FileBroadcastInterface;
 import org.taom.izconnect.network.interfaces.MobileInterface;
+import org.taom.izconnect.network.interfaces.ScriptOutputInterface;
+import org.taom.izconnect.network.script.ScriptExecutor;
+import org.taom.izconnect.network.transfer.ChunkReceiver;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
 
-public class MobileServiceImpl implements BusObject, MobileInterface {
+import static org.taom.izconnect.network.GFLogger.log;
+
+public class MobileServiceImpl implements BusObject, MobileInterface, FileBroadcastInterface, ScriptOutputInterface {
+    private static final String TAG = "MobileServiceImpl";
     private static final File IZCONNECT_FOLDER = new File(Environment.getExternalStorageDirectory(), "izconnect");
+    private static final File SCRIPTS_FOLDER = new File(IZCONNECT_FOLDER, "scripts");
     private Set<String> subscribers;
-    private Map<String, FileOutputStream> incomingFiles = new ConcurrentHashMap<>();
+    private AbstractNetworkService networkService;
+    private ChunkReceiver chunkReceiver = new ChunkReceiver(IZCONNECT_FOLDER);
+    private ScriptExecutor scriptExecutor = new ScriptExecutor(new ScriptExecutor.Launcher() {
+        @Override
+        public Process launch(File script) throws IOException {
+            // external storage is mounted noexec, so the shell reads the script instead
+            return new ProcessBuilder("sh", script.getAbsolutePath()).directory(SCRIPTS_FOLDER).start();
+        }
+    });
+    private volatile ScriptOutputListener scriptOutputListener;
 
-    public MobileServiceImpl(Set<String> subscribers) {
+    /**
+     * Output of scripts this device started on others.
+     */
+    public interface ScriptOutputListener {
+        void onScriptOutput(String sender, String runId, int sequence, boolean isError, String[] lines);
+
+        void onScriptFinished(String sender, String runId, int exitCode, long durationMillis, int droppedLines);
+    }
+
+    public MobileServiceImpl(Set<String> subscribers, AbstractNetworkService networkService) {
         this.subscribers = subscribers;
+        this.networkService = networkService;
     }
 
     @Override
@@ -54,53 +81,194 @@ public class MobileServiceImpl implements BusObject, MobileInterface {
 
     @Override
     public void fileData(String filename, byte[] data, boolean isScript) throws BusException {
-        if (data.length == 0) {
-            FileOutputStream out = incomingFiles.get(filename);
-            if (out != null) {
-                incomingFiles.remove(filename);
-                try {
-                    out.flush();
-                    out.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        } else {
-            File root = new File(IZCONNECT_FOLDER, isScript ? "scripts" : "");
-            if(!root.exists()) {
-                root.mkdirs();
-            }
-            File received = new File(root, filename);
-
-            FileOutputStream out = incomingFiles.get(filename);
-            if (out == null) {
-                if (received.exists()) {
-                    received.delete();
-                }
-                try {
-                    out = new FileOutputStream(received, true);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                }
-                incomingFiles.put(filename, out);
-            }
-            try {
-                out.write(data);
-            } catch(Exception e) {
-                e.printStackTrace();
-            }
+        try {
+            chunkReceiver.fileData(filename, data, isScript);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new BusException("Cannot write " + filename);
         }
     }
 
     @Override
-    public void runScript(String scriptName) throws BusException {
-        Runtime rt = Runtime.getRuntime();
-        String scriptPath = new File(IZCONNECT_FOLDER, "scripts/" + scriptName).getAbsolutePath();
+    public String openTransfer(String transferId, String filename, long length, boolean isScript, String codec)
+            throws BusException {
+        try {
+            return chunkReceiver.openTransfer(transferId, filename, length, isScript, codec);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new BusException("Cannot open transfer " + transferId);
+        }
+    }
+
+    @Override
+    public long[] missingRanges(String transferId) throws BusException {
+        try {
+            return chunkReceiver.missingRanges(transferId);
+        } catch (IOException e) {
+            throw new BusException(e.getMessage());
+        }
+    }
+
+    @Override
+    public long transferChunk(String transferId, long offset, int length, byte[] data) throws BusException {
+        try {
+            return chunkReceiver.transferChunk(transferId, offset, length, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new BusException("Cannot write transfer " + transferId + " at " + offset);
+        }
+    }
+
+    @Override
+    public long[] closeTransfer(String transferId) throws BusException {
+        try {
+            return chunkReceiver.closeTransfer(transferId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new BusException("Cannot close transfer " + transferId);
+        }
+    }
+
+    @Override
+    public long[] commitTransfer(String transferId, byte[] segmentDigests) throws BusException {
         try {
-            rt.exec(new String[] {"chmod", "+x", scriptPath});
-            rt.exec(scriptPath);
+            return chunkReceiver.commitTransfer(transferId, segmentDigests);
         } catch (IOException e) {
             e.printStackTrace();
+            throw new BusException("Cannot commit transfer " + transferId);
+        }
+    }
+
+    @Override
+    public byte[] scriptSignature(String scriptName, int blockSize) throws BusException {
+        try {
+            return chunkReceiver.scriptSignature(scriptName, blockSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new BusException("Cannot read script " + scriptName);
+        }
+    }
+
+    @Override
+    public boolean applyScriptDelta(String scriptName, byte[] delta) throws BusException {
+        try {
+            return chunkReceiver.applyScriptDelta(scriptName, delta);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new BusException("Cannot update script " + scriptName);
+        }
+    }
+
+    @Override
+    public boolean joinBroadcast(String host, short port) throws BusException {
+        return networkService.joinBroadcast(host, port);
+    }
+
+    /**
+     * Emitted through a {@link org.alljoyn.bus.SignalEmitter} when this device broadcasts a file.
+     */
+    @Override
+    public void broadcastChunk(String transferId, long offset, int length, byte[] data) throws BusException {
+    }
+
+    @BusSignalHandler(iface = FileBroadcastInterface.INTERFACE_NAME, signal = "broadcastChunk")
+    public void onBroadcastChunk(String transferId, long offset, int length, byte[] data) {
+        try {
+            chunkReceiver.transferChunk(transferId, offset, length, data);
+        } catch (IOException e) {
+            // the sender repairs whatever closeTransfer reports missing
+            log(Level.FINE, TAG, "Broadcast chunk dropped:", e.getMessage());
+        }
+    }
+
+    @Override
+    public void broadcastFlush(String transferId, int flush) throws BusException {
+    }
+
+    @BusSignalHandler(iface = FileBroadcastInterface.INTERFACE_NAME, signal = "broadcastFlush")
+    public void onBroadcastFlush(String transferId, int flush) {
+        chunkReceiver.broadcastFlush(transferId, flush);
+    }
+
+    @Override
+    public int broadcastFlushed(String transferId) throws BusException {
+        try {
+            return chunkReceiver.broadcastFlushed(transferId);
+        } catch (IOException e) {
+            throw new BusException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void runScript(String scriptName) throws BusException {
+        try {
+            scriptExecutor.submit(scriptFile(scriptName), null);
+        } catch (RejectedExecutionException e) {
+            throw new BusException("Too many scripts queued");
+        }
+    }
+
+    @Override
+    public String startScript(String scriptName) throws BusException {
+        ScriptOutputInterface output = networkService.getCallerEmitter(this, ScriptOutputInterface.class);
+        try {
+            return scriptExecutor.submit(scriptFile(scriptName), output);
+        } catch (RejectedExecutionException e) {
+            throw new BusException("Too many scripts queued");
         }
     }
+
+    @Override
+    public void ackScriptOutput(String runId, int sequence) throws BusException {
+        scriptExecutor.ack(runId, sequence);
+    }
+
+    @Override
+    public boolean cancelScript(String runId) throws BusException {
+        return scriptExecutor.cancel(runId);
+    }
+
+    /**
+     * Emitted to the device that started the script.
+     */
+    @Override
+    public void scriptOutput(String runId, int sequence, boolean isError, String[] lines) throws BusException {
+    }
+
+    @Override
+    public void scriptFinished(String runId, int exitCode, long durationMillis, int droppedLines) throws BusException {
+    }
+
+    @BusSignalHandler(iface = ScriptOutputInterface.INTERFACE_NAME, signal = "scriptOutput")
+    public void onScriptOutput(String runId, int sequence, boolean isError, String[] lines) {
+        ScriptOutputListener listener = scriptOutputListener;
+        if (listener != null) {
+            listener.onScriptOutput(networkService.getCallerName(), runId, sequence, isError, lines);
+        }
+    }
+
+    @BusSignalHandler(iface = ScriptOutputInterface.INTERFACE_NAME, signal = "scriptFinished")
+    public void onScriptFinished(String runId, int exitCode, long durationMillis, int droppedLines) {
+        ScriptOutputListener listener = scriptOutputListener;
+        if (listener != null) {
+            listener.onScriptFinished(networkService.getCallerName(), runId, exitCode, durationMillis, droppedLines);
+        }
+    }
+
+    public void setScriptOutputListener(ScriptOutputListener scriptOutputListener) {
+        this.scriptOutputListener = scriptOutputListener;
+    }
+
+    private static File scriptFile(String scriptName) throws BusException {
+        File script = new File(SCRIPTS_FOLDER, scriptName);
+        if (!SCRIPTS_FOLDER.equals(script.getParentFile()) || !script.isFile()) {
+            throw new BusException("Unknown script " + scriptName);
+        }
+        return script;
+    }
+
+    public void shutdown() {
+        chunkReceiver.shutdown();
+        scriptExecutor.shutdown();
+    }
 }
@@ -77,4 +77,17 @@ public class DeviceAdapterItem {
         return deviceOS;
     }
 
+    /**
+     * Items are the same device when they have the same bus name.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof DeviceAdapterItem && busName.equals(((DeviceAdapterItem) o).busName);
+    }
+
+    @Override
+    public int hashCode() {
+        return busName.hashCode();
+    }
+
 }
\ No newline at end of file
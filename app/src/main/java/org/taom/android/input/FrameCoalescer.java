@@ -0,0 +1,88 @@
+package org.taom.android.input;
+
+import android.os.Handler;
+import android.view.Choreographer;
+
+import org.taom.izconnect.network.input.GestureDeltas;
+import org.taom.izconnect.network.input.MouseDeltas;
+
+/**
+ * Sends touchpad movement at most once per display frame. Movement is added to a {@link MouseDeltas},
+ * and scrolling and zooming to a {@link GestureDeltas}. On the next frame one message carrying each is
+ * queued unless one is already waiting; the handler drains whatever accumulated by the time it gets to it,
+ * or when it drops the message, so a later frame queues one again.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class FrameCoalescer implements Choreographer.FrameCallback {
+    private final Handler handler;
+    private final int what;
+    private final int gestureWhat;
+    private final MouseDeltas deltas = new MouseDeltas();
+    private final GestureDeltas gestures = new GestureDeltas();
+    private boolean framePosted;
+
+    /**
+     * @param what message sent to {@code handler} with the {@link MouseDeltas} as its object
+     */
+    public FrameCoalescer(Handler handler, int what) {
+        this(handler, what, 0);
+    }
+
+    /**
+     * @param gestureWhat message sent to {@code handler} with the {@link GestureDeltas} as its object
+     */
+    public FrameCoalescer(Handler handler, int what, int gestureWhat) {
+        this.handler = handler;
+        this.what = what;
+        this.gestureWhat = gestureWhat;
+    }
+
+    public void move(float dx, float dy) {
+        deltas.add(dx, dy);
+        postFrame();
+    }
+
+    public void scroll(float dx, float dy) {
+        gestures.scroll(dx, dy);
+        postFrame();
+    }
+
+    public void zoom(float factor) {
+        gestures.zoom(factor);
+        postFrame();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePosted = false;
+        if (deltas.schedule() && !handler.sendMessage(handler.obtainMessage(what, deltas))) {
+            deltas.drain();
+        }
+        if (gestures.schedule() && !handler.sendMessage(handler.obtainMessage(gestureWhat, gestures))) {
+            gestures.drain();
+        }
+    }
+
+    /**
+     * Queues what accumulated right away, so an input sent next comes after it.
+     */
+    public void flush() {
+        cancel();
+        doFrame(0);
+    }
+
+    public void cancel() {
+        if (framePosted) {
+            framePosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    private void postFrame() {
+        if (!framePosted) {
+            framePosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
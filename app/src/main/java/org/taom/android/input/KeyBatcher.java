@@ -0,0 +1,94 @@
+package org.taom.android.input;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+
+/**
+ * Collects a typing burst and sends it in one message: typed characters as a {@code String}, other keys as
+ * packed {@link org.taom.izconnect.network.input.KeyEvents}. A burst ends once no key came for
+ * {@link #IDLE_MILLIS}, or when it is full. Switching between text and key events sends what was
+ * collected so far first, so the order of the keys is kept.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class KeyBatcher implements Runnable {
+    private static final long IDLE_MILLIS = 60;
+    private static final int MAX_BURST = 64;
+
+    private final Handler handler;
+    private final int textWhat;
+    private final int eventsWhat;
+    private final Handler timer = new Handler(Looper.getMainLooper());
+    private final StringBuilder text = new StringBuilder();
+    private int[] events = new int[8];
+    private int eventCount;
+
+    /**
+     * @param textWhat   message sent to {@code handler} with the typed text as its object
+     * @param eventsWhat message sent to {@code handler} with the key events as its object
+     */
+    public KeyBatcher(Handler handler, int textWhat, int eventsWhat) {
+        this.handler = handler;
+        this.textWhat = textWhat;
+        this.eventsWhat = eventsWhat;
+    }
+
+    public void text(CharSequence typed) {
+        sendEvents();
+        text.append(typed);
+        if (text.length() >= MAX_BURST) {
+            sendText();
+        } else {
+            restartTimer();
+        }
+    }
+
+    public void key(int event) {
+        sendText();
+        if (eventCount == events.length) {
+            events = Arrays.copyOf(events, eventCount * 2);
+        }
+        events[eventCount++] = event;
+        if (eventCount >= MAX_BURST) {
+            sendEvents();
+        } else {
+            restartTimer();
+        }
+    }
+
+    /**
+     * Sends the current burst right away.
+     */
+    @Override
+    public void run() {
+        sendText();
+        sendEvents();
+    }
+
+    public void cancel() {
+        timer.removeCallbacks(this);
+        text.setLength(0);
+        eventCount = 0;
+    }
+
+    private void restartTimer() {
+        timer.removeCallbacks(this);
+        timer.postDelayed(this, IDLE_MILLIS);
+    }
+
+    private void sendText() {
+        if (text.length() > 0) {
+            handler.sendMessage(handler.obtainMessage(textWhat, text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    private void sendEvents() {
+        if (eventCount > 0) {
+            handler.sendMessage(handler.obtainMessage(eventsWhat, Arrays.copyOf(events, eventCount)));
+            eventCount = 0;
+        }
+    }
+}
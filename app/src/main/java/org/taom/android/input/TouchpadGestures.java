@@ -0,0 +1,185 @@
+package org.taom.android.input;
+
+import android.content.Context;
+import android.os.Handler;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import org.taom.izconnect.network.input.Gesture;
+
+/**
+ * Turns touches on the touchpad into movement and gestures:
+ * <ul>
+ * <li>one finger moves the pointer;</li>
+ * <li>two fingers moving together scroll, two fingers spreading or closing zoom;</li>
+ * <li>tap and then touch again holds the left button for dragging. The button stays locked down when the
+ * finger lifts after dragging, so a drag can continue over several strokes, and the next tap releases it.</li>
+ * </ul>
+ * Movement, scrolling and zooming go through a {@link FrameCoalescer}, button changes are sent right away
+ * after flushing it.
+ */
+public class TouchpadGestures implements View.OnTouchListener {
+    private static final int NONE = 0;
+    private static final int MOVE = 1;
+    private static final int TWO_FINGERS = 2;
+    private static final int SCROLL = 3;
+    private static final int PINCH = 4;
+
+    private final FrameCoalescer frames;
+    private final Handler handler;
+    private final int buttonWhat;
+    private final int touchSlop;
+    private final int tapTimeout;
+    private final int doubleTapTimeout;
+
+    private int mode = NONE;
+    private float x, y;
+    private float downX, downY;
+    private long downTime;
+    private boolean moved;
+    private long lastTapUp;
+    private boolean dragging;
+    private float focusX, focusY, span;
+    private float startFocusX, startFocusY, startSpan;
+
+    /**
+     * @param buttonWhat message sent to {@code handler} with the {@link Gesture} button as arg1,
+     *                   and 1 as arg2 when it is pressed, 0 when released
+     */
+    public TouchpadGestures(Context context, FrameCoalescer frames, Handler handler, int buttonWhat) {
+        this.frames = frames;
+        this.handler = handler;
+        this.buttonWhat = buttonWhat;
+        this.touchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+        this.tapTimeout = ViewConfiguration.getTapTimeout();
+        this.doubleTapTimeout = ViewConfiguration.getDoubleTapTimeout();
+    }
+
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mode = MOVE;
+                x = downX = event.getX();
+                y = downY = event.getY();
+                downTime = event.getEventTime();
+                moved = false;
+                if (!dragging && downTime - lastTapUp < doubleTapTimeout) {
+                    setButton(true);
+                }
+                break;
+
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (event.getPointerCount() == 2 && !dragging) {
+                    mode = TWO_FINGERS;
+                    measure(event);
+                    startFocusX = focusX;
+                    startFocusY = focusY;
+                    startSpan = span;
+                }
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if (mode == MOVE) {
+                    // samples batched into this event since the last one
+                    for (int h = 0; h < event.getHistorySize(); h++) {
+                        moveTo(event.getHistoricalX(h), event.getHistoricalY(h));
+                    }
+                    moveTo(event.getX(), event.getY());
+                } else if (mode >= TWO_FINGERS && event.getPointerCount() >= 2) {
+                    twoFingers(event);
+                }
+                break;
+
+            case MotionEvent.ACTION_POINTER_UP:
+                if (mode >= TWO_FINGERS) {
+                    // the finger left behind would make the pointer jump
+                    mode = NONE;
+                }
+                break;
+
+            case MotionEvent.ACTION_UP:
+                boolean tap = mode == MOVE && !moved && event.getEventTime() - downTime < tapTimeout;
+                if (dragging && !moved) {
+                    setButton(false);
+                    lastTapUp = 0;
+                } else if (tap) {
+                    lastTapUp = event.getEventTime();
+                }
+                mode = NONE;
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                if (dragging) {
+                    setButton(false);
+                }
+                mode = NONE;
+                break;
+        }
+        return true;
+    }
+
+    public boolean isDragging() {
+        return dragging;
+    }
+
+    /**
+     * Releases a button held down by drag lock and forgets the touch in progress, for when the touchpad
+     * goes away while the user is dragging.
+     */
+    public void release() {
+        if (dragging) {
+            setButton(false);
+        }
+        mode = NONE;
+        lastTapUp = 0;
+    }
+
+    private void moveTo(float newX, float newY) {
+        frames.move(newX - x, newY - y);
+        x = newX;
+        y = newY;
+        if (!moved && Math.hypot(x - downX, y - downY) > touchSlop) {
+            moved = true;
+        }
+    }
+
+    private void twoFingers(MotionEvent event) {
+        float lastFocusX = focusX;
+        float lastFocusY = focusY;
+        float lastSpan = span;
+        measure(event);
+        if (mode == TWO_FINGERS) {
+            if (Math.abs(span - startSpan) > touchSlop * 2) {
+                mode = PINCH;
+            } else if (Math.hypot(focusX - startFocusX, focusY - startFocusY) > touchSlop) {
+                mode = SCROLL;
+            }
+            // the slop itself is not applied, the gesture starts from here
+        } else if (mode == SCROLL) {
+            frames.scroll(focusX - lastFocusX, focusY - lastFocusY);
+        } else if (lastSpan > 0) {
+            frames.zoom(span / lastSpan);
+        }
+    }
+
+    /**
+     * Updates the focus and span of the first two fingers.
+     */
+    private void measure(MotionEvent event) {
+        float x0 = event.getX(0);
+        float y0 = event.getY(0);
+        float x1 = event.getX(1);
+        float y1 = event.getY(1);
+        focusX = (x0 + x1) / 2;
+        focusY = (y0 + y1) / 2;
+        span = (float) Math.hypot(x1 - x0, y1 - y0);
+    }
+
+    private void setButton(boolean pressed) {
+        dragging = pressed;
+        frames.flush();
+        handler.sendMessage(handler.obtainMessage(buttonWhat, Gesture.BUTTON_LEFT, pressed ? 1 : 0));
+    }
+}
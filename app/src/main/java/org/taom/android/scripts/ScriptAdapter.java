@@ -0,0 +1,104 @@
+package org.taom.android.scripts;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.TextView;
+
+import org.taom.android.R;
+
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Rows of a {@link ScriptCatalog} for a ListView, so only the visible scripts have views.
+ */
+public class ScriptAdapter extends BaseAdapter implements ScriptCatalog.Listener {
+
+    public interface Actions {
+        void run(ScriptEntry script);
+
+        void remove(ScriptEntry script);
+    }
+
+    private static class ScriptViewHolder {
+        final TextView scriptName;
+        final TextView scriptInfo;
+        ScriptEntry script;
+
+        public ScriptViewHolder(TextView name, TextView info) {
+            this.scriptName = name;
+            this.scriptInfo = info;
+        }
+    }
+
+    private final Actions actions;
+    private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+    private List<ScriptEntry> list = Collections.emptyList();
+
+    public ScriptAdapter(Actions actions) {
+        this.actions = actions;
+    }
+
+    @Override
+    public void onScriptsChanged(List<ScriptEntry> scripts) {
+        list = scripts;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return list.size();
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return list.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return list.get(position).getName().hashCode();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        if (convertView == null) {
+            convertView = LayoutInflater.from(parent.getContext()).inflate(R.layout.script, parent, false);
+            TextView name = (TextView) convertView.findViewById(R.id.scriptName);
+            TextView info = (TextView) convertView.findViewById(R.id.scriptInfo);
+            final ScriptViewHolder holder = new ScriptViewHolder(name, info);
+            convertView.findViewById(R.id.runScript).setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    actions.run(holder.script);
+                }
+            });
+            convertView.findViewById(R.id.removeScript).setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    actions.remove(holder.script);
+                }
+            });
+            convertView.setTag(holder);
+        }
+        ScriptViewHolder data = (ScriptViewHolder) convertView.getTag();
+        ScriptEntry script = list.get(position);
+        data.script = script;
+        data.scriptName.setText(script.getName());
+        data.scriptInfo.setText(String.format(Locale.US, "%.1f KB, %s, %s", script.getSize() / 1024.0,
+                script.getHash().substring(0, 8),
+                script.getLastRun() == 0 ? "never run" : "run " + dateFormat.format(new Date(script.getLastRun()))));
+        return convertView;
+    }
+}
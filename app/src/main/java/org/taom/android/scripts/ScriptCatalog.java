@@ -0,0 +1,308 @@
+package org.taom.android.scripts;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Index of the scripts in one folder, cached in a {@code .index} file next to them so the list is
+ * available before the folder is scanned. The folder is scanned once in the background, then kept
+ * current by a {@link FileObserver}; only scripts whose size or modification time changed are hashed again.
+ * <p>
+ * All index work runs on one background thread. The listener is called on the main thread.
+ */
+public class ScriptCatalog {
+    private static final String TAG = "ScriptCatalog";
+    private static final String INDEX_FILE = ".index";
+    private static final int VERSION = 1;
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO
+            | FileObserver.DELETE | FileObserver.MOVED_FROM;
+
+    public interface Listener {
+        void onScriptsChanged(List<ScriptEntry> scripts);
+    }
+
+    private static final Map<File, ScriptCatalog> catalogs = new HashMap<>();
+    private static ExecutorService indexer;
+
+    private final File folder;
+    private final String extension;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** Only touched by the indexer thread. */
+    private final Map<String, ScriptEntry> entries = new TreeMap<>();
+    private final FileObserver observer;
+    private volatile List<ScriptEntry> scripts = Collections.emptyList();
+    private Listener listener;
+
+    private ScriptCatalog(File folder, String extension) {
+        this.folder = folder;
+        this.extension = extension;
+        this.observer = new FileObserver(folder.getPath(), EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null && isScript(path)) {
+                    refresh(path);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the catalog of {@code folder}, which lives as long as the process so reopening the
+     * controls shows the index right away
+     */
+    public static synchronized ScriptCatalog get(File folder, String extension) {
+        ScriptCatalog catalog = catalogs.get(folder);
+        if (catalog == null) {
+            catalog = new ScriptCatalog(folder, extension);
+            catalogs.put(folder, catalog);
+            catalog.start();
+        }
+        return catalog;
+    }
+
+    /**
+     * @return the scripts as last indexed, sorted by name
+     */
+    public List<ScriptEntry> getScripts() {
+        return scripts;
+    }
+
+    /**
+     * Must be called on the main thread. Pass null to stop receiving updates.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null) {
+            listener.onScriptsChanged(scripts);
+        }
+    }
+
+    public void markRun(final String name) {
+        indexer().execute(new Runnable() {
+            @Override
+            public void run() {
+                ScriptEntry entry = entries.get(name);
+                if (entry != null) {
+                    entries.put(name, entry.withLastRun(System.currentTimeMillis()));
+                    changed();
+                }
+            }
+        });
+    }
+
+    public void remove(final String name) {
+        indexer().execute(new Runnable() {
+            @Override
+            public void run() {
+                File script = new File(folder, name);
+                if (!script.delete() && script.exists()) {
+                    log(Level.WARNING, TAG, "Cannot remove", script.getPath());
+                }
+                update(name);
+            }
+        });
+    }
+
+    private void start() {
+        folder.mkdirs();
+        observer.startWatching();
+        indexer().execute(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+                publish();
+                scan();
+            }
+        });
+    }
+
+    private void refresh(final String name) {
+        indexer().execute(new Runnable() {
+            @Override
+            public void run() {
+                update(name);
+            }
+        });
+    }
+
+    private void scan() {
+        String[] names = folder.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return isScript(name);
+            }
+        });
+        Set<String> found = new HashSet<>();
+        boolean changed = false;
+        if (names != null) {
+            for (String name : names) {
+                found.add(name);
+                changed |= index(name);
+            }
+        }
+        changed |= entries.keySet().retainAll(found);
+        if (changed) {
+            changed();
+        }
+    }
+
+    private void update(String name) {
+        if (index(name)) {
+            changed();
+        }
+    }
+
+    /**
+     * @return whether the entry of {@code name} changed
+     */
+    private boolean index(String name) {
+        File script = new File(folder, name);
+        ScriptEntry entry = entries.get(name);
+        if (!script.isFile()) {
+            return entries.remove(name) != null;
+        }
+        long size = script.length();
+        long lastModified = script.lastModified();
+        if (entry != null && entry.isUnchanged(size, lastModified)) {
+            return false;
+        }
+        try {
+            String hash = hash(script);
+            entries.put(name, new ScriptEntry(name, size, lastModified, hash, entry == null ? 0 : entry.getLastRun()));
+        } catch (IOException e) {
+            // still being written, its close event indexes it again
+            log(Level.FINE, TAG, "Cannot hash", script.getPath() + ":", e.getMessage());
+            return entries.remove(name) != null;
+        }
+        return true;
+    }
+
+    private void changed() {
+        saveIndex();
+        publish();
+    }
+
+    private void publish() {
+        final List<ScriptEntry> snapshot = Collections.unmodifiableList(new ArrayList<>(entries.values()));
+        scripts = snapshot;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null) {
+                    listener.onScriptsChanged(snapshot);
+                }
+            }
+        });
+    }
+
+    private boolean isScript(String name) {
+        return name.endsWith(extension) && !name.startsWith(".");
+    }
+
+    private void loadIndex() {
+        File index = new File(folder, INDEX_FILE);
+        if (!index.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(index))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                ScriptEntry entry = new ScriptEntry(in.readUTF(), in.readLong(), in.readLong(), in.readUTF(), in.readLong());
+                entries.put(entry.getName(), entry);
+            }
+        } catch (IOException e) {
+            log(Level.WARNING, TAG, "Ignoring unreadable index", index.getPath());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes to a temporary file first so a crash never leaves a truncated index behind.
+     */
+    private void saveIndex() {
+        File index = new File(folder, INDEX_FILE);
+        File tmp = new File(folder, INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (ScriptEntry entry : entries.values()) {
+                out.writeUTF(entry.getName());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getLastModified());
+                out.writeUTF(entry.getHash());
+                out.writeLong(entry.getLastRun());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmp.renameTo(index)) {
+            log(Level.WARNING, TAG, "Cannot replace", index.getPath());
+        }
+    }
+
+    private static String hash(File script) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(script)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static synchronized ExecutorService indexer() {
+        if (indexer == null) {
+            indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return indexer;
+    }
+}
@@ -0,0 +1,52 @@
+package org.taom.android.scripts;
+
+/**
+ * Indexed state of one script: its size and modification time, which tell whether the cached hash
+ * is still valid, the SHA-256 of its content and when it was last run from this device.
+ */
+public class ScriptEntry {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    private final String hash;
+    private final long lastRun;
+
+    public ScriptEntry(String name, long size, long lastModified, String hash, long lastRun) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+        this.lastRun = lastRun;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return time of the last run in milliseconds, 0 when the script was never run
+     */
+    public long getLastRun() {
+        return lastRun;
+    }
+
+    public boolean isUnchanged(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    public ScriptEntry withLastRun(long lastRun) {
+        return new ScriptEntry(name, size, lastModified, hash, lastRun);
+    }
+}
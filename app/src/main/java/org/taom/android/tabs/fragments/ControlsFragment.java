@@ -20,7 +20,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.ImageButton;
-import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import android.widget.Switch;
@@ -33,17 +33,24 @@ import org.taom.android.R;
 import org.taom.android.TouchpadActivity;
 import org.taom.android.devices.DeviceAdapter;
 import org.taom.android.devices.DeviceAdapterItem;
+import org.taom.android.scripts.ScriptAdapter;
+import org.taom.android.scripts.ScriptCatalog;
+import org.taom.android.scripts.ScriptEntry;
 import org.taom.izconnect.network.GFLogger;
+import org.taom.izconnect.network.input.InputCommand;
+import org.taom.izconnect.network.macro.Macro;
+import org.taom.izconnect.network.transfer.TransferStats;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Locale;
 import java.util.logging.Level;
 
 public class ControlsFragment extends Fragment {
@@ -63,11 +70,16 @@ public class ControlsFragment extends Fragment {
     public static final int SLIDESHOW_STOP = 111;
     public static final int NEXT_SLIDE = 112;
     public static final int PREV_SLIDE = 113;
+    public static final int TYPE_TEXT = 114;
+    public static final int KEY_EVENTS = 115;
+    public static final int GESTURE = 116;
+    public static final int MOUSE_BUTTON = 117;
 
     public static final int LIGHT_TOGGLE = 201;
     public static final int AUTO_MODE_TOGGLE = 202;
 
     public static final int FILE_SEND = 301;
+    public static final int FILE_BROADCAST = 302;
     private static final int FILE_SELECT_CODE = 1000;
     private String filePath;
 
@@ -77,10 +89,46 @@ public class ControlsFragment extends Fragment {
     private static final int MOBILE_SCRIPT_ADD_CODE = 1002;
     private static final int PC_SCRIPT_ADD_CODE = 1003;
     private static final File SCRIPTS_FOLDER = new File(Environment.getExternalStorageDirectory(), "izconnect/scripts");
+    private ScriptCatalog scriptCatalog;
+    private static final int MAX_SCRIPT_OUTPUT_LINES = 200;
+
+    /** Runs the {@link Macro} in {@code obj} on a PC or board */
+    public static final int MACRO_RUN = 501;
+    /** Long press on slideshow start: silences the PC and starts the slideshow in one call */
+    private static final Macro PRESENTATION_START = new Macro("presentation-start")
+            .command(InputCommand.MEDIA_STOP, 0)
+            .volume(0)
+            .command(InputCommand.SLIDESHOW_START, 0);
+    private final ArrayDeque<String> scriptOutput = new ArrayDeque<>();
+    private TextView scriptOutputView;
 
     private ProgressDialog progressBar;
     private StatusReceiver statusReceiver;
     public static final String STATUS_BROADCAST_ACTION = "org.taom.android.STATUS_BROADCAST_ACTION";
+    public static final String PROGRESS_BROADCAST_ACTION = "org.taom.android.PROGRESS_BROADCAST_ACTION";
+    public static final String EXTRA_BYTES_ACKED = "bytesAcked";
+    public static final String EXTRA_BYTES_TO_SEND = "bytesToSend";
+    public static final String EXTRA_THROUGHPUT = "throughput";
+    public static final String EXTRA_ETA = "eta";
+    public static final String SCRIPT_OUTPUT_ACTION = "org.taom.android.SCRIPT_OUTPUT_ACTION";
+    public static final String SCRIPT_FINISHED_ACTION = "org.taom.android.SCRIPT_FINISHED_ACTION";
+    public static final String EXTRA_SCRIPT_NAME = "scriptName";
+    public static final String EXTRA_SCRIPT_LINES = "scriptLines";
+    public static final String EXTRA_SCRIPT_ERROR = "scriptError";
+    public static final String EXTRA_EXIT_CODE = "exitCode";
+    public static final String EXTRA_DURATION = "duration";
+    public static final String EXTRA_DROPPED_LINES = "droppedLines";
+    public static final String PROPERTY_APPLIED_ACTION = "org.taom.android.PROPERTY_APPLIED_ACTION";
+    public static final String EXTRA_DEVICE = "device";
+    public static final String EXTRA_PROPERTY = "property";
+    public static final String EXTRA_PROPERTY_VALUE = "propertyValue";
+
+    private SeekBar volumeSeekBar;
+    private boolean volumeTracking;
+    private Switch lightSwitch;
+    private Switch autoModeSwitch;
+    /** Set while the controls are moved to a value a device applied, which must not be written back */
+    private boolean showingApplied;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -112,7 +160,7 @@ public class ControlsFragment extends Fragment {
             progressBar = new ProgressDialog(getContext());
             progressBar.setCancelable(true);
             progressBar.setMessage("File sending ...");
-            progressBar.setProgressStyle(ProgressDialog.STYLE_SPINNER);
+            progressBar.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
             progressBar.setProgress(0);
             progressBar.setMax(100);
         }
@@ -121,6 +169,10 @@ public class ControlsFragment extends Fragment {
             statusReceiver = new StatusReceiver();
             IntentFilter filter = new IntentFilter();
             filter.addAction(STATUS_BROADCAST_ACTION);
+            filter.addAction(PROGRESS_BROADCAST_ACTION);
+            filter.addAction(SCRIPT_OUTPUT_ACTION);
+            filter.addAction(SCRIPT_FINISHED_ACTION);
+            filter.addAction(PROPERTY_APPLIED_ACTION);
             getActivity().registerReceiver(statusReceiver, filter);
         }
 
@@ -138,39 +190,47 @@ public class ControlsFragment extends Fragment {
     }
 
     private void bindBoardView(View rootView) {
-        Switch lightSwtich  = (Switch) rootView.findViewById(R.id.lightSwitch);
-        lightSwtich.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+        lightSwitch = (Switch) rootView.findViewById(R.id.lightSwitch);
+        lightSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                handler.sendMessage(handler.obtainMessage(LIGHT_TOGGLE, isChecked));
+                if (!showingApplied) {
+                    handler.sendMessage(handler.obtainMessage(LIGHT_TOGGLE, isChecked));
+                }
             }
         });
 
 
-        final Switch autoModeSwitch = (Switch) rootView.findViewById(R.id.autoModeSwitch);
+        autoModeSwitch = (Switch) rootView.findViewById(R.id.autoModeSwitch);
         autoModeSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                handler.sendMessage(handler.obtainMessage(AUTO_MODE_TOGGLE, isChecked));
+                if (!showingApplied) {
+                    handler.sendMessage(handler.obtainMessage(AUTO_MODE_TOGGLE, isChecked));
+                }
             }
         });
         setScriptsControls(rootView, ".sh", "board", BOARD_SCRIPT_ADD_CODE);
     }
 
     private void bindPCView(View rootView) {
-        SeekBar seekBar = (SeekBar) rootView.findViewById(R.id.volumeSeekBar);
-        seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+        volumeSeekBar = (SeekBar) rootView.findViewById(R.id.volumeSeekBar);
+        volumeSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                handler.sendMessage(handler.obtainMessage(VOLUME_CHANGED, progress, 0));
+                if (fromUser) {
+                    handler.sendMessage(handler.obtainMessage(VOLUME_CHANGED, progress, 0));
+                }
             }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {
+                volumeTracking = true;
             }
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
+                volumeTracking = false;
             }
         });
 
@@ -231,6 +291,13 @@ public class ControlsFragment extends Fragment {
                 handler.sendMessage(handler.obtainMessage(SLIDESHOW_START));
             }
         });
+        slideshowStart.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                handler.sendMessage(handler.obtainMessage(MACRO_RUN, PRESENTATION_START));
+                return true;
+            }
+        });
 
         ImageButton slideshowStop = (ImageButton) rootView.findViewById(R.id.stopSlideShow);
         slideshowStop.setOnClickListener(new View.OnClickListener() {
@@ -239,6 +306,13 @@ public class ControlsFragment extends Fragment {
                 handler.sendMessage(handler.obtainMessage(SLIDESHOW_STOP));
             }
         });
+        slideshowStop.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                handler.sendMessage(handler.obtainMessage(MACRO_RUN, presentationEnd(volumeSeekBar.getProgress())));
+                return true;
+            }
+        });
 
         final ImageButton nextSlide = (ImageButton) rootView.findViewById(R.id.nextSlide);
         nextSlide.setOnClickListener(new View.OnClickListener() {
@@ -260,16 +334,21 @@ public class ControlsFragment extends Fragment {
         setScriptsControls(rootView, ".bat", "pc", PC_SCRIPT_ADD_CODE);
     }
 
+    /**
+     * Long press on slideshow stop: ends the slideshow and restores the volume the controls show.
+     */
+    private static Macro presentationEnd(int volume) {
+        return new Macro("presentation-end")
+                .command(InputCommand.SLIDESHOW_STOP, 0)
+                .volume(volume);
+    }
+
     private void bindMobileView(View rootView) {
         setUpFileChooser(rootView);
         setScriptsControls(rootView, ".sh", "mobile", MOBILE_SCRIPT_ADD_CODE);
     }
 
     private void setScriptsControls(View rootView, final String scriptExtension, final String scriptSubfolder, final int scriptCode) {
-        final File scriptFolder = new File(SCRIPTS_FOLDER, scriptSubfolder);
-        scriptFolder.mkdirs();
-
-        LinearLayout scriptsHolder = (LinearLayout) rootView.findViewById(R.id.customScripts);
         Button addButton = (Button) rootView.findViewById(R.id.addScript);
         addButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -288,49 +367,25 @@ public class ControlsFragment extends Fragment {
             }
         });
 
-
-        File[] scripts = scriptFolder.listFiles(new FilenameFilter() {
+        scriptCatalog = ScriptCatalog.get(new File(SCRIPTS_FOLDER, scriptSubfolder), scriptExtension);
+        ScriptAdapter scriptAdapter = new ScriptAdapter(new ScriptAdapter.Actions() {
             @Override
-            public boolean accept(File dir, String name) {
-                return name.endsWith(scriptExtension);
-            }
-        });
-
-        if (scripts != null) {
-            for (File script : scripts) {
-                LinearLayout scriptButtons = createScriptButtons(scriptsHolder, script);
-                scriptsHolder.addView(scriptButtons);
-            }
-        }
-    }
-
-    private LinearLayout createScriptButtons(final LinearLayout holder, final File script) {
-        final LinearLayout buttons = new LinearLayout(holder.getContext());
-        buttons.setOrientation(LinearLayout.HORIZONTAL);
-
-        Button runButton = new Button(holder.getContext());
-        String runButtonName = "Run " + script.getName();
-        runButton.setText(runButtonName);
-        runButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
+            public void run(ScriptEntry script) {
                 handler.sendMessage(handler.obtainMessage(SCRIPT_RUN, script.getName()));
+                scriptCatalog.markRun(script.getName());
             }
-        });
-        buttons.addView(runButton);
 
-        Button removeButton = new Button(holder.getContext());
-        String removeButtonName = "Remove " + script.getName();
-        removeButton.setText(removeButtonName);
-        removeButton.setOnClickListener(new View.OnClickListener() {
             @Override
-            public void onClick(View v) {
-                holder.removeView(buttons);
+            public void remove(ScriptEntry script) {
+                scriptCatalog.remove(script.getName());
             }
         });
-        buttons.addView(removeButton);
+        ListView scriptsList = (ListView) rootView.findViewById(R.id.customScripts);
+        scriptsList.setAdapter(scriptAdapter);
+        scriptCatalog.setListener(scriptAdapter);
 
-        return buttons;
+        scriptOutputView = (TextView) rootView.findViewById(R.id.scriptOutput);
+        showScriptOutput();
     }
 
     private void setUpFileChooser(View rootView) {
@@ -363,11 +418,22 @@ public class ControlsFragment extends Fragment {
             public void onClick(View v) {
                 if (filePath != null && filePath.length() > 0) {
                     handler.sendMessage(handler.obtainMessage(FILE_SEND, filePath));
-                    progressBar.show();
+                    showProgress();
                     filePath = null;
                 }
             }
         });
+        sendFileButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if (filePath != null && filePath.length() > 0) {
+                    handler.sendMessage(handler.obtainMessage(FILE_BROADCAST, filePath));
+                    showProgress();
+                    filePath = null;
+                }
+                return true;
+            }
+        });
     }
 
     @Override
@@ -406,7 +472,7 @@ public class ControlsFragment extends Fragment {
                         }
 
                         handler.sendMessage(handler.obtainMessage(SCRIPT_ADD, filePath));
-                        progressBar.show();
+                        showProgress();
                     }
                 }
                 break;
@@ -450,16 +516,109 @@ public class ControlsFragment extends Fragment {
         return null;
     }
 
+    @Override
+    public void onDestroyView() {
+        if (scriptCatalog != null) {
+            scriptCatalog.setListener(null);
+            scriptCatalog = null;
+        }
+        scriptOutputView = null;
+        super.onDestroyView();
+    }
+
     @Override
     public void onDestroy() {
         getActivity().unregisterReceiver(statusReceiver);
         super.onDestroy();
     }
 
+    private void showProgress() {
+        progressBar.setProgress(0);
+        progressBar.setMessage("File sending ...");
+        progressBar.show();
+    }
+
+    /**
+     * Keeps the last lines of all scripts started from here, each prefixed with its script's name.
+     */
+    private void addScriptOutput(String scriptName, String lines) {
+        for (String line : lines.split("\n")) {
+            scriptOutput.addLast(scriptName + ": " + line);
+            if (scriptOutput.size() > MAX_SCRIPT_OUTPUT_LINES) {
+                scriptOutput.removeFirst();
+            }
+        }
+        showScriptOutput();
+    }
+
+    private void showScriptOutput() {
+        if (scriptOutputView != null) {
+            StringBuilder text = new StringBuilder();
+            for (String line : scriptOutput) {
+                text.append(line).append('\n');
+            }
+            scriptOutputView.setText(text);
+        }
+    }
+
+    /**
+     * Moves a control to the value its device applied, unless the user is still dragging it.
+     */
+    private void showApplied(int property, int value) {
+        showingApplied = true;
+        try {
+            switch (property) {
+                case VOLUME_CHANGED:
+                    if (volumeSeekBar != null && !volumeTracking) {
+                        volumeSeekBar.setProgress(value);
+                    }
+                    break;
+                case LIGHT_TOGGLE:
+                    if (lightSwitch != null) {
+                        lightSwitch.setChecked(value != 0);
+                    }
+                    break;
+                case AUTO_MODE_TOGGLE:
+                    if (autoModeSwitch != null) {
+                        autoModeSwitch.setChecked(value != 0);
+                    }
+                    break;
+            }
+        } finally {
+            showingApplied = false;
+        }
+    }
+
     class StatusReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            progressBar.dismiss();
+            if (SCRIPT_OUTPUT_ACTION.equals(intent.getAction())) {
+                String lines = intent.getStringExtra(EXTRA_SCRIPT_LINES);
+                addScriptOutput(intent.getStringExtra(EXTRA_SCRIPT_NAME),
+                        intent.getBooleanExtra(EXTRA_SCRIPT_ERROR, false) ? "! " + lines.replace("\n", "\n! ") : lines);
+            } else if (SCRIPT_FINISHED_ACTION.equals(intent.getAction())) {
+                int dropped = intent.getIntExtra(EXTRA_DROPPED_LINES, 0);
+                addScriptOutput(intent.getStringExtra(EXTRA_SCRIPT_NAME), String.format(Locale.US,
+                        "exited with %d after %.1f s%s", intent.getIntExtra(EXTRA_EXIT_CODE, -1),
+                        intent.getLongExtra(EXTRA_DURATION, 0) / 1000.0,
+                        dropped > 0 ? ", " + dropped + " lines dropped" : ""));
+            } else if (PROPERTY_APPLIED_ACTION.equals(intent.getAction())) {
+                DeviceAdapterItem selected = deviceAdapter == null ? null : deviceAdapter.getSelectedItem();
+                if (selected != null && selected.getBusName().equals(intent.getStringExtra(EXTRA_DEVICE))) {
+                    showApplied(intent.getIntExtra(EXTRA_PROPERTY, 0), intent.getIntExtra(EXTRA_PROPERTY_VALUE, 0));
+                }
+            } else if (PROGRESS_BROADCAST_ACTION.equals(intent.getAction())) {
+                long acked = intent.getLongExtra(EXTRA_BYTES_ACKED, 0);
+                long toSend = intent.getLongExtra(EXTRA_BYTES_TO_SEND, 0);
+                double throughput = intent.getDoubleExtra(EXTRA_THROUGHPUT, 0);
+                double eta = intent.getDoubleExtra(EXTRA_ETA, -1);
+                progressBar.setProgress(toSend == 0 ? 0 : (int) (acked * 100 / toSend));
+                progressBar.setMessage(String.format(Locale.US, "%.1f of %.1f MB, %s%s",
+                        acked / 1048576.0, toSend / 1048576.0, TransferStats.formatRate(throughput),
+                        eta < 0 ? "" : String.format(Locale.US, ", %d s left", Math.round(eta))));
+            } else {
+                progressBar.dismiss();
+            }
         }
     }
 }
@@ -8,16 +8,22 @@ import android.os.Handler;
 import android.view.View;
 
 import org.taom.android.R;
+import org.taom.android.input.KeyBatcher;
 import org.taom.android.tabs.fragments.ControlsFragment;
+import org.taom.izconnect.network.input.KeyEvents;
 
 public class SimpleIME extends InputMethodService
         implements KeyboardView.OnKeyboardActionListener {
 
-    private Handler handler;
+    private KeyBatcher batcher;
     private KeyboardView kv;
     private Keyboard keyboard;
 
     private boolean caps = false;
+    /** Ctrl and Alt, latched until the next key is released */
+    private int modifiers;
+    private int downCode = -1;
+    private int downModifiers;
 
     Activity host;
 
@@ -28,13 +34,15 @@ public class SimpleIME extends InputMethodService
         host = h;
         kv = (KeyboardView) kbview;
         keyboard = new Keyboard(h, R.xml.qwerty);
-        this.handler = handler;
+        this.batcher = new KeyBatcher(handler, ControlsFragment.TYPE_TEXT, ControlsFragment.KEY_EVENTS);
         kv.setKeyboard(keyboard);
         kv.setOnKeyboardActionListener(this);
         showCustomKeyboard();
     }
 
     public void hideCustomKeyboard() {
+        batcher.run();
+        modifiers = 0;
         kv.setVisibility(View.GONE);
         kv.setEnabled(false);
     }
@@ -52,18 +60,32 @@ public class SimpleIME extends InputMethodService
                 break;
             case Keyboard.KEYCODE_DONE:
                 break;
-            case 20:
+            case KeyEvents.KEY_CAPS_LOCK:
                 caps = !caps;
                 keyboard.setShifted(caps);
                 kv.invalidateAllKeys();
                 break;
+            case KeyEvents.KEY_CTRL:
+                modifiers ^= KeyEvents.CTRL;
+                break;
+            case KeyEvents.KEY_ALT:
+                modifiers ^= KeyEvents.ALT;
+                break;
             default:
-                char code = (char) primaryCode;
-                if (Character.isLetter(code) && caps) {
-                    code = Character.toUpperCase(code);
+                char code = KeyEvents.toChar(primaryCode);
+                if (code != 0 && modifiers == 0) {
+                    batcher.text(String.valueOf(caps ? Character.toUpperCase(code) : code));
+                } else if (downCode == primaryCode) {
+                    batcher.key(KeyEvents.repeat(primaryCode, downModifiers));
+                } else {
+                    downCode = primaryCode;
+                    downModifiers = modifiers;
+                    if (caps && Character.isLetter(code)) {
+                        downModifiers |= KeyEvents.SHIFT;
+                    }
+                    batcher.key(KeyEvents.down(primaryCode, downModifiers));
                 }
         }
-        handler.sendMessage(handler.obtainMessage(ControlsFragment.KEY_PRESSED, primaryCode, 0));
     }
 
     @Override
@@ -72,10 +94,25 @@ public class SimpleIME extends InputMethodService
 
     @Override
     public void onRelease(int primaryCode) {
+        if (primaryCode != downCode) {
+            return;
+        }
+        batcher.key(KeyEvents.up(downCode, downModifiers));
+        downCode = -1;
+        if (modifiers != 0) {
+            modifiers = 0;
+            for (Keyboard.Key key : keyboard.getKeys()) {
+                if (key.sticky) {
+                    key.on = false;
+                }
+            }
+            kv.invalidateAllKeys();
+        }
     }
 
     @Override
     public void onText(CharSequence text) {
+        batcher.text(text);
     }
 
     @Override
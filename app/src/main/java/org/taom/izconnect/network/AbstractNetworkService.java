@@ -2,9 +2,13 @@ package org.taom.izconnect.network;
 
 import org.alljoyn.bus.*;
 import org.taom.izconnect.network.interfaces.BoardInterface;
+import org.taom.izconnect.network.interfaces.FileBroadcastInterface;
 import org.taom.izconnect.network.interfaces.MobileInterface;
 import org.taom.izconnect.network.interfaces.PCInterface;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Level;
 
 import static org.taom.izconnect.network.GFLogger.log;
@@ -16,6 +20,7 @@ public abstract class AbstractNetworkService {
     protected static final String PACKAGE_NAME = "org.taom.izconnect.network";
     private static final String OBJECT_PATH = "/izconnectService";
     private static final short CONTACT_PORT = 4753;
+    private static final short BROADCAST_PORT = 4754;
 
     private BusAttachment mBus;
     private Observer boardObserver;
@@ -23,6 +28,8 @@ public abstract class AbstractNetworkService {
     private Observer pcObserver;
     private AboutObj mAboutObj;
     private AboutDataListener mAboutData;
+    private volatile int broadcastSessionId;
+    private final Set<String> broadcastMembers = Collections.synchronizedSet(new HashSet<String>());
 
     static {
         System.loadLibrary("alljoyn_java");
@@ -61,9 +68,122 @@ public abstract class AbstractNetworkService {
             return status;
         }
 
+        status = bindBroadcastPort();
+        if (status != Status.OK) {
+            log(Level.SEVERE, TAG, "Cannot bind port", String.valueOf(BROADCAST_PORT));
+            return status;
+        }
+
         return status;
     }
 
+    /**
+     * Hosts the multipoint session file broadcasts are sent to. Devices join it on request,
+     * see {@link #joinBroadcast(String, short)}.
+     */
+    private Status bindBroadcastPort() {
+        Mutable.ShortValue broadcastPort = new Mutable.ShortValue(BROADCAST_PORT);
+
+        SessionOpts sessionOpts = new SessionOpts();
+        sessionOpts.traffic = SessionOpts.TRAFFIC_MESSAGES;
+        sessionOpts.isMultipoint = true;
+        sessionOpts.proximity = SessionOpts.PROXIMITY_ANY;
+        sessionOpts.transports = SessionOpts.TRANSPORT_ANY;
+
+        return mBus.bindSessionPort(broadcastPort, sessionOpts, new SessionPortListener() {
+            @Override
+            public boolean acceptSessionJoiner(short sessionPort,
+                                               String joiner, SessionOpts sessionOpts) {
+                return sessionPort == BROADCAST_PORT && sessionOpts.isMultipoint;
+            }
+
+            @Override
+            public void sessionJoined(short sessionPort, int id, String joiner) {
+                if (broadcastSessionId != id) {
+                    broadcastSessionId = id;
+                    mBus.setSessionListener(id, new SessionListener() {
+                        @Override
+                        public void sessionMemberRemoved(int sessionId, String uniqueName) {
+                            broadcastMembers.remove(uniqueName);
+                        }
+
+                        @Override
+                        public void sessionLost(int sessionId, int reason) {
+                            broadcastSessionId = 0;
+                            broadcastMembers.clear();
+                        }
+                    });
+                }
+                broadcastMembers.add(joiner);
+            }
+        });
+    }
+
+    public short getBroadcastPort() {
+        return BROADCAST_PORT;
+    }
+
+    /**
+     * @return unique names of the devices currently in this device's broadcast session
+     */
+    public Set<String> getBroadcastMembers() {
+        synchronized (broadcastMembers) {
+            return new HashSet<>(broadcastMembers);
+        }
+    }
+
+    /**
+     * @param source registered bus object implementing {@link FileBroadcastInterface}
+     * @return an emitter reaching every member, or null while nobody has joined
+     */
+    public FileBroadcastInterface getBroadcastEmitter(BusObject source) {
+        int sessionId = broadcastSessionId;
+        if (sessionId == 0) {
+            return null;
+        }
+        return new SignalEmitter(source, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                .getInterface(FileBroadcastInterface.class);
+    }
+
+    /**
+     * Joins another device's broadcast session. Called from a bus method handler.
+     */
+    public boolean joinBroadcast(String host, short port) {
+        mBus.enableConcurrentCallbacks();
+
+        SessionOpts sessionOpts = new SessionOpts();
+        sessionOpts.traffic = SessionOpts.TRAFFIC_MESSAGES;
+        sessionOpts.isMultipoint = true;
+        sessionOpts.proximity = SessionOpts.PROXIMITY_ANY;
+        sessionOpts.transports = SessionOpts.TRANSPORT_ANY;
+
+        Status status = mBus.joinSession(host, port, new Mutable.IntegerValue(), sessionOpts, new SessionListener());
+        if (status != Status.OK && status != Status.ALLJOYN_JOINSESSION_REPLY_ALREADY_JOINED) {
+            log(Level.SEVERE, TAG, "Cannot join broadcast session of", host, status.name());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Emitter of signals to the sender of the bus method being handled, on the session it called through.
+     * Only valid while handling that method.
+     *
+     * @param source registered bus object implementing {@code iface}
+     */
+    public <T> T getCallerEmitter(BusObject source, Class<T> iface) {
+        MessageContext context = mBus.getMessageContext();
+        return new SignalEmitter(source, context.sender, context.sessionId, SignalEmitter.GlobalBroadcast.Off)
+                .getInterface(iface);
+    }
+
+    /**
+     * @return unique name of the sender of the bus method or signal being handled
+     */
+    public String getCallerName() {
+        return mBus.getMessageContext().sender;
+    }
+
     public Status registerInterface(BusObject busObject) {
         Status status;
         status = mBus.registerBusObject(busObject, OBJECT_PATH);
@@ -0,0 +1,286 @@
+package org.taom.izconnect.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * A serial executor per remote device on a shared pool of threads. Commands to one device run one at a time
+ * in the order they were queued, while different devices progress in parallel, so a slow or hung device
+ * only holds back its own commands.
+ * <p>
+ * Every device queue is bounded; a command beyond the bound is rejected rather than queued behind a device
+ * that stopped answering. Queue depth, its high-water mark and rejections are kept per device.
+ * <p>
+ * Commands dropped without running, because their device went away or the executors shut down, are told
+ * so when they are a {@link DroppableCommand}.
+ */
+public class DeviceExecutors {
+    private static final String TAG = "DeviceExecutors";
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * A command that holds something from the moment it is queued, released by {@link #onDropped()} when
+     * the command is dropped instead of run. Not called when {@link #execute} rejects the command.
+     */
+    public interface DroppableCommand extends Runnable {
+        void onDropped();
+    }
+
+    private final int capacity;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService threads = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DeviceCommand-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private volatile boolean shutdown;
+
+    public DeviceExecutors() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public DeviceExecutors(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return false when the command was rejected because the device queue is full or the executors are shut down
+     */
+    public boolean execute(String device, Runnable command) {
+        synchronized (lanes) {
+            if (shutdown) {
+                return false;
+            }
+            Lane lane = lanes.get(device);
+            if (lane == null) {
+                lane = new Lane(device);
+                lanes.put(device, lane);
+            }
+            return lane.offer(command);
+        }
+    }
+
+    /**
+     * Drops the commands still queued for a device that went away. A command already running finishes.
+     */
+    public void remove(String device) {
+        List<Runnable> dropped = null;
+        synchronized (lanes) {
+            Lane lane = lanes.remove(device);
+            if (lane != null) {
+                dropped = lane.clear();
+                log(Level.INFO, TAG, "Removed", lane.toString(), "dropped", String.valueOf(dropped.size()));
+            }
+        }
+        release(dropped);
+    }
+
+    /**
+     * Like {@link #remove(String)}, then runs {@code last} once the command already running finished, so it
+     * can release what the device's commands use. Commands queued for the device afterwards run after it.
+     *
+     * @return false when {@code last} was not queued because the executors are shut down
+     */
+    public boolean remove(String device, final Runnable last) {
+        List<Runnable> dropped;
+        boolean queued;
+        synchronized (lanes) {
+            if (shutdown) {
+                return false;
+            }
+            Lane existing = lanes.get(device);
+            final Lane lane = existing != null ? existing : new Lane(device);
+            lanes.put(device, lane);
+            dropped = lane.clear();
+            if (existing != null) {
+                log(Level.INFO, TAG, "Removed", lane.toString(), "dropped", String.valueOf(dropped.size()));
+            }
+            queued = lane.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        last.run();
+                    } finally {
+                        retire(lane);
+                    }
+                }
+            });
+            if (!queued) {
+                lanes.remove(device);
+            }
+        }
+        release(dropped);
+        return queued;
+    }
+
+    /**
+     * @return commands waiting for the device, not counting the one running
+     */
+    public int getQueueDepth(String device) {
+        Lane lane = lanes.get(device);
+        return lane == null ? 0 : lane.getDepth();
+    }
+
+    public int getMaxQueueDepth(String device) {
+        Lane lane = lanes.get(device);
+        return lane == null ? 0 : lane.getMaxDepth();
+    }
+
+    public long getRejected(String device) {
+        Lane lane = lanes.get(device);
+        return lane == null ? 0 : lane.getRejected();
+    }
+
+    /**
+     * Stops accepting commands, drops the queued ones and interrupts the running ones.
+     */
+    public void shutdown() {
+        List<Runnable> dropped = new ArrayList<>();
+        synchronized (lanes) {
+            shutdown = true;
+            for (Lane lane : lanes.values()) {
+                dropped.addAll(lane.clear());
+            }
+            lanes.clear();
+        }
+        threads.shutdownNow();
+        release(dropped);
+    }
+
+    /**
+     * Forgets the lane of a removed device once its last command ran, unless commands were queued meanwhile.
+     */
+    private void retire(Lane lane) {
+        synchronized (lanes) {
+            if (lane.getDepth() == 0 && lanes.get(lane.device) == lane) {
+                lanes.remove(lane.device);
+            }
+        }
+    }
+
+    private static void release(List<Runnable> dropped) {
+        if (dropped == null) {
+            return;
+        }
+        for (Runnable command : dropped) {
+            if (command instanceof DroppableCommand) {
+                try {
+                    ((DroppableCommand) command).onDropped();
+                } catch (RuntimeException e) {
+                    log(Level.SEVERE, TAG, "Releasing a dropped command failed:", String.valueOf(e));
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Lane lane : lanes.values()) {
+            builder.append(builder.length() == 0 ? "" : ", ").append(lane);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The queue of one device. At most one task of a lane is on the pool at a time, it runs queued commands
+     * until the queue is empty.
+     */
+    private class Lane implements Runnable {
+        private final String device;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private boolean running;
+        private int maxDepth;
+        private long rejected;
+        private long executed;
+
+        Lane(String device) {
+            this.device = device;
+        }
+
+        synchronized boolean offer(Runnable command) {
+            if (queue.size() >= capacity) {
+                if (rejected++ == 0) {
+                    log(Level.WARNING, TAG, "Queue of", device, "is full, rejecting commands");
+                }
+                return false;
+            }
+            queue.add(command);
+            maxDepth = Math.max(maxDepth, queue.size());
+            if (!running) {
+                try {
+                    threads.execute(this);
+                } catch (RejectedExecutionException e) {
+                    queue.removeLast();
+                    return false;
+                }
+                running = true;
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable command;
+                synchronized (this) {
+                    command = queue.poll();
+                    if (command == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    log(Level.SEVERE, TAG, "Command for", device, "failed:", String.valueOf(e));
+                }
+                synchronized (this) {
+                    executed++;
+                }
+            }
+        }
+
+        /**
+         * @return the commands dropped, for the caller to release outside the lock
+         */
+        synchronized List<Runnable> clear() {
+            List<Runnable> dropped = new ArrayList<>(queue);
+            queue.clear();
+            return dropped;
+        }
+
+        synchronized int getDepth() {
+            return queue.size();
+        }
+
+        synchronized int getMaxDepth() {
+            return maxDepth;
+        }
+
+        synchronized long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return device + " queued " + queue.size() + " max " + maxDepth + " executed " + executed + " rejected " + rejected;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.taom.izconnect.network;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log-linear histogram of latencies: each power of two of microseconds is split into four
+ * buckets, so any percentile is reported within 25% of the real value in constant memory.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int SUB_BITS = 2;
+
+    private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BITS) * SUB_BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    public synchronized void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts[index(micros)]++;
+        count++;
+        total += micros;
+        max = Math.max(max, micros);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMeanMillis() {
+        return count == 0 ? 0 : total / 1000.0 / count;
+    }
+
+    public synchronized double getMaxMillis() {
+        return max / 1000.0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile, never above the maximum
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i + 1) - 1, max) / 1000.0;
+            }
+        }
+        return max / 1000.0;
+    }
+
+    /**
+     * @return counts per bucket, indexed like {@link #lowerBoundMicros(int)}
+     */
+    public synchronized long[] getCounts() {
+        return counts.clone();
+    }
+
+    public static long lowerBoundMicros(int bucket) {
+        return lowerBound(bucket);
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "n=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms", count,
+                getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99), getMaxMillis());
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+}
@@ -0,0 +1,56 @@
+package org.taom.izconnect.network;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Latest-value-wins writes of device properties. A value is offered for every change, but only the first
+ * offer while no write of that property is queued asks for one; later offers replace the value it will
+ * write. The write takes the newest value when it runs, so a burst of changes costs the write in flight
+ * and one more, never a queue of stale values.
+ */
+public class PropertyWrites {
+    private final Map<String, Object> pending = new HashMap<>();
+
+    /**
+     * @return true when the caller has to queue a write of the property, false when a queued one takes {@code value}
+     */
+    public synchronized boolean offer(String device, String property, Object value) {
+        return pending.put(key(device, property), value) == null;
+    }
+
+    /**
+     * Called by the queued write when it runs.
+     *
+     * @return the newest value to write, null when there is none
+     */
+    public synchronized Object take(String device, String property) {
+        return pending.remove(key(device, property));
+    }
+
+    /**
+     * @return true when a newer value was offered since the last {@link #take}, so the value just written
+     * is not the final one
+     */
+    public synchronized boolean isPending(String device, String property) {
+        return pending.containsKey(key(device, property));
+    }
+
+    /**
+     * Forgets the values still pending for a device that went away.
+     */
+    public synchronized void clear(String device) {
+        String prefix = device + '/';
+        Iterator<String> it = pending.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String key(String device, String property) {
+        return device + '/' + property;
+    }
+}
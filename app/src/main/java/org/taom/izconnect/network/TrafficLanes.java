@@ -0,0 +1,63 @@
+package org.taom.izconnect.network;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two lanes for outbound bus traffic. Interactive calls (pointer, keys, media, light) mark
+ * themselves while queued and in flight; bulk senders ask for their turn before every chunk and
+ * wait until the interactive lane has been quiet for a moment. A bulk chunk is still let through
+ * after waiting {@code maxDeferral} so continuous input cannot stall a transfer forever.
+ */
+public class TrafficLanes {
+    public static final long DEFAULT_QUIET_MILLIS = 40;
+    public static final long DEFAULT_MAX_DEFERRAL_MILLIS = 500;
+
+    private final long quietNanos;
+    private final long maxDeferralNanos;
+    private int interactive;
+    private long lastInteractive;
+
+    public TrafficLanes() {
+        this(DEFAULT_QUIET_MILLIS, DEFAULT_MAX_DEFERRAL_MILLIS);
+    }
+
+    public TrafficLanes(long quietMillis, long maxDeferralMillis) {
+        this.quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        this.maxDeferralNanos = TimeUnit.MILLISECONDS.toNanos(maxDeferralMillis);
+        this.lastInteractive = System.nanoTime() - quietNanos;
+    }
+
+    public synchronized void beginInteractive() {
+        interactive++;
+    }
+
+    public synchronized void endInteractive() {
+        interactive--;
+        lastInteractive = System.nanoTime();
+        notifyAll();
+    }
+
+    /**
+     * Blocks a bulk sender until no interactive call is pending and the lane has been quiet.
+     */
+    public synchronized void awaitBulk() throws InterruptedIOException {
+        long deadline = System.nanoTime() + maxDeferralNanos;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long wait = deadline - now;
+                if (interactive == 0) {
+                    wait = Math.min(wait, lastInteractive + quietNanos - now);
+                }
+                if (wait <= 0) {
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the bulk lane");
+        }
+    }
+}
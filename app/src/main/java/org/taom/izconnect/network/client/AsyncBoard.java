@@ -0,0 +1,71 @@
+package org.taom.izconnect.network.client;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.BoardInterface;
+import org.taom.izconnect.network.macro.Macro;
+
+/**
+ * Asynchronous calls to a board.
+ */
+public class AsyncBoard extends AsyncDevice<BoardInterface> {
+
+    public AsyncBoard(AsyncClient client, String device, BoardInterface remote) {
+        super(client, device, remote);
+    }
+
+    public RemoteFuture<Void> setLight(final boolean turnOn) {
+        return call(new AsyncClient.Call<BoardInterface, Void>() {
+            @Override
+            public Void invoke(BoardInterface remote) throws BusException {
+                remote.setLight(turnOn);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Boolean> getLight() {
+        return call(new AsyncClient.Call<BoardInterface, Boolean>() {
+            @Override
+            public Boolean invoke(BoardInterface remote) throws BusException {
+                return remote.getLight();
+            }
+        });
+    }
+
+    public RemoteFuture<Void> setAutoMode(final boolean autoMode) {
+        return call(new AsyncClient.Call<BoardInterface, Void>() {
+            @Override
+            public Void invoke(BoardInterface remote) throws BusException {
+                remote.setAutoMode(autoMode);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Boolean> getAutoMode() {
+        return call(new AsyncClient.Call<BoardInterface, Boolean>() {
+            @Override
+            public Boolean invoke(BoardInterface remote) throws BusException {
+                return remote.getAutoMode();
+            }
+        });
+    }
+
+    @Override
+    public RemoteFuture<Void> runScript(final String scriptName) {
+        return call(new AsyncClient.Call<BoardInterface, Void>() {
+            @Override
+            public Void invoke(BoardInterface remote) throws BusException {
+                remote.runScript(scriptName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * See {@link AsyncClient#runMacro}.
+     */
+    public RemoteFuture<Void> runMacro(Macro macro) {
+        return client.runMacro(device, remote, macro);
+    }
+}
@@ -0,0 +1,168 @@
+package org.taom.izconnect.network.client;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.ErrorReplyBusException;
+import org.alljoyn.bus.Status;
+import org.taom.izconnect.network.DeviceExecutors;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+import org.taom.izconnect.network.interfaces.MacroInterface;
+import org.taom.izconnect.network.macro.Macro;
+import org.taom.izconnect.network.transfer.TransferScheduler;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues remote calls without blocking the caller. Every call is queued on the {@link DeviceExecutors} lane
+ * of its device and returns a {@link RemoteFuture}, so calls to one device keep their order, a slow device
+ * holds back only its own calls and no caller thread waits for a reply. Calls that do not complete within
+ * their deadline fail with a {@link java.util.concurrent.TimeoutException}.
+ * <p>
+ * A call cancelled or expired while queued is not sent. One already sent cannot be taken back; it completes
+ * on the device and its reply is dropped.
+ */
+public class AsyncClient {
+    public static final long DEFAULT_DEADLINE_MILLIS = 10000;
+    private static final String UNKNOWN_METHOD = "org.freedesktop.DBus.Error.UnknownMethod";
+    private static final String UNKNOWN_INTERFACE = "org.freedesktop.DBus.Error.UnknownInterface";
+
+    public interface Call<T, R> {
+        R invoke(T remote) throws BusException;
+    }
+
+    private final DeviceExecutors executors;
+    private final TransferScheduler transfers;
+    private final long deadlineMillis;
+
+    public AsyncClient(DeviceExecutors executors, TransferScheduler transfers) {
+        this(executors, transfers, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    public AsyncClient(DeviceExecutors executors, TransferScheduler transfers, long deadlineMillis) {
+        this.executors = executors;
+        this.transfers = transfers;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Calls {@code remote} of {@code device} with the default deadline.
+     */
+    public <T, R> RemoteFuture<R> call(String device, T remote, Call<? super T, R> call) {
+        return call(device, remote, call, deadlineMillis);
+    }
+
+    /**
+     * @param deadlineMillis counted from now, time spent queued behind earlier calls included
+     */
+    public <T, R> RemoteFuture<R> call(String device, final T remote, final Call<? super T, R> call,
+                                       long deadlineMillis) {
+        final RemoteFuture<R> future = new RemoteFuture<>();
+        boolean queued = executors.execute(device, new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(call.invoke(remote));
+                } catch (BusException | RuntimeException e) {
+                    future.fail(e);
+                }
+            }
+        });
+        if (!queued) {
+            future.fail(new RejectedExecutionException("Too many calls queued for " + device));
+            return future;
+        }
+        return future.withDeadline(deadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues {@code file} on the transfer scheduler. Uploads take as long as they take, so there is no
+     * default deadline; cancelling the future cancels the transfer.
+     *
+     * @return completes with the finished transfer
+     */
+    public RemoteFuture<TransferScheduler.Transfer> upload(String device, FileTransferInterface remote, File file,
+                                                           boolean isScript) {
+        if (!file.exists()) {
+            return RemoteFuture.failed(new FileNotFoundException(file.getPath()));
+        }
+        return transfers.submit(device, remote, file, isScript).getCompletion();
+    }
+
+    /**
+     * Runs {@code macro} on the device, storing it first when the device has no copy or an older one.
+     * Devices without macros get the steps between two delays in one call each, the delays timed here
+     * so other calls to the device go through meanwhile.
+     *
+     * @param remote a {@link org.taom.izconnect.network.interfaces.PCInterface} or
+     *               {@link org.taom.izconnect.network.interfaces.BoardInterface}
+     * @return completes once the device queued the macro, or ran its steps when it has no macros
+     */
+    public RemoteFuture<Void> runMacro(final String device, final MacroInterface remote, final Macro macro) {
+        return call(device, remote, new Call<MacroInterface, Boolean>() {
+            @Override
+            public Boolean invoke(MacroInterface remote) throws BusException {
+                String checksum = macro.getChecksum();
+                try {
+                    if (!remote.runMacro(macro.getName(), checksum)
+                            && (!checksum.equals(remote.storeMacro(macro.toBytes()))
+                            || !remote.runMacro(macro.getName(), checksum))) {
+                        throw new BusException("Device did not keep macro " + macro.getName());
+                    }
+                    return true;
+                } catch (ErrorReplyBusException e) {
+                    if (!isUnknownMethod(e)) {
+                        throw e;
+                    }
+                    return false;
+                }
+            }
+        }).then(new RemoteFuture.Step<Boolean, Void>() {
+            @Override
+            public RemoteFuture<Void> apply(Boolean stored) {
+                return stored ? RemoteFuture.<Void>succeeded(null) : play(device, remote, macro, 0);
+            }
+        });
+    }
+
+    /**
+     * @return true when the device does not have the method called, rather than failing it
+     */
+    public static boolean isUnknownMethod(ErrorReplyBusException e) {
+        String name = e.getErrorName();
+        if (UNKNOWN_METHOD.equals(name) || UNKNOWN_INTERFACE.equals(name)) {
+            return true;
+        }
+        Status status = e.getErrorStatus();
+        return status == Status.BUS_OBJECT_NO_SUCH_MEMBER || status == Status.BUS_OBJECT_NO_SUCH_INTERFACE
+                || status == Status.BUS_INTERFACE_NO_SUCH_MEMBER || status == Status.BUS_UNKNOWN_INTERFACE;
+    }
+
+    private RemoteFuture<Void> play(final String device, final MacroInterface remote, final Macro macro,
+                                    final int first) {
+        return call(device, remote, new Call<MacroInterface, Integer>() {
+            @Override
+            public Integer invoke(MacroInterface remote) throws BusException {
+                return macro.playSteps(remote, first);
+            }
+        }).then(new RemoteFuture.Step<Integer, Integer>() {
+            @Override
+            public RemoteFuture<Integer> apply(Integer delayStep) {
+                if (delayStep >= macro.getStepCount()) {
+                    return RemoteFuture.succeeded(delayStep);
+                }
+                return RemoteFuture.delayed(delayStep + 1, macro.getDelay(delayStep), TimeUnit.MILLISECONDS);
+            }
+        }).then(new RemoteFuture.Step<Integer, Void>() {
+            @Override
+            public RemoteFuture<Void> apply(Integer next) {
+                return next >= macro.getStepCount() ? RemoteFuture.<Void>succeeded(null)
+                        : play(device, remote, macro, next);
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+package org.taom.izconnect.network.client;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.DeviceInfoInterface;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+import org.taom.izconnect.network.interfaces.ScriptExecutionInterface;
+import org.taom.izconnect.network.transfer.TransferScheduler;
+
+import java.io.File;
+
+/**
+ * The calls every device type answers, issued through an {@link AsyncClient}. Methods without a wrapper
+ * are reached with {@link #call(AsyncClient.Call)}.
+ */
+public abstract class AsyncDevice<T extends DeviceInfoInterface & FileTransferInterface & ScriptExecutionInterface> {
+    protected final AsyncClient client;
+    protected final String device;
+    protected final T remote;
+
+    protected AsyncDevice(AsyncClient client, String device, T remote) {
+        this.client = client;
+        this.device = device;
+        this.remote = remote;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public <R> RemoteFuture<R> call(AsyncClient.Call<? super T, R> call) {
+        return client.call(device, remote, call);
+    }
+
+    public <R> RemoteFuture<R> call(AsyncClient.Call<? super T, R> call, long deadlineMillis) {
+        return client.call(device, remote, call, deadlineMillis);
+    }
+
+    public RemoteFuture<String> getDeviceName() {
+        return call(new AsyncClient.Call<T, String>() {
+            @Override
+            public String invoke(T remote) throws BusException {
+                return remote.getDeviceName();
+            }
+        });
+    }
+
+    public RemoteFuture<String> getDeviceOS() {
+        return call(new AsyncClient.Call<T, String>() {
+            @Override
+            public String invoke(T remote) throws BusException {
+                return remote.getDeviceOS();
+            }
+        });
+    }
+
+    /**
+     * Sends {@code file} through the transfer scheduler, see {@link AsyncClient#upload}.
+     */
+    public RemoteFuture<TransferScheduler.Transfer> upload(File file, boolean isScript) {
+        return client.upload(device, remote, file, isScript);
+    }
+
+    /**
+     * Runs the script without streaming its output back.
+     */
+    public abstract RemoteFuture<Void> runScript(String scriptName);
+
+    /**
+     * @return id of the run, see {@link ScriptExecutionInterface#startScript(String)}
+     */
+    public RemoteFuture<String> startScript(final String scriptName) {
+        return call(new AsyncClient.Call<T, String>() {
+            @Override
+            public String invoke(T remote) throws BusException {
+                return remote.startScript(scriptName);
+            }
+        });
+    }
+
+    /**
+     * @return false when the run already finished
+     */
+    public RemoteFuture<Boolean> cancelScript(final String runId) {
+        return call(new AsyncClient.Call<T, Boolean>() {
+            @Override
+            public Boolean invoke(T remote) throws BusException {
+                return remote.cancelScript(runId);
+            }
+        });
+    }
+}
@@ -0,0 +1,55 @@
+package org.taom.izconnect.network.client;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.MobileInterface;
+
+/**
+ * Asynchronous calls to a mobile device.
+ */
+public class AsyncMobile extends AsyncDevice<MobileInterface> {
+
+    public AsyncMobile(AsyncClient client, String device, MobileInterface remote) {
+        super(client, device, remote);
+    }
+
+    public RemoteFuture<Void> subscribe(final String busName) {
+        return call(new AsyncClient.Call<MobileInterface, Void>() {
+            @Override
+            public Void invoke(MobileInterface remote) throws BusException {
+                remote.subscribe(busName);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> notify(final String devicename, final String sender, final String notification) {
+        return call(new AsyncClient.Call<MobileInterface, Void>() {
+            @Override
+            public Void invoke(MobileInterface remote) throws BusException {
+                remote.notify(devicename, sender, notification);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> unsubscribe(final String busName) {
+        return call(new AsyncClient.Call<MobileInterface, Void>() {
+            @Override
+            public Void invoke(MobileInterface remote) throws BusException {
+                remote.unsubscribe(busName);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public RemoteFuture<Void> runScript(final String scriptName) {
+        return call(new AsyncClient.Call<MobileInterface, Void>() {
+            @Override
+            public Void invoke(MobileInterface remote) throws BusException {
+                remote.runScript(scriptName);
+                return null;
+            }
+        });
+    }
+}
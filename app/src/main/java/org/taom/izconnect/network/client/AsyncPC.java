@@ -0,0 +1,254 @@
+package org.taom.izconnect.network.client;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.PCInterface;
+import org.taom.izconnect.network.macro.Macro;
+
+/**
+ * Asynchronous calls to a PC. Pointer and key streams should go through
+ * {@link org.taom.izconnect.network.input.InputSender}, which batches them; these are for single actions
+ * that belong to a sequence, like stopping the slideshow before an upload.
+ */
+public class AsyncPC extends AsyncDevice<PCInterface> {
+
+    public AsyncPC(AsyncClient client, String device, PCInterface remote) {
+        super(client, device, remote);
+    }
+
+    public RemoteFuture<Void> subscribe(final String busName) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.subscribe(busName);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> notify(final String devicename, final String sender, final String notification) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.notify(devicename, sender, notification);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> unsubscribe(final String busName) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.unsubscribe(busName);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> setVolume(final int level) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.setVolume(level);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Integer> getVolume() {
+        return call(new AsyncClient.Call<PCInterface, Integer>() {
+            @Override
+            public Integer invoke(PCInterface remote) throws BusException {
+                return remote.getVolume();
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mediaControlPlayPause() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mediaControlPlayPause();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mediaControlStop() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mediaControlStop();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mediaControlNext() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mediaControlNext();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mediaControlPrevious() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mediaControlPrevious();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mouseMove(final int x, final int y) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mouseMove(x, y);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mouseLeftClick() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mouseLeftClick();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mouseRightClick() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mouseRightClick();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> mouseButton(final int button, final boolean pressed) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.mouseButton(button, pressed);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> scroll(final int dx, final int dy) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.scroll(dx, dy);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> zoom(final double factor) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.zoom(factor);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> keyPressed(final int code) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.keyPressed(code);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> keyEvents(final int[] events) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.keyEvents(events);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> typeText(final String text) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.typeText(text);
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> slideshowStart() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.slideshowStart();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> slideshowStop() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.slideshowStop();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> nextSlide() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.nextSlide();
+                return null;
+            }
+        });
+    }
+
+    public RemoteFuture<Void> previousSlide() {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.previousSlide();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public RemoteFuture<Void> runScript(final String scriptName) {
+        return call(new AsyncClient.Call<PCInterface, Void>() {
+            @Override
+            public Void invoke(PCInterface remote) throws BusException {
+                remote.runScript(scriptName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * See {@link AsyncClient#runMacro}.
+     */
+    public RemoteFuture<Void> runMacro(Macro macro) {
+        return client.runMacro(device, remote, macro);
+    }
+}
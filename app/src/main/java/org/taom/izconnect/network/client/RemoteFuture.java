@@ -0,0 +1,324 @@
+package org.taom.izconnect.network.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Result of a remote call that completes later. Instead of waiting for it, callers add a {@link Callback}
+ * or chain the next call with {@link #then(Step)}; {@link #get()} is there for threads that may block.
+ * <p>
+ * A future completes once: with a value, with a failure, or by being cancelled or running past its deadline.
+ * Cancelling a chained future cancels the step it is waiting for.
+ */
+public class RemoteFuture<T> implements Future<T> {
+    private static final String TAG = "RemoteFuture";
+
+    private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RemoteFutureDeadlines");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    public interface Callback<T> {
+        void onSuccess(T value);
+
+        /**
+         * @param error a {@link CancellationException} when the future was cancelled, a {@link TimeoutException}
+         *              when it ran past its deadline, otherwise what the call threw
+         */
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * The next call of a chain, issued once the previous one succeeded.
+     */
+    public interface Step<T, U> {
+        RemoteFuture<U> apply(T value) throws Exception;
+    }
+
+    private final List<Callback<? super T>> callbacks = new ArrayList<>();
+    private boolean done;
+    private T value;
+    private Throwable error;
+    /** What this future waits for, cancelled along with it */
+    private volatile Future<?> upstream;
+
+    public static <T> RemoteFuture<T> succeeded(T value) {
+        RemoteFuture<T> future = new RemoteFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    public static <T> RemoteFuture<T> failed(Throwable error) {
+        RemoteFuture<T> future = new RemoteFuture<>();
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * Completes with {@code value} after {@code delay} without holding a thread, to space out the calls
+     * of a chain. Cancelling it stops the timer.
+     */
+    public static <T> RemoteFuture<T> delayed(final T value, long delay, TimeUnit unit) {
+        final RemoteFuture<T> future = new RemoteFuture<>();
+        future.upstream = deadlines.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(value);
+            }
+        }, delay, unit);
+        return future;
+    }
+
+    /**
+     * @return false when the future was already done
+     */
+    public boolean complete(T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * @return false when the future was already done
+     */
+    public boolean fail(Throwable error) {
+        return finish(null, error);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!finish(null, new CancellationException())) {
+            return false;
+        }
+        Future<?> upstream = this.upstream;
+        if (upstream != null) {
+            upstream.cancel(mayInterruptIfRunning);
+        }
+        return true;
+    }
+
+    /**
+     * Fails the future with a {@link TimeoutException} unless it completes within {@code timeout}.
+     * The earliest of several deadlines applies.
+     *
+     * @return this future
+     */
+    public RemoteFuture<T> withDeadline(long timeout, final TimeUnit unit) {
+        if (isDone()) {
+            return this;
+        }
+        final long millis = unit.toMillis(timeout);
+        final Future<?> expiry = deadlines.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (fail(new TimeoutException("No reply within " + millis + " ms"))) {
+                    Future<?> upstream = RemoteFuture.this.upstream;
+                    if (upstream != null) {
+                        upstream.cancel(false);
+                    }
+                }
+            }
+        }, timeout, unit);
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                expiry.cancel(false);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                expiry.cancel(false);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Runs {@code callback} on the thread that completes the future, or right away when it is done already.
+     * Callbacks must not block, they hold up the device the call went to.
+     */
+    public RemoteFuture<T> addCallback(Callback<? super T> callback) {
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        deliver(callback);
+        return this;
+    }
+
+    /**
+     * Runs {@code callback} on {@code executor}, for example to update views from the main thread.
+     */
+    public RemoteFuture<T> addCallback(final Callback<? super T> callback, final Executor executor) {
+        return addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(final T value) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(value);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Throwable error) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailure(error);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Issues the next call once this one succeeded. The returned future completes with the next call,
+     * or fails with the first failure of the chain, in which case later steps are not issued.
+     */
+    public <U> RemoteFuture<U> then(final Step<? super T, U> step) {
+        final RemoteFuture<U> next = new RemoteFuture<>();
+        next.upstream = this;
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (next.isDone()) {
+                    return;
+                }
+                RemoteFuture<U> call;
+                try {
+                    call = step.apply(value);
+                } catch (Exception e) {
+                    next.fail(e);
+                    return;
+                }
+                next.follow(call);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                next.fail(error);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Completes this future like {@code other} does.
+     */
+    private void follow(final RemoteFuture<T> other) {
+        upstream = other;
+        other.addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                complete(value);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                fail(error);
+            }
+        });
+        if (isCancelled()) {
+            other.cancel(false);
+        }
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return error instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+
+    private boolean finish(T value, Throwable error) {
+        List<Callback<? super T>> callbacks;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            this.value = value;
+            this.error = error;
+            callbacks = new ArrayList<>(this.callbacks);
+            this.callbacks.clear();
+            notifyAll();
+        }
+        for (Callback<? super T> callback : callbacks) {
+            deliver(callback);
+        }
+        return true;
+    }
+
+    private void deliver(Callback<? super T> callback) {
+        T value;
+        Throwable error;
+        synchronized (this) {
+            value = this.value;
+            error = this.error;
+        }
+        try {
+            if (error == null) {
+                callback.onSuccess(value);
+            } else {
+                callback.onFailure(error);
+            }
+        } catch (RuntimeException e) {
+            log(Level.SEVERE, TAG, "Callback failed:", String.valueOf(e));
+            e.printStackTrace();
+        }
+    }
+}
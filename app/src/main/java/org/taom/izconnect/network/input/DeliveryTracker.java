@@ -0,0 +1,56 @@
+package org.taom.izconnect.network.input;
+
+/**
+ * Receiver-side count of one-way input by sequence number. Input is applied whatever its order;
+ * the counts only tell the sender how much was lost or overtaken on the way.
+ */
+public class DeliveryTracker {
+    /** Feature bit of {@link #getStats()}: key events and text are taken as one-way input and datagram records */
+    public static final int KEYS = 1;
+    private static final int FEATURES = KEYS;
+
+    private int received;
+    private int missing;
+    private int late;
+    private int last = -1;
+
+    /**
+     * @return false when the input arrived after a later one
+     */
+    public synchronized boolean accept(int sequence) {
+        if (sequence == 0 && last > 0) {
+            // a reconnected sender starts over
+            reset();
+        }
+        received++;
+        if (last < 0 || sequence > last) {
+            if (last >= 0) {
+                missing += sequence - last - 1;
+            }
+            last = sequence;
+            return true;
+        }
+        // it was counted as missing when the later one came
+        late++;
+        missing = Math.max(0, missing - 1);
+        return false;
+    }
+
+    /**
+     * @return received, missing and late input, the last sequence number seen and the feature bits of this
+     * receiver; older receivers do not send the features
+     */
+    public synchronized int[] getStats() {
+        return new int[]{received, missing, late, last, FEATURES};
+    }
+
+    /**
+     * Sequence numbers start over when a sender reconnects.
+     */
+    public synchronized void reset() {
+        received = 0;
+        missing = 0;
+        late = 0;
+        last = -1;
+    }
+}
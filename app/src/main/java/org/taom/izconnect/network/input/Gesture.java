@@ -0,0 +1,46 @@
+package org.taom.izconnect.network.input;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.PCInterface;
+
+/**
+ * Touchpad gestures beyond plain movement, numbered apart from the {@link InputCommand}s so both
+ * can share the records of the datagram input channel.
+ */
+public class Gesture {
+    /** x and y are the scrolled touchpad pixels */
+    public static final int SCROLL = 16;
+    /** x is the zoom factor in thousandths */
+    public static final int ZOOM = 17;
+    /** x is the button, y is 1 when pressed and 0 when released */
+    public static final int BUTTON = 18;
+
+    public static final int BUTTON_LEFT = 1;
+    public static final int BUTTON_RIGHT = 2;
+
+    private Gesture() {
+    }
+
+    public static boolean isGesture(int type) {
+        return type >= SCROLL && type <= BUTTON;
+    }
+
+    /**
+     * Runs a gesture through the matching {@link PCInterface} method.
+     */
+    public static void dispatch(PCInterface target, int type, int x, int y) throws BusException {
+        switch (type) {
+            case SCROLL:
+                target.scroll(x, y);
+                break;
+            case ZOOM:
+                target.zoom(x / 1000.0);
+                break;
+            case BUTTON:
+                target.mouseButton(x, y != 0);
+                break;
+            default:
+                throw new BusException("Unknown gesture " + type);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.taom.izconnect.network.input;
+
+/**
+ * Scrolling and zooming gathered between two sends, the counterpart of {@link MouseDeltas} for
+ * two-finger gestures. Scroll deltas add up and zoom factors multiply, so a whole gesture costs one
+ * call per send whatever the touch rate. Whatever a send rounds away is carried over to the next one.
+ */
+public class GestureDeltas {
+    /** Zoom factor in thousandths when there is nothing to zoom */
+    public static final int NO_ZOOM = 1000;
+
+    private float scrollX, scrollY;
+    private float zoom = 1;
+    private boolean scheduled;
+
+    public synchronized void scroll(float dx, float dy) {
+        scrollX += dx;
+        scrollY += dy;
+    }
+
+    public synchronized void zoom(float factor) {
+        zoom *= factor;
+    }
+
+    /**
+     * Marks the deltas as scheduled for sending.
+     *
+     * @return false when there is nothing to send or a send is already scheduled, which takes these deltas too
+     */
+    public synchronized boolean schedule() {
+        if (scheduled || (int) scrollX == 0 && (int) scrollY == 0 && zoomMillis() == NO_ZOOM) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+
+    /**
+     * @return the scrolled x and y pixels and the zoom factor in thousandths gathered since the last drain
+     */
+    public synchronized int[] drain() {
+        scheduled = false;
+        int x = (int) scrollX;
+        int y = (int) scrollY;
+        int zoomMillis = zoomMillis();
+        scrollX -= x;
+        scrollY -= y;
+        zoom /= zoomMillis / 1000f;
+        return new int[]{x, y, zoomMillis};
+    }
+
+    private int zoomMillis() {
+        return Math.max(1, Math.round(zoom * 1000));
+    }
+}
@@ -0,0 +1,68 @@
+package org.taom.izconnect.network.input;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.PCInterface;
+
+/**
+ * Input commands carried by {@link org.taom.izconnect.network.interfaces.InputInterface#inputCommand}.
+ */
+public class InputCommand {
+    public static final int LEFT_CLICK = 1;
+    public static final int RIGHT_CLICK = 2;
+    public static final int KEY_PRESSED = 3;
+    public static final int MEDIA_PLAY_PAUSE = 4;
+    public static final int MEDIA_STOP = 5;
+    public static final int MEDIA_NEXT = 6;
+    public static final int MEDIA_PREVIOUS = 7;
+    public static final int SLIDESHOW_START = 8;
+    public static final int SLIDESHOW_STOP = 9;
+    public static final int NEXT_SLIDE = 10;
+    public static final int PREVIOUS_SLIDE = 11;
+
+    private InputCommand() {
+    }
+
+    /**
+     * Runs a command through the matching {@link PCInterface} method. Receivers use it to execute one-way
+     * commands, senders to deliver them to devices without one-way input.
+     */
+    public static void dispatch(PCInterface target, int command, int arg) throws BusException {
+        switch (command) {
+            case LEFT_CLICK:
+                target.mouseLeftClick();
+                break;
+            case RIGHT_CLICK:
+                target.mouseRightClick();
+                break;
+            case KEY_PRESSED:
+                target.keyPressed(arg);
+                break;
+            case MEDIA_PLAY_PAUSE:
+                target.mediaControlPlayPause();
+                break;
+            case MEDIA_STOP:
+                target.mediaControlStop();
+                break;
+            case MEDIA_NEXT:
+                target.mediaControlNext();
+                break;
+            case MEDIA_PREVIOUS:
+                target.mediaControlPrevious();
+                break;
+            case SLIDESHOW_START:
+                target.slideshowStart();
+                break;
+            case SLIDESHOW_STOP:
+                target.slideshowStop();
+                break;
+            case NEXT_SLIDE:
+                target.nextSlide();
+                break;
+            case PREVIOUS_SLIDE:
+                target.previousSlide();
+                break;
+            default:
+                throw new BusException("Unknown input command " + command);
+        }
+    }
+}
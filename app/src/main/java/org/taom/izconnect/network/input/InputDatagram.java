@@ -0,0 +1,41 @@
+package org.taom.izconnect.network.input;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Header of the datagrams of the input channel: magic, version, kind and the session token
+ * handed out over the bus, followed by {@link InputRecord}s for {@link #RECORDS} datagrams.
+ */
+class InputDatagram {
+    static final short MAGIC = 0x495a;
+    static final byte VERSION = 1;
+    static final byte RECORDS = 0;
+    static final byte HELLO = 1;
+    static final byte HELLO_ACK = 2;
+    static final int HEADER_SIZE = 8;
+    static final int MAX_RECORDS = 32;
+    static final int MAX_SIZE = HEADER_SIZE + MAX_RECORDS * InputRecord.SIZE;
+
+    private InputDatagram() {
+    }
+
+    static ByteBuffer create(byte kind, int token, int records) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records * InputRecord.SIZE);
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(kind);
+        buffer.putInt(token);
+        return buffer;
+    }
+
+    /**
+     * @return the kind of the datagram, or -1 when it is not an input datagram for {@code token}
+     */
+    static int readHeader(ByteBuffer buffer, int token) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getShort() != MAGIC || buffer.get() != VERSION) {
+            return -1;
+        }
+        byte kind = buffer.get();
+        return buffer.getInt() == token ? kind : -1;
+    }
+}
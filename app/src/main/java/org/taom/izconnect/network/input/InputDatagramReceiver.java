@@ -0,0 +1,275 @@
+package org.taom.izconnect.network.input;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.PCInterface;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * PC side of the datagram input channel. {@link #open(int)} binds a UDP port for the token the sender
+ * proposed over the bus; datagrams with another token are ignored.
+ * <p>
+ * Repeated records are dropped by sequence number. A movement older than one already applied is stale
+ * and dropped too, so reordered datagrams never drag the pointer back. Key records that overtook an earlier
+ * one are held until it arrives, or for {@link #KEY_HOLD_MILLIS} when it was lost, so text keeps its order.
+ */
+public class InputDatagramReceiver implements Runnable {
+    private static final String TAG = "InputDatagramReceiver";
+    /** Sequence numbers this far behind the newest one are no longer told apart from repeats. */
+    private static final int WINDOW = 64;
+    /** Longer than the sender repeats a datagram, see {@link InputDatagramSender} */
+    private static final int KEY_HOLD_MILLIS = 60;
+
+    public interface Listener {
+        void onInput(InputRecord record);
+    }
+
+    private final Listener listener;
+    private final DeliveryTracker tracker = new DeliveryTracker();
+    private DatagramSocket socket;
+    private volatile int token;
+    private int newest = -1;
+    private long seen;
+    private int lastMove = -1;
+    private int stale;
+    private int lastKey = -1;
+    private final TreeMap<Integer, InputRecord> heldKeys = new TreeMap<>();
+    private long heldSince;
+
+    public InputDatagramReceiver(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Applies records through the matching {@link PCInterface} methods of {@code target}.
+     */
+    public static Listener dispatchTo(final PCInterface target) {
+        return new Listener() {
+            private char highSurrogate;
+
+            @Override
+            public void onInput(InputRecord record) {
+                try {
+                    if (record.getType() == InputRecord.MOUSE_MOVE) {
+                        target.mouseMove(record.getDx(), record.getDy());
+                    } else if (record.getType() == InputRecord.KEY_EVENT) {
+                        target.keyEvents(new int[]{
+                                KeyEvents.pack(record.getDx(), record.getModifiers(), record.getKeyCode())});
+                    } else if (record.getType() == InputRecord.CHARACTER) {
+                        char c = (char) record.getKeyCode();
+                        if (Character.isHighSurrogate(c)) {
+                            highSurrogate = c;
+                        } else if (Character.isLowSurrogate(c)) {
+                            if (highSurrogate != 0) {
+                                target.typeText(new String(new char[]{highSurrogate, c}));
+                            }
+                            highSurrogate = 0;
+                        } else {
+                            target.typeText(String.valueOf(c));
+                        }
+                    } else if (Gesture.isGesture(record.getType())) {
+                        Gesture.dispatch(target, record.getType(), record.getDx(), record.getDy());
+                    } else {
+                        InputCommand.dispatch(target, record.getType(), record.getKeyCode());
+                    }
+                } catch (BusException e) {
+                    log(Level.WARNING, TAG, "Cannot apply input:", e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts accepting datagrams with {@code token}, replacing any earlier sender.
+     *
+     * @return "host:port" endpoints the sender may reach this receiver at
+     */
+    public synchronized String[] open(int token) throws IOException {
+        if (socket == null) {
+            socket = new DatagramSocket();
+            Thread thread = new Thread(this, TAG);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.token = token;
+        newest = -1;
+        seen = 0;
+        lastMove = -1;
+        lastKey = -1;
+        heldKeys.clear();
+        tracker.reset();
+
+        List<String> endpoints = new ArrayList<>();
+        for (InetAddress address : localAddresses()) {
+            endpoints.add(address.getHostAddress() + ":" + socket.getLocalPort());
+        }
+        return endpoints.toArray(new String[endpoints.size()]);
+    }
+
+    public DeliveryTracker getTracker() {
+        return tracker;
+    }
+
+    public synchronized int getStale() {
+        return stale;
+    }
+
+    public synchronized void close() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        DatagramSocket socket;
+        synchronized (this) {
+            socket = this.socket;
+        }
+        DatagramPacket packet = new DatagramPacket(new byte[InputDatagram.MAX_SIZE], InputDatagram.MAX_SIZE);
+        while (!socket.isClosed()) {
+            try {
+                deliver(releaseHeldKeys());
+                packet.setLength(InputDatagram.MAX_SIZE);
+                socket.setSoTimeout(holdTimeout());
+                socket.receive(packet);
+                ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+                int kind = InputDatagram.readHeader(buffer, token);
+                if (kind == InputDatagram.HELLO) {
+                    byte[] ack = InputDatagram.create(InputDatagram.HELLO_ACK, token, 0).array();
+                    socket.send(new DatagramPacket(ack, ack.length, packet.getSocketAddress()));
+                } else if (kind == InputDatagram.RECORDS) {
+                    while (buffer.remaining() >= InputRecord.SIZE) {
+                        InputRecord record = InputRecord.read(buffer);
+                        if (!accept(record)) {
+                            continue;
+                        }
+                        if (record.isKey()) {
+                            deliver(orderKey(record));
+                        } else {
+                            listener.onInput(record);
+                        }
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // held keys are released at the top of the loop
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log(Level.WARNING, TAG, "Cannot receive input:", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private synchronized boolean accept(InputRecord record) {
+        int sequence = record.getSequence();
+        if (sequence > newest) {
+            int shift = sequence - newest;
+            seen = shift >= WINDOW ? 0 : seen << shift;
+            seen |= 1;
+            newest = sequence;
+        } else {
+            int age = newest - sequence;
+            if (age >= WINDOW || (seen & (1L << age)) != 0) {
+                return false;
+            }
+            seen |= 1L << age;
+        }
+        tracker.accept(sequence);
+
+        if (record.getType() == InputRecord.MOUSE_MOVE) {
+            if (sequence < lastMove) {
+                stale++;
+                return false;
+            }
+            lastMove = sequence;
+        }
+        return true;
+    }
+
+    /**
+     * @return the key records that can be applied now, in order
+     */
+    private synchronized List<InputRecord> orderKey(InputRecord record) {
+        if (record.getPreviousKey() > lastKey) {
+            if (heldKeys.isEmpty()) {
+                heldSince = System.nanoTime();
+            }
+            heldKeys.put(record.getSequence(), record);
+            return Collections.emptyList();
+        }
+        List<InputRecord> ready = new ArrayList<>();
+        ready.add(record);
+        lastKey = Math.max(lastKey, record.getSequence());
+        while (!heldKeys.isEmpty() && heldKeys.firstEntry().getValue().getPreviousKey() <= lastKey) {
+            InputRecord next = heldKeys.pollFirstEntry().getValue();
+            ready.add(next);
+            lastKey = next.getSequence();
+        }
+        heldSince = System.nanoTime();
+        return ready;
+    }
+
+    /**
+     * Gives up on a lost key record once its repeats are overdue and applies the ones held behind it.
+     */
+    private synchronized List<InputRecord> releaseHeldKeys() {
+        if (heldKeys.isEmpty()
+                || System.nanoTime() - heldSince < TimeUnit.MILLISECONDS.toNanos(KEY_HOLD_MILLIS)) {
+            return Collections.emptyList();
+        }
+        List<InputRecord> ready = new ArrayList<>(heldKeys.values());
+        lastKey = heldKeys.lastKey();
+        heldKeys.clear();
+        return ready;
+    }
+
+    private synchronized int holdTimeout() {
+        if (heldKeys.isEmpty()) {
+            return 0;
+        }
+        long left = TimeUnit.MILLISECONDS.toNanos(KEY_HOLD_MILLIS) - (System.nanoTime() - heldSince);
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(left));
+    }
+
+    private void deliver(List<InputRecord> records) {
+        for (InputRecord record : records) {
+            listener.onInput(record);
+        }
+    }
+
+    private static List<InetAddress> localAddresses() throws SocketException {
+        List<InetAddress> addresses = new ArrayList<>();
+        for (NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!network.isUp()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(network.getInetAddresses())) {
+                if (address instanceof Inet4Address && !address.isLoopbackAddress()) {
+                    addresses.add(address);
+                }
+            }
+        }
+        if (addresses.isEmpty()) {
+            addresses.add(InetAddress.getLoopbackAddress());
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,190 @@
+package org.taom.izconnect.network.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Sends input as {@link InputRecord}s in UDP datagrams to the endpoint a PC opened with
+ * {@link org.taom.izconnect.network.interfaces.InputInterface#openInputChannel}.
+ * <p>
+ * A lost movement or scroll only loses a few pixels, but a lost click, key or button is a wrong command,
+ * so datagrams holding one are repeated after {@link #REPEAT_DELAYS_MILLIS}; the receiver
+ * drops the records it already has by their sequence numbers.
+ */
+public class InputDatagramSender implements Closeable {
+    private static final String TAG = "InputDatagramSender";
+    private static final long[] REPEAT_DELAYS_MILLIS = {10, 40};
+
+    private static ScheduledExecutorService repeater;
+
+    private final DatagramSocket socket;
+    private final int token;
+    private final long openedAt = System.nanoTime();
+    private int sequence;
+    private int lastKey = -1;
+
+    private InputDatagramSender(DatagramSocket socket, int token) {
+        this.socket = socket;
+        this.token = token;
+    }
+
+    /**
+     * Greets every endpoint and keeps the first that answers.
+     *
+     * @param endpoints "host:port" addresses returned by {@code openInputChannel}
+     * @return null when no endpoint answered within {@code timeoutMillis}
+     */
+    public static InputDatagramSender connect(String[] endpoints, int token, int timeoutMillis) throws IOException {
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            byte[] hello = InputDatagram.create(InputDatagram.HELLO, token, 0).array();
+            for (String endpoint : endpoints) {
+                int colon = endpoint.lastIndexOf(':');
+                InetSocketAddress address = new InetSocketAddress(endpoint.substring(0, colon),
+                        Integer.parseInt(endpoint.substring(colon + 1)));
+                socket.send(new DatagramPacket(hello, hello.length, address));
+            }
+
+            socket.setSoTimeout(timeoutMillis);
+            DatagramPacket reply = new DatagramPacket(new byte[InputDatagram.HEADER_SIZE], InputDatagram.HEADER_SIZE);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (System.nanoTime() < deadline) {
+                socket.receive(reply);
+                ByteBuffer buffer = ByteBuffer.wrap(reply.getData(), 0, reply.getLength());
+                if (InputDatagram.readHeader(buffer, token) == InputDatagram.HELLO_ACK) {
+                    socket.connect(reply.getSocketAddress());
+                    log(Level.INFO, TAG, "Input channel open to", String.valueOf(reply.getSocketAddress()));
+                    return new InputDatagramSender(socket, token);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // nobody answered
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+        socket.close();
+        return null;
+    }
+
+    /**
+     * @param samples consecutive x and y deltas, see {@link MouseDeltas#drain()}
+     */
+    public synchronized void moveMouse(int[] samples) throws IOException {
+        int count = Math.min(samples.length / 2, InputDatagram.MAX_RECORDS);
+        ByteBuffer datagram = InputDatagram.create(InputDatagram.RECORDS, token, count);
+        int timestamp = timestamp();
+        for (int i = 0; i < count; i++) {
+            new InputRecord(sequence++, timestamp, InputRecord.MOUSE_MOVE, 0, 0, samples[i * 2], samples[i * 2 + 1])
+                    .write(datagram);
+        }
+        send(datagram.array(), false);
+    }
+
+    /**
+     * @param command one of the {@link InputCommand} constants
+     */
+    public synchronized void command(int command, int keyCode, int modifiers) throws IOException {
+        ByteBuffer datagram = InputDatagram.create(InputDatagram.RECORDS, token, 1);
+        new InputRecord(sequence++, timestamp(), command, modifiers, keyCode, 0, 0).write(datagram);
+        send(datagram.array(), true);
+    }
+
+    /**
+     * @param type one of the {@link Gesture} constants
+     */
+    public synchronized void gesture(int type, int x, int y) throws IOException {
+        ByteBuffer datagram = InputDatagram.create(InputDatagram.RECORDS, token, 1);
+        new InputRecord(sequence++, timestamp(), type, 0, 0, x, y).write(datagram);
+        send(datagram.array(), type == Gesture.BUTTON);
+    }
+
+    /**
+     * @param events packed with {@link KeyEvents}
+     */
+    public synchronized void keyEvents(int[] events) throws IOException {
+        for (int first = 0; first < events.length; first += InputDatagram.MAX_RECORDS) {
+            int count = Math.min(events.length - first, InputDatagram.MAX_RECORDS);
+            ByteBuffer datagram = InputDatagram.create(InputDatagram.RECORDS, token, count);
+            int timestamp = timestamp();
+            for (int i = first; i < first + count; i++) {
+                int event = events[i];
+                keyRecord(timestamp, InputRecord.KEY_EVENT, KeyEvents.getModifiers(event), KeyEvents.getCode(event),
+                        KeyEvents.getAction(event)).write(datagram);
+            }
+            send(datagram.array(), true);
+        }
+    }
+
+    public synchronized void typeText(String text) throws IOException {
+        for (int first = 0; first < text.length(); first += InputDatagram.MAX_RECORDS) {
+            int count = Math.min(text.length() - first, InputDatagram.MAX_RECORDS);
+            ByteBuffer datagram = InputDatagram.create(InputDatagram.RECORDS, token, count);
+            int timestamp = timestamp();
+            for (int i = first; i < first + count; i++) {
+                keyRecord(timestamp, InputRecord.CHARACTER, 0, text.charAt(i), 0).write(datagram);
+            }
+            send(datagram.array(), true);
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    private int timestamp() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedAt);
+    }
+
+    private InputRecord keyRecord(int timestamp, int type, int modifiers, int keyCode, int dx) {
+        int link = lastKey < 0 || sequence - lastKey > Short.MAX_VALUE ? 0 : sequence - lastKey;
+        lastKey = sequence;
+        return new InputRecord(sequence++, timestamp, type, modifiers, keyCode, dx, link);
+    }
+
+    private void send(final byte[] datagram, boolean repeat) throws IOException {
+        socket.send(new DatagramPacket(datagram, datagram.length));
+        if (!repeat) {
+            return;
+        }
+        for (long delay : REPEAT_DELAYS_MILLIS) {
+            repeater().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        socket.send(new DatagramPacket(datagram, datagram.length));
+                    } catch (IOException e) {
+                        log(Level.FINE, TAG, "Cannot repeat input:", e.getMessage());
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService repeater() {
+        if (repeater == null) {
+            repeater = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return repeater;
+    }
+}
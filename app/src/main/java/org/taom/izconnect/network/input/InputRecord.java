@@ -0,0 +1,106 @@
+package org.taom.izconnect.network.input;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One input event as a fixed-size binary record of the datagram input channel, see {@link InputDatagramSender}.
+ * Records are {@link #SIZE} bytes, big endian: sequence, timestamp, type, modifiers, key code, dx and dy.
+ */
+public class InputRecord {
+    public static final int SIZE = 16;
+    /** Type of a mouse movement; other types are {@link InputCommand}, {@link Gesture} or key constants. */
+    public static final int MOUSE_MOVE = 0;
+    /**
+     * One {@link KeyEvents} event: dx is the action, modifiers and key code are unpacked. dy links to the
+     * previous key record, see {@link #getPreviousKey()}.
+     */
+    public static final int KEY_EVENT = 24;
+    /** One UTF-16 unit of typed text in the key code, dy linked like {@link #KEY_EVENT}. */
+    public static final int CHARACTER = 25;
+
+    private final int sequence;
+    private final int timestamp;
+    private final int type;
+    private final int modifiers;
+    private final int keyCode;
+    private final int dx;
+    private final int dy;
+
+    /**
+     * @param timestamp milliseconds since the sender opened the channel
+     */
+    public InputRecord(int sequence, int timestamp, int type, int modifiers, int keyCode, int dx, int dy) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.modifiers = modifiers;
+        this.keyCode = keyCode;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getModifiers() {
+        return modifiers;
+    }
+
+    public int getKeyCode() {
+        return keyCode;
+    }
+
+    public int getDx() {
+        return dx;
+    }
+
+    public int getDy() {
+        return dy;
+    }
+
+    public boolean isKey() {
+        return type == KEY_EVENT || type == CHARACTER;
+    }
+
+    /**
+     * Key records must be applied in order even when their datagrams are not, so each one tells how many
+     * records back the key record before it was.
+     *
+     * @return sequence number of the previous key record, -1 when unknown
+     */
+    public int getPreviousKey() {
+        return dy > 0 ? sequence - dy : -1;
+    }
+
+    public void write(ByteBuffer buffer) {
+        buffer.putInt(sequence);
+        buffer.putInt(timestamp);
+        buffer.put((byte) type);
+        buffer.put((byte) modifiers);
+        buffer.putShort((short) keyCode);
+        buffer.putShort(clamp(dx));
+        buffer.putShort(clamp(dy));
+    }
+
+    public static InputRecord read(ByteBuffer buffer) {
+        int sequence = buffer.getInt();
+        int timestamp = buffer.getInt();
+        int type = buffer.get() & 0xff;
+        int modifiers = buffer.get() & 0xff;
+        int keyCode = buffer.getShort() & 0xffff;
+        return new InputRecord(sequence, timestamp, type, modifiers, keyCode, buffer.getShort(), buffer.getShort());
+    }
+
+    private static short clamp(int delta) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, delta));
+    }
+}
@@ -0,0 +1,332 @@
+package org.taom.izconnect.network.input;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.ErrorReplyBusException;
+import org.taom.izconnect.network.LatencyHistogram;
+import org.taom.izconnect.network.interfaces.PCInterface;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Delivers input to one PC through the datagram channel of {@link InputDatagramSender} when the PC opens one,
+ * through the one-way {@link org.taom.izconnect.network.interfaces.InputInterface} when it has it, and through
+ * the blocking {@link PCInterface} methods otherwise. A channel that fails is dropped for the bus. Not thread
+ * safe, input is sent from one thread.
+ * <p>
+ * Delivery is checked in the background: every {@link #STATS_INTERVAL} inputs the PC's counts are fetched
+ * on another thread and logged next to the local ones.
+ */
+public class InputSender {
+    private static final String TAG = "InputSender";
+    private static final int STATS_INTERVAL = 256;
+    private static final int CONNECT_TIMEOUT_MILLIS = 300;
+
+    private static ExecutorService statsPoller;
+
+    private final String device;
+    private final PCInterface remote;
+    private final LatencyHistogram sendTimes = new LatencyHistogram();
+    private InputDatagramSender channel;
+    private boolean channelTried;
+    private Boolean oneWay;
+    private int features;
+    private boolean batched = true;
+    private boolean keyEvents = true;
+    private boolean gestures = true;
+    private int sequence;
+
+    public InputSender(String device, PCInterface remote) {
+        this.device = device;
+        this.remote = remote;
+    }
+
+    /**
+     * @param samples consecutive x and y deltas, see {@link MouseDeltas#drain()}
+     */
+    public void moveMouse(int[] samples) throws BusException {
+        if (samples.length == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        InputDatagramSender channel = getChannel();
+        if (channel != null) {
+            try {
+                channel.moveMouse(samples);
+                sent(start);
+                return;
+            } catch (IOException e) {
+                channelFailed(e);
+            }
+        }
+        if (isOneWay()) {
+            remote.inputMouseMove(sequence, samples);
+        } else {
+            moveMouseBlocking(samples);
+        }
+        sent(start);
+    }
+
+    /**
+     * @param command one of the {@link InputCommand} constants
+     */
+    public void command(int command, int arg) throws BusException {
+        long start = System.nanoTime();
+        InputDatagramSender channel = getChannel();
+        if (channel != null) {
+            try {
+                channel.command(command, arg, 0);
+                sent(start);
+                return;
+            } catch (IOException e) {
+                channelFailed(e);
+            }
+        }
+        if (isOneWay()) {
+            remote.inputCommand(sequence, command, arg);
+        } else {
+            InputCommand.dispatch(remote, command, arg);
+        }
+        sent(start);
+    }
+
+    /**
+     * Gestures go over the datagram channel when there is one and through blocking calls otherwise.
+     * PCs without gestures ignore them.
+     *
+     * @param type one of the {@link Gesture} constants
+     */
+    public void gesture(int type, int x, int y) throws BusException {
+        long start = System.nanoTime();
+        InputDatagramSender channel = getChannel();
+        if (channel != null) {
+            try {
+                channel.gesture(type, x, y);
+                sent(start);
+                return;
+            } catch (IOException e) {
+                channelFailed(e);
+            }
+        }
+        if (!gestures) {
+            return;
+        }
+        try {
+            Gesture.dispatch(remote, type, x, y);
+            sendTimes.record(System.nanoTime() - start);
+        } catch (ErrorReplyBusException e) {
+            log(Level.INFO, TAG, device, "has no gestures, ignoring them");
+            gestures = false;
+        }
+    }
+
+    /**
+     * Sends a burst of key events in one call, taking the same path as the other input on PCs that take keys
+     * one-way. PCs without {@link PCInterface#keyEvents(int[])} get a {@link PCInterface#keyPressed(int)} per
+     * pressed key, without modifiers.
+     *
+     * @param events packed with {@link KeyEvents}
+     */
+    public void keyEvents(int[] events) throws BusException {
+        long start = System.nanoTime();
+        if (hasOneWayKeys()) {
+            InputDatagramSender channel = getChannel();
+            if (channel != null) {
+                try {
+                    channel.keyEvents(events);
+                    sent(start);
+                    return;
+                } catch (IOException e) {
+                    channelFailed(e);
+                }
+            }
+            remote.inputKeyEvents(sequence, events);
+            sent(start);
+            return;
+        }
+        if (keyEvents) {
+            try {
+                remote.keyEvents(events);
+                sendTimes.record(System.nanoTime() - start);
+                return;
+            } catch (ErrorReplyBusException e) {
+                log(Level.INFO, TAG, device, "has no key events, pressing keys one by one");
+                keyEvents = false;
+            }
+        }
+        for (int event : events) {
+            if (KeyEvents.getAction(event) != KeyEvents.UP) {
+                remote.keyPressed(KeyEvents.getCode(event));
+            }
+        }
+        sendTimes.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Types a burst of text in one call, sent like {@link #keyEvents(int[])}, or a
+     * {@link PCInterface#keyPressed(int)} per character on PCs that cannot type text. Characters without
+     * a key are skipped then.
+     */
+    public void typeText(String text) throws BusException {
+        long start = System.nanoTime();
+        if (hasOneWayKeys()) {
+            InputDatagramSender channel = getChannel();
+            if (channel != null) {
+                try {
+                    channel.typeText(text);
+                    sent(start);
+                    return;
+                } catch (IOException e) {
+                    channelFailed(e);
+                }
+            }
+            remote.inputText(sequence, text);
+            sent(start);
+            return;
+        }
+        if (keyEvents) {
+            try {
+                remote.typeText(text);
+                sendTimes.record(System.nanoTime() - start);
+                return;
+            } catch (ErrorReplyBusException e) {
+                log(Level.INFO, TAG, device, "cannot type text, pressing keys one by one");
+                keyEvents = false;
+            }
+        }
+        for (int i = 0; i < text.length(); i++) {
+            int code = KeyEvents.fromChar(text.charAt(i));
+            if (code >= 0) {
+                remote.keyPressed(code);
+            }
+        }
+        sendTimes.record(System.nanoTime() - start);
+    }
+
+    /**
+     * @return time spent sending each input on this side, the whole round trip for blocking calls
+     */
+    public LatencyHistogram getSendTimes() {
+        return sendTimes;
+    }
+
+    /**
+     * Closes the datagram channel, if any.
+     */
+    public void close() {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private InputDatagramSender getChannel() throws BusException {
+        if (channelTried) {
+            return channel;
+        }
+        channelTried = true;
+        int token = new SecureRandom().nextInt();
+        String[] endpoints;
+        try {
+            endpoints = remote.openInputChannel(token);
+        } catch (ErrorReplyBusException e) {
+            log(Level.INFO, TAG, device, "has no input channel, sending input over the bus");
+            return null;
+        }
+        if (endpoints.length == 0) {
+            return null;
+        }
+        try {
+            channel = InputDatagramSender.connect(endpoints, token, CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException | RuntimeException e) {
+            log(Level.WARNING, TAG, "Cannot connect the input channel of", device + ":", e.getMessage());
+        }
+        if (channel == null) {
+            log(Level.INFO, TAG, device, "input channel is unreachable, sending input over the bus");
+        }
+        return channel;
+    }
+
+    private void channelFailed(IOException e) {
+        log(Level.WARNING, TAG, "Input channel of", device, "failed, sending input over the bus:", e.getMessage());
+        close();
+    }
+
+    private boolean isOneWay() throws BusException {
+        if (oneWay == null) {
+            try {
+                int[] stats = remote.getInputStats();
+                features = stats.length > 4 ? stats[4] : 0;
+                oneWay = true;
+            } catch (ErrorReplyBusException e) {
+                log(Level.INFO, TAG, device, "has no one-way input, waiting for replies");
+                oneWay = false;
+            }
+        }
+        return oneWay;
+    }
+
+    /**
+     * Older PCs with one-way input drop key records and one-way key calls they do not know, so keys wait
+     * for replies there.
+     */
+    private boolean hasOneWayKeys() throws BusException {
+        return isOneWay() && (features & DeliveryTracker.KEYS) != 0;
+    }
+
+    private void moveMouseBlocking(int[] samples) throws BusException {
+        if (batched) {
+            try {
+                remote.mouseMoveBatch(samples);
+                return;
+            } catch (ErrorReplyBusException e) {
+                batched = false;
+            }
+        }
+        int[] total = MouseDeltas.total(samples);
+        remote.mouseMove(total[0], total[1]);
+    }
+
+    private void sent(long start) {
+        sendTimes.record(System.nanoTime() - start);
+        if (++sequence % STATS_INTERVAL == 0 && (channel != null || Boolean.TRUE.equals(oneWay))) {
+            pollStats(sequence);
+        }
+    }
+
+    private void pollStats(final int sent) {
+        statsPoller().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int[] stats = remote.getInputStats();
+                    log(Level.INFO, TAG, device, "sent", String.valueOf(sent), "received", String.valueOf(stats[0]),
+                            "missing", String.valueOf(stats[1]), "late", String.valueOf(stats[2]),
+                            "send times", sendTimes.toString());
+                } catch (BusException e) {
+                    log(Level.FINE, TAG, "Cannot get input stats of", device + ":", e.getMessage());
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService statsPoller() {
+        if (statsPoller == null) {
+            statsPoller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return statsPoller;
+    }
+}
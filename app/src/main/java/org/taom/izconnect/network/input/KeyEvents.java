@@ -0,0 +1,87 @@
+package org.taom.izconnect.network.input;
+
+/**
+ * Key events of {@link org.taom.izconnect.network.interfaces.PCInterface#keyEvents(int[])}, each packed into
+ * one int: the action in the top byte, the modifiers held in the next one and the virtual key code below.
+ * Key codes are the ones the keyboards already send, like {@code 65} for A.
+ */
+public class KeyEvents {
+    public static final int DOWN = 0;
+    public static final int UP = 1;
+    /** The key is held and repeats, sent between its down and up events. */
+    public static final int REPEAT = 2;
+
+    public static final int SHIFT = 1;
+    public static final int CTRL = 2;
+    public static final int ALT = 4;
+    public static final int META = 8;
+
+    public static final int KEY_SHIFT = 16;
+    public static final int KEY_CTRL = 17;
+    public static final int KEY_ALT = 18;
+    public static final int KEY_CAPS_LOCK = 20;
+
+    private static final String PUNCTUATION = ".;,/\\";
+    private static final int[] PUNCTUATION_CODES = {190, 186, 188, 191, 220};
+
+    private KeyEvents() {
+    }
+
+    public static int pack(int action, int modifiers, int code) {
+        return action << 24 | (modifiers & 0xff) << 16 | code & 0xffff;
+    }
+
+    public static int down(int code, int modifiers) {
+        return pack(DOWN, modifiers, code);
+    }
+
+    public static int up(int code, int modifiers) {
+        return pack(UP, modifiers, code);
+    }
+
+    public static int repeat(int code, int modifiers) {
+        return pack(REPEAT, modifiers, code);
+    }
+
+    public static int getAction(int event) {
+        return event >>> 24;
+    }
+
+    public static int getModifiers(int event) {
+        return event >>> 16 & 0xff;
+    }
+
+    public static int getCode(int event) {
+        return event & 0xffff;
+    }
+
+    /**
+     * @return the lower case character typed by the key, 0 when it does not type one
+     */
+    public static char toChar(int code) {
+        if (code >= 'A' && code <= 'Z') {
+            return (char) Character.toLowerCase(code);
+        }
+        if (code == ' ' || code >= '0' && code <= '9') {
+            return (char) code;
+        }
+        for (int i = 0; i < PUNCTUATION_CODES.length; i++) {
+            if (PUNCTUATION_CODES[i] == code) {
+                return PUNCTUATION.charAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the key typing {@code c}, ignoring case, or -1 when there is none
+     */
+    public static int fromChar(char c) {
+        char upper = Character.toUpperCase(c);
+        if (upper >= 'A' && upper <= 'Z' || c == ' ' || c >= '0' && c <= '9') {
+            return upper;
+        }
+        int index = PUNCTUATION.indexOf(c);
+        return index < 0 ? -1 : PUNCTUATION_CODES[index];
+    }
+}
@@ -0,0 +1,88 @@
+package org.taom.izconnect.network.input;
+
+/**
+ * Mouse movement gathered between two sends. Touch samples are added as they arrive and drained
+ * once per send, so however slow the bus is, movement merges here instead of queueing as calls.
+ * <p>
+ * Up to {@link #MAX_SAMPLES} sub-frame samples are kept so the receiver can replay the path smoothly;
+ * when more arrive, neighbouring samples are merged. Fractions of a pixel are carried over to the next
+ * sample rather than lost.
+ */
+public class MouseDeltas {
+    public static final int MAX_SAMPLES = 8;
+
+    private final int[] samples = new int[MAX_SAMPLES * 2];
+    private int count;
+    private float remainderX, remainderY;
+    private boolean scheduled;
+
+    public synchronized void add(float dx, float dy) {
+        remainderX += dx;
+        remainderY += dy;
+        int x = (int) remainderX;
+        int y = (int) remainderY;
+        if (x == 0 && y == 0) {
+            return;
+        }
+        remainderX -= x;
+        remainderY -= y;
+        if (count == MAX_SAMPLES) {
+            halve();
+        }
+        samples[count * 2] = x;
+        samples[count * 2 + 1] = y;
+        count++;
+    }
+
+    /**
+     * Marks the deltas as scheduled for sending.
+     *
+     * @return false when there is nothing to send or a send is already scheduled, which takes this movement too
+     */
+    public synchronized boolean schedule() {
+        if (count == 0 || scheduled) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+
+    /**
+     * @return the samples gathered since the last drain, as consecutive x and y deltas
+     */
+    public synchronized int[] drain() {
+        scheduled = false;
+        int[] drained = new int[count * 2];
+        System.arraycopy(samples, 0, drained, 0, drained.length);
+        count = 0;
+        return drained;
+    }
+
+    /**
+     * @return the sum of the samples, as an x and y delta
+     */
+    public static int[] total(int[] samples) {
+        int[] total = new int[2];
+        for (int i = 0; i + 1 < samples.length; i += 2) {
+            total[0] += samples[i];
+            total[1] += samples[i + 1];
+        }
+        return total;
+    }
+
+    private void halve() {
+        int merged = 0;
+        for (int i = 0; i < count; i += 2) {
+            int x = samples[i * 2];
+            int y = samples[i * 2 + 1];
+            if (i + 1 < count) {
+                x += samples[i * 2 + 2];
+                y += samples[i * 2 + 3];
+            }
+            samples[merged * 2] = x;
+            samples[merged * 2 + 1] = y;
+            merged++;
+        }
+        count = merged;
+    }
+}
@@ -7,7 +7,8 @@ import org.alljoyn.bus.annotation.BusProperty;
 import org.alljoyn.bus.annotation.BusSignal;
 
 @BusInterface(name = BoardInterface.INTERFACE_NAME, announced = "true")
-public interface BoardInterface extends DeviceInfoInterface {
+public interface BoardInterface extends DeviceInfoInterface, FileTransferInterface, ScriptExecutionInterface,
+        MacroInterface {
 
     String INTERFACE_NAME = "org.taom.izconnect.network.BoardInterface";
 
@@ -23,9 +24,6 @@ public interface BoardInterface extends DeviceInfoInterface {
     @BusProperty
     boolean getAutoMode() throws BusException;
 
-    @BusMethod
-    void fileData(String filename, byte[] data, boolean isScript) throws BusException;
-
     @BusMethod
     void runScript(String scriptName) throws BusException;
 
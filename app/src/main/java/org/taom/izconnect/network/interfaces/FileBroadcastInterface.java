@@ -0,0 +1,30 @@
+package org.taom.izconnect.network.interfaces;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * Chunks sent once to every member of a multipoint broadcast session, see
+ * {@link FileTransferInterface#joinBroadcast(String, short)}. Transfers are opened and closed on
+ * each member separately, which is also how members report the ranges they missed.
+ */
+@BusInterface(name = FileBroadcastInterface.INTERFACE_NAME)
+public interface FileBroadcastInterface {
+
+    String INTERFACE_NAME = "org.taom.izconnect.network.FileBroadcastInterface";
+
+    /**
+     * Same contract as {@link FileTransferInterface#transferChunk}. Members ignore chunks of
+     * transfers they have not opened.
+     */
+    @BusSignal(annotation = BusSignal.ANNOTATE_SESSIONCAST)
+    void broadcastChunk(String transferId, long offset, int length, byte[] data) throws BusException;
+
+    /**
+     * Sent behind the chunks on the same session, so a member that has it has every chunk sent before.
+     * Members report the last one they got with {@link FileTransferInterface#broadcastFlushed(String)}.
+     */
+    @BusSignal(annotation = BusSignal.ANNOTATE_SESSIONCAST)
+    void broadcastFlush(String transferId, int flush) throws BusException;
+}
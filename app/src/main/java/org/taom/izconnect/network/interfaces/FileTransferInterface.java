@@ -0,0 +1,78 @@
+package org.taom.izconnect.network.interfaces;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusMethod;
+
+public interface FileTransferInterface {
+    @BusMethod
+    void fileData(String filename, byte[] data, boolean isScript) throws BusException;
+
+    /**
+     * Starts a transfer or resumes the one already known under {@code transferId}.
+     *
+     * @param codec encoding proposed for the chunks
+     * @return the encoding the receiver will decode, {@code "identity"} when it does not support the proposed one
+     */
+    @BusMethod
+    String openTransfer(String transferId, String filename, long length, boolean isScript, String codec) throws BusException;
+
+    /**
+     * @return byte ranges not persisted yet, as consecutive start and end offsets
+     */
+    @BusMethod
+    long[] missingRanges(String transferId) throws BusException;
+
+    /**
+     * Writes a chunk at the given offset. Chunks may arrive concurrently and out of order.
+     * A chunk shorter than {@code length} is encoded with the codec agreed in {@link #openTransfer}.
+     *
+     * @return end offset of the acknowledged chunk
+     */
+    @BusMethod
+    long transferChunk(String transferId, long offset, int length, byte[] data) throws BusException;
+
+    /**
+     * Moves the file into place once every range is persisted.
+     *
+     * @return ranges still missing, empty when the file was completed
+     */
+    @BusMethod
+    long[] closeTransfer(String transferId) throws BusException;
+
+    /**
+     * Like {@link #closeTransfer}, but the file is moved into place only when it matches the sender's
+     * SHA-256 digests of its segments.
+     *
+     * @return ranges still missing or whose segment does not match, empty when the file was completed
+     */
+    @BusMethod
+    long[] commitTransfer(String transferId, byte[] segmentDigests) throws BusException;
+
+    /**
+     * @return block signatures of the receiver's copy of the script, empty when it has none
+     */
+    @BusMethod
+    byte[] scriptSignature(String scriptName, int blockSize) throws BusException;
+
+    /**
+     * Rebuilds the script from the receiver's copy and the delta, replacing it only when the result
+     * matches the digest carried by the delta.
+     */
+    @BusMethod
+    boolean applyScriptDelta(String scriptName, byte[] delta) throws BusException;
+
+    /**
+     * Joins the multipoint session {@code host} binds on {@code port} to receive
+     * {@link FileBroadcastInterface} chunks.
+     *
+     * @return false when the session cannot be joined
+     */
+    @BusMethod
+    boolean joinBroadcast(String host, short port) throws BusException;
+
+    /**
+     * @return the last {@link FileBroadcastInterface#broadcastFlush} received for the transfer, 0 before the first
+     */
+    @BusMethod
+    int broadcastFlushed(String transferId) throws BusException;
+}
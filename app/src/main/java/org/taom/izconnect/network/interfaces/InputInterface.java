@@ -0,0 +1,56 @@
+package org.taom.izconnect.network.interfaces;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusMethod;
+
+/**
+ * One-way input: the sender does not wait for a reply, so input is not held back by the round trip.
+ * Every call carries a sequence number, counted by the receiver to report delivery in {@link #getInputStats()}.
+ */
+public interface InputInterface {
+
+    /**
+     * Same as {@link PCInterface#mouseMoveBatch(int[])}.
+     */
+    @BusMethod(annotation = BusMethod.ANNOTATE_NO_REPLY)
+    void inputMouseMove(int sequence, int[] deltas) throws BusException;
+
+    /**
+     * @param command one of the {@link org.taom.izconnect.network.input.InputCommand} constants
+     * @param arg     key code for {@code KEY_PRESSED}, unused otherwise
+     */
+    @BusMethod(annotation = BusMethod.ANNOTATE_NO_REPLY)
+    void inputCommand(int sequence, int command, int arg) throws BusException;
+
+    /**
+     * Same as {@link PCInterface#keyEvents(int[])}. Only sent when {@link #getInputStats()} has the
+     * {@link org.taom.izconnect.network.input.DeliveryTracker#KEYS} feature: a PC without this method would
+     * drop the call without a reply.
+     */
+    @BusMethod(annotation = BusMethod.ANNOTATE_NO_REPLY)
+    void inputKeyEvents(int sequence, int[] events) throws BusException;
+
+    /**
+     * Same as {@link PCInterface#typeText(String)}, sent like {@link #inputKeyEvents(int, int[])}.
+     */
+    @BusMethod(annotation = BusMethod.ANNOTATE_NO_REPLY)
+    void inputText(int sequence, String text) throws BusException;
+
+    /**
+     * Also tells the sender that one-way input is supported.
+     *
+     * @return see {@link org.taom.izconnect.network.input.DeliveryTracker#getStats()}
+     */
+    @BusMethod
+    int[] getInputStats() throws BusException;
+
+    /**
+     * Opens the datagram input channel, see {@link org.taom.izconnect.network.input.InputDatagramReceiver}.
+     * While it is open, {@link #getInputStats()} counts the records received on it.
+     *
+     * @param token chosen by the sender, carried by every datagram of the channel
+     * @return "host:port" endpoints of the channel, empty when there is none
+     */
+    @BusMethod
+    String[] openInputChannel(int token) throws BusException;
+}
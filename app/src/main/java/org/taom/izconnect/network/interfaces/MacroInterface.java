@@ -0,0 +1,29 @@
+package org.taom.izconnect.network.interfaces;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusMethod;
+
+/**
+ * Command sequences stored on the device and run there, so a multi-step action costs one call and its
+ * delays are timed by the device. See {@link org.taom.izconnect.network.macro.MacroRunner}.
+ */
+public interface MacroInterface {
+
+    /**
+     * Stores a macro under its name, replacing the one stored before.
+     *
+     * @param macro encoded with {@link org.taom.izconnect.network.macro.Macro#toBytes()}
+     * @return checksum of the stored macro
+     */
+    @BusMethod
+    String storeMacro(byte[] macro) throws BusException;
+
+    /**
+     * Queues the stored macro and returns without waiting for it to run.
+     *
+     * @param checksum of the macro the caller means, see {@link org.taom.izconnect.network.macro.Macro#getChecksum()}
+     * @return false when no macro of that name and checksum is stored, the caller then stores it again
+     */
+    @BusMethod
+    boolean runMacro(String name, String checksum) throws BusException;
+}
@@ -5,7 +5,7 @@ import org.alljoyn.bus.annotation.BusInterface;
 import org.alljoyn.bus.annotation.BusMethod;
 
 @BusInterface(name = MobileInterface.INTERFACE_NAME, announced = "true")
-public interface MobileInterface extends DeviceInfoInterface {
+public interface MobileInterface extends DeviceInfoInterface, FileTransferInterface, ScriptExecutionInterface {
 
     String INTERFACE_NAME = "org.taom.izconnect.network.MobileInterface";
 
@@ -18,9 +18,6 @@ public interface MobileInterface extends DeviceInfoInterface {
     @BusMethod
     void unsubscribe(String busName) throws BusException;
 
-    @BusMethod
-    void fileData(String filename, byte[] data, boolean isScript) throws BusException;
-
     @BusMethod
     void runScript(String scriptName) throws BusException;
 
@@ -6,7 +6,8 @@ import org.alljoyn.bus.annotation.BusMethod;
 import org.alljoyn.bus.annotation.BusProperty;
 
 @BusInterface(name = PCInterface.INTERFACE_NAME, announced = "true")
-public interface PCInterface extends DeviceInfoInterface {
+public interface PCInterface extends DeviceInfoInterface, FileTransferInterface, ScriptExecutionInterface, InputInterface,
+        MacroInterface {
 
     String INTERFACE_NAME = "org.taom.izconnect.network.PCInterface";
 
@@ -40,15 +41,58 @@ public interface PCInterface extends DeviceInfoInterface {
     @BusMethod
     void mouseMove(int x, int y) throws BusException;
 
+    /**
+     * Moves the mouse by each delta in turn, spread over one display frame of the sender.
+     *
+     * @param deltas consecutive x and y deltas of the sub-frame samples
+     */
+    @BusMethod
+    void mouseMoveBatch(int[] deltas) throws BusException;
+
     @BusMethod
     void mouseLeftClick() throws BusException;
 
     @BusMethod
     void mouseRightClick() throws BusException;
 
+    /**
+     * Presses or releases a mouse button. A pressed button stays down for dragging until it is released.
+     *
+     * @param button {@link org.taom.izconnect.network.input.Gesture#BUTTON_LEFT} or
+     *               {@link org.taom.izconnect.network.input.Gesture#BUTTON_RIGHT}
+     */
+    @BusMethod
+    void mouseButton(int button, boolean pressed) throws BusException;
+
+    /**
+     * Scrolls by a two-finger movement, in touchpad pixels. The PC turns them into wheel steps.
+     */
+    @BusMethod
+    void scroll(int dx, int dy) throws BusException;
+
+    /**
+     * @param factor how much the fingers of a pinch spread apart, above 1 zooms in
+     */
+    @BusMethod
+    void zoom(double factor) throws BusException;
+
     @BusMethod
     void keyPressed(int code) throws BusException;
 
+    /**
+     * Presses and releases keys in order. The modifiers of each event are held down around its key.
+     *
+     * @param events packed with {@link org.taom.izconnect.network.input.KeyEvents}
+     */
+    @BusMethod
+    void keyEvents(int[] events) throws BusException;
+
+    /**
+     * Types {@code text} as is, whatever the keyboard layout or caps lock state of the PC.
+     */
+    @BusMethod
+    void typeText(String text) throws BusException;
+
     @BusMethod
     void slideshowStart() throws BusException;
 
@@ -61,9 +105,6 @@ public interface PCInterface extends DeviceInfoInterface {
     @BusMethod
     void previousSlide() throws BusException;
 
-    @BusMethod
-    void fileData(String filename, byte[] data, boolean isScript) throws BusException;
-
     @BusMethod
     void runScript(String scriptName) throws BusException;
 
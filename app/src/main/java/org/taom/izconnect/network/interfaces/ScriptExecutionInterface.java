@@ -0,0 +1,33 @@
+package org.taom.izconnect.network.interfaces;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusMethod;
+
+/**
+ * Runs scripts in the background and streams their output to the caller through
+ * {@link ScriptOutputInterface} signals.
+ */
+public interface ScriptExecutionInterface {
+
+    /**
+     * Queues the script. Its output comes back as {@link ScriptOutputInterface#scriptOutput} signals,
+     * each of which must be acknowledged, ending with {@link ScriptOutputInterface#scriptFinished}.
+     *
+     * @return id of the run, used by the signals
+     */
+    @BusMethod
+    String startScript(String scriptName) throws BusException;
+
+    /**
+     * Gives back the credit of one output batch. The script's output is held back while too many batches
+     * are unacknowledged.
+     */
+    @BusMethod(annotation = BusMethod.ANNOTATE_NO_REPLY)
+    void ackScriptOutput(String runId, int sequence) throws BusException;
+
+    /**
+     * @return false when the run already finished
+     */
+    @BusMethod
+    boolean cancelScript(String runId) throws BusException;
+}
@@ -0,0 +1,29 @@
+package org.taom.izconnect.network.interfaces;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * Output of a script started with {@link ScriptExecutionInterface#startScript}, sent to the device
+ * that started it.
+ */
+@BusInterface(name = ScriptOutputInterface.INTERFACE_NAME)
+public interface ScriptOutputInterface {
+
+    String INTERFACE_NAME = "org.taom.izconnect.network.ScriptOutputInterface";
+
+    /**
+     * A batch of lines from the script's standard output, or its standard error when {@code isError}.
+     * Sequence numbers count the batches of both streams together.
+     */
+    @BusSignal
+    void scriptOutput(String runId, int sequence, boolean isError, String[] lines) throws BusException;
+
+    /**
+     * @param exitCode       exit code of the script, negative when it could not be run or was cancelled
+     * @param droppedLines   lines not delivered because the receiver did not acknowledge them in time
+     */
+    @BusSignal
+    void scriptFinished(String runId, int exitCode, long durationMillis, int droppedLines) throws BusException;
+}
@@ -0,0 +1,403 @@
+package org.taom.izconnect.network.macro;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.input.Gesture;
+import org.taom.izconnect.network.input.InputCommand;
+import org.taom.izconnect.network.interfaces.BoardInterface;
+import org.taom.izconnect.network.interfaces.PCInterface;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named sequence of commands with optional delays between them, stored on a PC or board with
+ * {@link org.taom.izconnect.network.interfaces.MacroInterface#storeMacro(byte[])} and run there in one call.
+ * <p>
+ * Steps are appended with the builder methods and encoded with {@link #toBytes()}; the checksum of the
+ * encoding tells whether the copy stored on a device is the same macro.
+ */
+public class Macro {
+    private static final int VERSION = 1;
+    private static final byte OP_COMMAND = 1;
+    private static final byte OP_GESTURE = 2;
+    private static final byte OP_KEY_EVENTS = 3;
+    private static final byte OP_TEXT = 4;
+    private static final byte OP_VOLUME = 5;
+    private static final byte OP_LIGHT = 6;
+    private static final byte OP_AUTO_MODE = 7;
+    private static final byte OP_SCRIPT = 8;
+    private static final byte OP_DELAY = 9;
+    /** Longest single delay, so a corrupt macro cannot park the runner for days */
+    public static final int MAX_DELAY_MILLIS = 60000;
+
+    private final String name;
+    private final ByteArrayOutputStream steps = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(steps);
+    private final List<Integer> offsets = new ArrayList<>();
+    private int stepCount;
+    private long delayMillis;
+    private byte[] encoded;
+    private String checksum;
+
+    public Macro(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * @return sum of the delays, the least time the macro takes to run
+     */
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * @param command one of the {@link InputCommand} constants, PCs only
+     */
+    public Macro command(int command, int arg) {
+        try {
+            begin(OP_COMMAND);
+            out.writeInt(command);
+            out.writeInt(arg);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    /**
+     * @param type one of the {@link Gesture} types, PCs only
+     */
+    public Macro gesture(int type, int x, int y) {
+        try {
+            begin(OP_GESTURE);
+            out.writeInt(type);
+            out.writeInt(x);
+            out.writeInt(y);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Key chords and sequences, see {@link PCInterface#keyEvents(int[])}. PCs only.
+     */
+    public Macro keyEvents(int... events) {
+        try {
+            begin(OP_KEY_EVENTS);
+            out.writeInt(events.length);
+            for (int event : events) {
+                out.writeInt(event);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    /**
+     * PCs only.
+     */
+    public Macro typeText(String text) {
+        return string(OP_TEXT, text);
+    }
+
+    /**
+     * PCs only.
+     */
+    public Macro volume(int level) {
+        try {
+            begin(OP_VOLUME);
+            out.writeInt(level);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Boards only.
+     */
+    public Macro light(boolean turnOn) {
+        return flag(OP_LIGHT, turnOn);
+    }
+
+    /**
+     * Boards only.
+     */
+    public Macro autoMode(boolean autoMode) {
+        return flag(OP_AUTO_MODE, autoMode);
+    }
+
+    public Macro runScript(String scriptName) {
+        return string(OP_SCRIPT, scriptName);
+    }
+
+    /**
+     * Waits before the next step, timed by the device that runs the macro.
+     */
+    public Macro delay(int millis) {
+        if (millis < 0 || millis > MAX_DELAY_MILLIS) {
+            throw new IllegalArgumentException("Delay of " + millis + " ms");
+        }
+        try {
+            begin(OP_DELAY);
+            out.writeInt(millis);
+            delayMillis += millis;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    public synchronized byte[] toBytes() {
+        if (encoded == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream header = new DataOutputStream(bytes)) {
+                header.writeInt(VERSION);
+                header.writeUTF(name);
+                header.writeInt(stepCount);
+                steps.writeTo(header);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            encoded = bytes.toByteArray();
+        }
+        return encoded;
+    }
+
+    /**
+     * @return hex digest of {@link #toBytes()}
+     */
+    public synchronized String getChecksum() {
+        if (checksum == null) {
+            checksum = checksum(toBytes());
+        }
+        return checksum;
+    }
+
+    /**
+     * Checks the encoding of a macro received from another device. Unknown instructions and delays out of
+     * range are rejected here rather than when the macro runs.
+     */
+    public static Macro fromBytes(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported macro version");
+        }
+        Macro macro = new Macro(in.readUTF());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte op = in.readByte();
+            switch (op) {
+                case OP_COMMAND:
+                    macro.command(in.readInt(), in.readInt());
+                    break;
+                case OP_GESTURE:
+                    macro.gesture(in.readInt(), in.readInt(), in.readInt());
+                    break;
+                case OP_KEY_EVENTS:
+                    int length = in.readInt();
+                    if (length < 0 || length > data.length / 4) {
+                        throw new IOException("Invalid key event count " + length);
+                    }
+                    int[] events = new int[length];
+                    for (int j = 0; j < length; j++) {
+                        events[j] = in.readInt();
+                    }
+                    macro.keyEvents(events);
+                    break;
+                case OP_TEXT:
+                    macro.typeText(in.readUTF());
+                    break;
+                case OP_VOLUME:
+                    macro.volume(in.readInt());
+                    break;
+                case OP_LIGHT:
+                    macro.light(in.readBoolean());
+                    break;
+                case OP_AUTO_MODE:
+                    macro.autoMode(in.readBoolean());
+                    break;
+                case OP_SCRIPT:
+                    macro.runScript(in.readUTF());
+                    break;
+                case OP_DELAY:
+                    int millis = in.readInt();
+                    if (millis < 0 || millis > MAX_DELAY_MILLIS) {
+                        throw new IOException("Invalid delay " + millis);
+                    }
+                    macro.delay(millis);
+                    break;
+                default:
+                    throw new IOException("Unknown macro instruction " + op);
+            }
+        }
+        if (in.available() > 0) {
+            throw new IOException("Trailing data after " + count + " steps");
+        }
+        macro.encoded = data;
+        return macro;
+    }
+
+    /**
+     * Runs the steps in order on {@code target}, sleeping through the delays. Stops at the first step
+     * that fails or that the target does not support.
+     *
+     * @param target a {@link PCInterface} or {@link BoardInterface}, local or a proxy
+     */
+    public void play(Object target) throws BusException, InterruptedException {
+        int step = playSteps(target, 0);
+        while (step < stepCount) {
+            Thread.sleep(getDelay(step));
+            step = playSteps(target, step + 1);
+        }
+    }
+
+    /**
+     * Runs the steps from {@code first} on up to the next delay, so a caller that must not sleep can time
+     * the delays itself.
+     *
+     * @return index of the delay step that stopped it, {@link #getStepCount()} after the last step
+     */
+    public int playSteps(Object target, int first) throws BusException {
+        if (first >= stepCount) {
+            return stepCount;
+        }
+        DataInputStream in = stepsFrom(first);
+        try {
+            for (int i = first; i < stepCount; i++) {
+                byte op = in.readByte();
+                switch (op) {
+                    case OP_COMMAND:
+                        InputCommand.dispatch(pc(target, op), in.readInt(), in.readInt());
+                        break;
+                    case OP_GESTURE:
+                        Gesture.dispatch(pc(target, op), in.readInt(), in.readInt(), in.readInt());
+                        break;
+                    case OP_KEY_EVENTS:
+                        int[] events = new int[in.readInt()];
+                        for (int j = 0; j < events.length; j++) {
+                            events[j] = in.readInt();
+                        }
+                        pc(target, op).keyEvents(events);
+                        break;
+                    case OP_TEXT:
+                        pc(target, op).typeText(in.readUTF());
+                        break;
+                    case OP_VOLUME:
+                        pc(target, op).setVolume(in.readInt());
+                        break;
+                    case OP_LIGHT:
+                        board(target, op).setLight(in.readBoolean());
+                        break;
+                    case OP_AUTO_MODE:
+                        board(target, op).setAutoMode(in.readBoolean());
+                        break;
+                    case OP_SCRIPT:
+                        String scriptName = in.readUTF();
+                        if (target instanceof PCInterface) {
+                            ((PCInterface) target).runScript(scriptName);
+                        } else {
+                            board(target, op).runScript(scriptName);
+                        }
+                        break;
+                    case OP_DELAY:
+                        return i;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return stepCount;
+    }
+
+    /**
+     * @return milliseconds to wait at {@code step}, 0 when it is not a delay
+     */
+    public int getDelay(int step) {
+        DataInputStream in = stepsFrom(step);
+        try {
+            return in.readByte() == OP_DELAY ? in.readInt() : 0;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private DataInputStream stepsFrom(int step) {
+        byte[] data = steps.toByteArray();
+        int offset = offsets.get(step);
+        return new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+    }
+
+    private void begin(byte op) throws IOException {
+        if (encoded != null) {
+            throw new IllegalStateException("Macro " + name + " is already encoded");
+        }
+        offsets.add(steps.size());
+        out.writeByte(op);
+        stepCount++;
+    }
+
+    private Macro string(byte op, String value) {
+        try {
+            begin(op);
+            out.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    private Macro flag(byte op, boolean value) {
+        try {
+            begin(op);
+            out.writeBoolean(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    private PCInterface pc(Object target, byte op) throws BusException {
+        if (!(target instanceof PCInterface)) {
+            throw new BusException("Macro " + name + " step " + op + " needs a PC");
+        }
+        return (PCInterface) target;
+    }
+
+    private BoardInterface board(Object target, byte op) throws BusException {
+        if (!(target instanceof BoardInterface)) {
+            throw new BusException("Macro " + name + " step " + op + " needs a board");
+        }
+        return (BoardInterface) target;
+    }
+
+    private static String checksum(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
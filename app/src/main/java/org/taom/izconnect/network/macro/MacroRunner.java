@@ -0,0 +1,144 @@
+package org.taom.izconnect.network.macro;
+
+import org.alljoyn.bus.BusException;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Receiving side of {@link org.taom.izconnect.network.interfaces.MacroInterface}, shared by the PC and board
+ * implementations. Macros are kept under {@code macros} in the device's folder, so they survive a restart
+ * and the phone only sends them again when they change.
+ * <p>
+ * Macros run one at a time on their own thread against the device's local implementation, so their
+ * delays are timed here and a bus call only queues them.
+ */
+public class MacroRunner {
+    private static final String TAG = "MacroRunner";
+    private static final String MACROS_FOLDER = "macros";
+    private static final String EXTENSION = ".macro";
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    private final File folder;
+    private final Object device;
+    private final Map<String, Macro> macros = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor runner;
+
+    /**
+     * @param device the local {@link org.taom.izconnect.network.interfaces.PCInterface} or
+     *               {@link org.taom.izconnect.network.interfaces.BoardInterface} the steps are run on
+     */
+    public MacroRunner(File root, Object device) {
+        this.folder = new File(root, MACROS_FOLDER);
+        this.device = device;
+        this.runner = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MacroRunner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        load();
+    }
+
+    /**
+     * @return checksum of the stored macro
+     */
+    public String storeMacro(byte[] data) throws IOException {
+        Macro macro = Macro.fromBytes(data);
+        File file = file(macro.getName());
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        File tmp = new File(folder, "." + file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        macros.put(macro.getName(), macro);
+        log(Level.INFO, TAG, "Stored macro", macro.getName(), "with", String.valueOf(macro.getStepCount()), "steps");
+        return macro.getChecksum();
+    }
+
+    /**
+     * @return false when no macro of that name and checksum is stored
+     */
+    public boolean runMacro(String name, String checksum) throws IOException {
+        final Macro macro = macros.get(name);
+        if (macro == null || !macro.getChecksum().equals(checksum)) {
+            return false;
+        }
+        try {
+            runner.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        macro.play(device);
+                    } catch (BusException e) {
+                        log(Level.SEVERE, TAG, "Macro", macro.getName(), "failed:", e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Too many macros queued, not running " + name);
+        }
+        return true;
+    }
+
+    /**
+     * Interrupts the running macro between two steps and drops the queued ones.
+     */
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    private void load() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(EXTENSION) || file.getName().startsWith(".")) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                byte[] data = new byte[(int) file.length()];
+                in.readFully(data);
+                Macro macro = Macro.fromBytes(data);
+                macros.put(macro.getName(), macro);
+            } catch (IOException e) {
+                log(Level.WARNING, TAG, "Ignoring unreadable macro", file.getName() + ":", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Macro names name files on this device, so only plain names are accepted.
+     */
+    private File file(String name) throws IOException {
+        if (name.isEmpty() || !name.matches("[A-Za-z0-9 _-]+")) {
+            throw new IOException("Invalid macro name " + name);
+        }
+        return new File(folder, name + EXTENSION);
+    }
+}
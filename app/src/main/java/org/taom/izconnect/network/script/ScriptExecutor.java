@@ -0,0 +1,283 @@
+package org.taom.izconnect.network.script;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.ScriptOutputInterface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Runs scripts on a bounded pool so bus threads only queue them. At most {@code concurrentScripts}
+ * run at once and {@code queueCapacity} more wait; further scripts are rejected.
+ * <p>
+ * Output lines are sent in batches: a batch ends when it is full or when the script has nothing more
+ * buffered. Every batch takes a credit that the receiver returns with its acknowledgement. Without
+ * credits the reader stops reading, so a script that outputs faster than the receiver can show it blocks
+ * on its pipe. A batch still without credit after {@link #ACK_TIMEOUT_MILLIS} is dropped and counted,
+ * and from then on batches are only sent while credits are left, so a receiver that went away does not
+ * slow the script down.
+ */
+public class ScriptExecutor {
+    private static final String TAG = "ScriptExecutor";
+
+    public static final int DEFAULT_CONCURRENT_SCRIPTS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+    /** Exit code reported for scripts that could not be started or were cancelled before they ran. */
+    public static final int NOT_RUN = -1;
+    private static final int MAX_UNACKED_BATCHES = 8;
+    private static final long ACK_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_BATCH_LINES = 64;
+    /** Keeps a batch well below the AllJoyn maximum message size. */
+    private static final int MAX_BATCH_CHARS = 16 * 1024;
+
+    /**
+     * Starts the platform's process for a script.
+     */
+    public interface Launcher {
+        Process launch(File script) throws IOException;
+    }
+
+    private final Launcher launcher;
+    private final ThreadPoolExecutor runners;
+    private final ExecutorService errorReaders;
+    private final Map<String, ScriptRun> runs = new ConcurrentHashMap<>();
+
+    public ScriptExecutor(Launcher launcher) {
+        this(DEFAULT_CONCURRENT_SCRIPTS, DEFAULT_QUEUE_CAPACITY, launcher);
+    }
+
+    public ScriptExecutor(int concurrentScripts, int queueCapacity, Launcher launcher) {
+        this.launcher = launcher;
+        this.runners = new ThreadPoolExecutor(concurrentScripts, concurrentScripts, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory("ScriptRunner"));
+        this.errorReaders = Executors.newCachedThreadPool(new DaemonThreadFactory("ScriptErrors"));
+    }
+
+    /**
+     * @param output receives the output and the exit code, null to discard them
+     * @return id of the run
+     * @throws RejectedExecutionException when the queue is full
+     */
+    public String submit(File script, ScriptOutputInterface output) {
+        ScriptRun run = new ScriptRun(UUID.randomUUID().toString(), script, output);
+        runs.put(run.id, run);
+        try {
+            run.future = runners.submit(run);
+        } catch (RejectedExecutionException e) {
+            runs.remove(run.id);
+            log(Level.WARNING, TAG, "Rejected", script.getName() + ",", String.valueOf(runners.getQueue().size()),
+                    "scripts queued");
+            throw e;
+        }
+        return run.id;
+    }
+
+    /**
+     * Returns the credit of an output batch. Repeated or unknown sequence numbers return nothing.
+     */
+    public void ack(String runId, int sequence) {
+        ScriptRun run = runs.get(runId);
+        if (run != null && run.unacked.remove(sequence)) {
+            run.credits.release();
+        }
+    }
+
+    /**
+     * Removes a queued script or kills a running one.
+     *
+     * @return false when the run is unknown or already finished
+     */
+    public boolean cancel(String runId) {
+        ScriptRun run = runs.get(runId);
+        return run != null && run.cancel();
+    }
+
+    public void shutdown() {
+        for (ScriptRun run : runs.values()) {
+            run.cancel();
+        }
+        runners.shutdownNow();
+        errorReaders.shutdownNow();
+    }
+
+    private class ScriptRun implements Runnable {
+        final String id;
+        final File script;
+        final ScriptOutputInterface output;
+        final Semaphore credits = new Semaphore(MAX_UNACKED_BATCHES);
+        final AtomicInteger sequence = new AtomicInteger();
+        /** Batches sent and holding a credit */
+        final Set<Integer> unacked = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger dropped = new AtomicInteger();
+        final AtomicBoolean started = new AtomicBoolean();
+        volatile boolean stalled;
+        volatile Future<?> future;
+        volatile Process process;
+        volatile boolean cancelled;
+
+        ScriptRun(String id, File script, ScriptOutputInterface output) {
+            this.id = id;
+            this.script = script;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            long start = System.nanoTime();
+            int exitCode = NOT_RUN;
+            try {
+                process = launcher.launch(script);
+                if (cancelled) {
+                    process.destroy();
+                }
+                process.getOutputStream().close();
+                final InputStream errors = process.getErrorStream();
+                Future<?> errorsRead = errorReaders.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        stream(errors, true);
+                    }
+                });
+                stream(process.getInputStream(), false);
+                exitCode = process.waitFor();
+                errorsRead.get();
+            } catch (IOException e) {
+                log(Level.SEVERE, TAG, "Cannot run", script.getName() + ":", e.getMessage());
+                send(true, new String[]{String.valueOf(e.getMessage())});
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            } finally {
+                long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                log(Level.INFO, TAG, script.getName(), "exited with", String.valueOf(exitCode), "after",
+                        durationMillis + " ms");
+                finished(exitCode, durationMillis);
+            }
+        }
+
+        boolean cancel() {
+            cancelled = true;
+            if (started.compareAndSet(false, true)) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                finished(NOT_RUN, 0);
+                return true;
+            }
+            Process running = process;
+            if (running != null) {
+                running.destroy();
+            }
+            return runs.containsKey(id);
+        }
+
+        private void stream(InputStream in, boolean isError) {
+            List<String> batch = new ArrayList<>();
+            int chars = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    batch.add(line);
+                    chars += line.length();
+                    if (batch.size() >= MAX_BATCH_LINES || chars >= MAX_BATCH_CHARS || !reader.ready()) {
+                        send(isError, batch.toArray(new String[batch.size()]));
+                        batch.clear();
+                        chars = 0;
+                    }
+                }
+            } catch (IOException e) {
+                // the pipe closes when the script is killed
+                log(Level.FINE, TAG, "Output of", script.getName(), "closed:", e.getMessage());
+            }
+            if (!batch.isEmpty()) {
+                send(isError, batch.toArray(new String[batch.size()]));
+            }
+        }
+
+        private void send(boolean isError, String[] lines) {
+            if (output == null) {
+                return;
+            }
+            try {
+                if (!(stalled ? credits.tryAcquire() : credits.tryAcquire(ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))) {
+                    stalled = true;
+                    dropped.addAndGet(lines.length);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.addAndGet(lines.length);
+                return;
+            }
+            int batch = sequence.getAndIncrement();
+            unacked.add(batch);
+            try {
+                output.scriptOutput(id, batch, isError, lines);
+            } catch (BusException e) {
+                if (unacked.remove(batch)) {
+                    credits.release();
+                }
+                dropped.addAndGet(lines.length);
+                log(Level.FINE, TAG, "Cannot send output of", script.getName() + ":", e.getMessage());
+            }
+        }
+
+        private void finished(int exitCode, long durationMillis) {
+            runs.remove(id);
+            if (output == null) {
+                return;
+            }
+            try {
+                output.scriptFinished(id, exitCode, durationMillis, dropped.get());
+            } catch (BusException e) {
+                log(Level.WARNING, TAG, "Cannot report end of", script.getName() + ":", e.getMessage());
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Weak and strong checksums of every full block of a receiver's copy of a file, plus the digest
+ * of the whole file so an unchanged file can be detected without sending anything.
+ */
+public class BlockSignatures {
+    private static final int VERSION = 1;
+    static final int DIGEST_LENGTH = 16;
+
+    private final int blockSize;
+    private final byte[] fileDigest;
+    private final int[] weak;
+    private final byte[][] strong;
+    private Map<Integer, int[]> index;
+
+    private BlockSignatures(int blockSize, byte[] fileDigest, int[] weak, byte[][] strong) {
+        this.blockSize = blockSize;
+        this.fileDigest = fileDigest;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public byte[] getFileDigest() {
+        return fileDigest;
+    }
+
+    public int getBlockCount() {
+        return weak.length;
+    }
+
+    /**
+     * @return index of a block with the given checksums, or -1
+     */
+    public int find(int weakChecksum, MessageDigest md5, byte[] data, int offset) {
+        if (index == null) {
+            index = buildIndex();
+        }
+        int[] candidates = index.get(weakChecksum);
+        if (candidates == null) {
+            return -1;
+        }
+        md5.update(data, offset, blockSize);
+        byte[] digest = md5.digest();
+        for (int block : candidates) {
+            if (Arrays.equals(digest, strong[block])) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private Map<Integer, int[]> buildIndex() {
+        Map<Integer, int[]> map = new HashMap<>();
+        for (int i = 0; i < weak.length; i++) {
+            int[] blocks = map.get(weak[i]);
+            if (blocks == null) {
+                blocks = new int[]{i};
+            } else {
+                blocks = Arrays.copyOf(blocks, blocks.length + 1);
+                blocks[blocks.length - 1] = i;
+            }
+            map.put(weak[i], blocks);
+        }
+        return map;
+    }
+
+    public static BlockSignatures compute(File file, int blockSize) throws IOException {
+        MessageDigest fileMd5 = md5();
+        MessageDigest blockMd5 = md5();
+        RollingChecksum checksum = new RollingChecksum(blockSize);
+        int blocks = (int) (file.length() / blockSize);
+        int[] weak = new int[blocks];
+        byte[][] strong = new byte[blocks][];
+        byte[] block = new byte[blockSize];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            for (int i = 0; i < blocks; i++) {
+                in.readFully(block);
+                weak[i] = checksum.reset(block, 0, blockSize);
+                strong[i] = blockMd5.digest(block);
+                fileMd5.update(block);
+            }
+            int read;
+            while ((read = in.read(block)) > 0) {
+                fileMd5.update(block, 0, read);
+            }
+        }
+        return new BlockSignatures(blockSize, fileMd5.digest(), weak, strong);
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + DIGEST_LENGTH + weak.length * (4 + DIGEST_LENGTH));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(VERSION);
+            out.writeInt(blockSize);
+            out.write(fileDigest);
+            out.writeInt(weak.length);
+            for (int i = 0; i < weak.length; i++) {
+                out.writeInt(weak[i]);
+                out.write(strong[i]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static BlockSignatures fromBytes(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported signature version");
+        }
+        int blockSize = in.readInt();
+        if (!DeltaSync.isValidBlockSize(blockSize)) {
+            throw new IOException("Invalid block size " + blockSize);
+        }
+        byte[] fileDigest = new byte[DIGEST_LENGTH];
+        in.readFully(fileDigest);
+        int blocks = in.readInt();
+        if (blocks < 0 || blocks > in.available() / (4 + DIGEST_LENGTH)) {
+            throw new IOException("Invalid block count " + blocks);
+        }
+        int[] weak = new int[blocks];
+        byte[][] strong = new byte[blocks][DIGEST_LENGTH];
+        for (int i = 0; i < blocks; i++) {
+            weak[i] = in.readInt();
+            in.readFully(strong[i]);
+        }
+        return new BlockSignatures(blockSize, fileDigest, weak, strong);
+    }
+
+    static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
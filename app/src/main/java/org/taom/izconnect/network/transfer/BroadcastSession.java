@@ -0,0 +1,74 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.taom.izconnect.network.AbstractNetworkService;
+import org.taom.izconnect.network.interfaces.FileBroadcastInterface;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * This device's multipoint broadcast session: gathers devices into it and emits chunks to them.
+ */
+public class BroadcastSession {
+    private static final String TAG = "BroadcastSession";
+    private static final long JOIN_TIMEOUT_MILLIS = 2000;
+    private static final long JOIN_POLL_MILLIS = 50;
+
+    private final AbstractNetworkService network;
+    private final BusObject source;
+
+    /**
+     * @param source registered bus object implementing {@link FileBroadcastInterface}
+     */
+    public BroadcastSession(AbstractNetworkService network, BusObject source) {
+        this.network = network;
+        this.source = source;
+    }
+
+    /**
+     * Asks every device to join and waits until they show up as members.
+     *
+     * @param devices keyed by unique bus name
+     * @return the devices that joined; the others have to be sent to one by one
+     */
+    public Map<String, FileTransferInterface> join(Map<String, FileTransferInterface> devices)
+            throws InterruptedException {
+        Map<String, FileTransferInterface> joining = new LinkedHashMap<>();
+        for (Map.Entry<String, FileTransferInterface> device : devices.entrySet()) {
+            if (network.getBroadcastMembers().contains(device.getKey())) {
+                joining.put(device.getKey(), device.getValue());
+                continue;
+            }
+            try {
+                if (device.getValue().joinBroadcast(network.getBusName(), network.getBroadcastPort())) {
+                    joining.put(device.getKey(), device.getValue());
+                }
+            } catch (BusException e) {
+                log(Level.INFO, TAG, device.getKey(), "cannot join broadcasts:", e.getMessage());
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + JOIN_TIMEOUT_MILLIS;
+        while (!network.getBroadcastMembers().containsAll(joining.keySet())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(JOIN_POLL_MILLIS);
+        }
+        Set<String> members = network.getBroadcastMembers();
+        joining.keySet().retainAll(members);
+        return joining;
+    }
+
+    /**
+     * @return null while nobody has joined
+     */
+    public FileBroadcastInterface getEmitter() {
+        return network.getBroadcastEmitter(source);
+    }
+}
@@ -0,0 +1,218 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.ErrorReplyBusException;
+import org.taom.izconnect.network.interfaces.FileBroadcastInterface;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Sends every chunk once to all members of a broadcast session. The transfer is opened on each
+ * member, and the ranges any member still needs are sent. When the chunks are closed, the
+ * ranges members report missing are their NACKs: they are broadcast again while at least two
+ * members miss something. A lone member that misses chunks is dropped, to be repaired with a
+ * unicast {@link TransferSink}, so the others are not held back.
+ * <p>
+ * Chunks travel on the broadcast session and the calls to members on their own sessions, so a member
+ * could answer before the chunks sent ahead reached it. A flush signal behind the chunks, acknowledged
+ * by every member, orders the pacing polls and the closes after them.
+ */
+public class BroadcastSink implements ChunkSink {
+    private static final String TAG = "BroadcastSink";
+    /** Members are polled after this many chunks so signals cannot pile up in the bus. */
+    private static final int PACING_CHUNKS = 16;
+    /** Members that do not acknowledge a flush by then are closed anyway and may report chunks on the way. */
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+    private static final long FLUSH_POLL_MILLIS = 10;
+
+    private final FileBroadcastInterface emitter;
+    private final Map<String, FileTransferInterface> members;
+    private final Map<String, FileTransferInterface> dropped = new LinkedHashMap<>();
+    private final Set<String> completed = new HashSet<>();
+    private final Set<String> unverified = new HashSet<>();
+    private final Set<String> unordered = new HashSet<>();
+    private final String transferId;
+    private final String filename;
+    private final boolean isScript;
+    private final String proposedCodec;
+    private ChunkCodec codec;
+    private int unpaced;
+    private int flush;
+
+    public BroadcastSink(FileBroadcastInterface emitter, Map<String, FileTransferInterface> members, File file,
+                         boolean isScript, String codec) {
+        this.emitter = emitter;
+        this.members = new LinkedHashMap<>(members);
+        this.transferId = TransferSink.transferId(file);
+        this.filename = file.getName();
+        this.isScript = isScript;
+        this.proposedCodec = codec;
+    }
+
+    @Override
+    public long[] open(long length) throws BusException {
+        RangeSet needed = new RangeSet();
+        boolean allAccepted = true;
+        for (Map.Entry<String, FileTransferInterface> member : new HashMap<>(members).entrySet()) {
+            try {
+                FileTransferInterface remote = member.getValue();
+                String accepted = remote.openTransfer(transferId, filename, length, isScript, proposedCodec);
+                allAccepted &= proposedCodec.equals(accepted);
+                long[] missing = remote.missingRanges(transferId);
+                for (int i = 0; i + 1 < missing.length; i += 2) {
+                    needed.add(missing[i], missing[i + 1]);
+                }
+            } catch (BusException e) {
+                drop(member.getKey(), e.getMessage());
+            }
+        }
+        checkMembers();
+        // every member decodes, or nobody gets encoded chunks
+        codec = allAccepted ? ChunkCodecs.get(proposedCodec) : null;
+        return needed.toArray();
+    }
+
+    @Override
+    public void write(long offset, byte[] chunk) throws BusException {
+        byte[] encoded = codec == null ? null : codec.encode(chunk);
+        emitter.broadcastChunk(transferId, offset, chunk.length, encoded != null ? encoded : chunk);
+        if (++unpaced >= PACING_CHUNKS) {
+            unpaced = 0;
+            pace();
+        }
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return false;
+    }
+
+    @Override
+    public long[] close(byte[] segmentDigests) throws BusException {
+        flush();
+        Map<String, long[]> nacks = new HashMap<>();
+        for (Map.Entry<String, FileTransferInterface> member : new HashMap<>(members).entrySet()) {
+            if (completed.contains(member.getKey())) {
+                continue;
+            }
+            try {
+                long[] missing = close(member.getKey(), member.getValue(), segmentDigests);
+                if (missing.length == 0) {
+                    completed.add(member.getKey());
+                } else {
+                    nacks.put(member.getKey(), missing);
+                }
+            } catch (BusException e) {
+                drop(member.getKey(), e.getMessage());
+            }
+        }
+
+        if (nacks.size() == 1) {
+            String member = nacks.keySet().iterator().next();
+            drop(member, "missing " + RangeSet.size(nacks.get(member)) + " bytes");
+            return new long[0];
+        }
+        RangeSet repair = new RangeSet();
+        for (long[] missing : nacks.values()) {
+            for (int i = 0; i + 1 < missing.length; i += 2) {
+                repair.add(missing[i], missing[i + 1]);
+            }
+        }
+        if (!nacks.isEmpty()) {
+            log(Level.INFO, TAG, String.valueOf(nacks.size()), "members miss", String.valueOf(RangeSet.size(repair.toArray())),
+                    "bytes of", filename + ", broadcasting them again");
+        }
+        return repair.toArray();
+    }
+
+    /**
+     * @return members that did not complete the file through the broadcast
+     */
+    public Map<String, FileTransferInterface> getIncomplete() {
+        Map<String, FileTransferInterface> incomplete = new LinkedHashMap<>(dropped);
+        for (Map.Entry<String, FileTransferInterface> member : members.entrySet()) {
+            if (!completed.contains(member.getKey())) {
+                incomplete.put(member.getKey(), member.getValue());
+            }
+        }
+        return incomplete;
+    }
+
+    private long[] close(String member, FileTransferInterface remote, byte[] segmentDigests) throws BusException {
+        if (!unverified.contains(member)) {
+            try {
+                return remote.commitTransfer(transferId, segmentDigests);
+            } catch (ErrorReplyBusException e) {
+                unverified.add(member);
+            }
+        }
+        return remote.closeTransfer(transferId);
+    }
+
+    private void pace() throws BusException {
+        flush();
+        checkMembers();
+    }
+
+    /**
+     * Sends a flush behind the chunks and waits until every member has it. Members without flushes are
+     * polled for their missing ranges instead, which paces them but does not order anything.
+     */
+    private void flush() throws BusException {
+        if (members.isEmpty()) {
+            return;
+        }
+        emitter.broadcastFlush(transferId, ++flush);
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        for (Map.Entry<String, FileTransferInterface> member : new HashMap<>(members).entrySet()) {
+            try {
+                if (unordered.contains(member.getKey())) {
+                    member.getValue().missingRanges(transferId);
+                } else {
+                    awaitFlush(member.getKey(), member.getValue(), deadline);
+                }
+            } catch (BusException e) {
+                drop(member.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void awaitFlush(String member, FileTransferInterface remote, long deadline) throws BusException {
+        try {
+            while (remote.broadcastFlushed(transferId) < flush) {
+                if (System.currentTimeMillis() >= deadline) {
+                    log(Level.INFO, TAG, member, "did not acknowledge flush", String.valueOf(flush), "of", filename);
+                    return;
+                }
+                Thread.sleep(FLUSH_POLL_MILLIS);
+            }
+        } catch (ErrorReplyBusException e) {
+            // an older member, or one that lost the transfer and fails the poll too
+            unordered.add(member);
+            remote.missingRanges(transferId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusException("Interrupted while flushing " + filename);
+        }
+    }
+
+    private void drop(String member, String reason) {
+        log(Level.INFO, TAG, "Dropping", member, "from broadcast of", filename + ":", reason);
+        dropped.put(member, members.remove(member));
+    }
+
+    private void checkMembers() throws BusException {
+        if (members.isEmpty()) {
+            throw new BusException("No broadcast members left for " + filename);
+        }
+    }
+}
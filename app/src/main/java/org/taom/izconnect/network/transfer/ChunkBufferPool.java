@@ -0,0 +1,93 @@
+package org.taom.izconnect.network.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded set of heap buffers reused for every chunk of every transfer.
+ * Heap buffers are used because the bus marshals {@code byte[]}, see {@link ByteBuffer#array()}.
+ * <p>
+ * Buffers are handed out with the exact size asked for, so a chunk fills its array and is sent
+ * without a copy. Free buffers are kept per size; when the chunk size changes, buffers of the
+ * sizes no longer asked for are dropped to make room.
+ */
+public class ChunkBufferPool {
+    private final int chunkSize;
+    private final int capacity;
+    private final Map<Integer, Deque<ByteBuffer>> free = new LinkedHashMap<>();
+    private int freeCount;
+    private int outstanding;
+
+    public ChunkBufferPool(int chunkSize, int capacity) {
+        this.chunkSize = chunkSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the largest buffer size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public ByteBuffer acquire() throws InterruptedException {
+        return acquire(chunkSize);
+    }
+
+    /**
+     * Blocks while {@code capacity} buffers are in use.
+     */
+    public synchronized ByteBuffer acquire(int size) throws InterruptedException {
+        if (size <= 0 || size > chunkSize) {
+            throw new IllegalArgumentException("Buffer size " + size + " outside 1.." + chunkSize);
+        }
+        while (outstanding >= capacity) {
+            wait();
+        }
+        outstanding++;
+
+        Deque<ByteBuffer> buffers = free.get(size);
+        ByteBuffer buffer = buffers == null ? null : buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(size);
+        }
+        freeCount--;
+        buffer.clear();
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        outstanding--;
+        notifyAll();
+
+        Deque<ByteBuffer> buffers = free.get(buffer.capacity());
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+        } else {
+            free.remove(buffer.capacity());
+        }
+        // most recently released size last, so the stalest sizes are trimmed first
+        free.put(buffer.capacity(), buffers);
+        buffers.push(buffer);
+        freeCount++;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Deque<ByteBuffer>> sizes = free.values().iterator();
+        while (freeCount + outstanding > capacity && sizes.hasNext()) {
+            Deque<ByteBuffer> buffers = sizes.next();
+            while (freeCount + outstanding > capacity && !buffers.isEmpty()) {
+                buffers.pop();
+                freeCount--;
+            }
+            if (buffers.isEmpty()) {
+                sizes.remove();
+            }
+        }
+    }
+}
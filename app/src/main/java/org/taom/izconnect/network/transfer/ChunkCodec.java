@@ -0,0 +1,21 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.IOException;
+
+/**
+ * Encoding applied to the chunks of a transfer on the wire. Chunks are encoded independently so they
+ * can still be sent out of order and resent on their own. Implementations must be thread safe.
+ */
+public interface ChunkCodec {
+    String getName();
+
+    /**
+     * @return the encoded chunk, or null when encoding does not make it smaller and it should be sent as is
+     */
+    byte[] encode(byte[] chunk);
+
+    /**
+     * Decodes into {@code out}, whose length is the length of the original chunk.
+     */
+    void decode(byte[] data, byte[] out) throws IOException;
+}
@@ -0,0 +1,63 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the codecs a transfer can negotiate, and the sampling that picks one for a file.
+ */
+public class ChunkCodecs {
+    public static final String IDENTITY = "identity";
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    /** Compression has to save at least this share of the sample to be used. */
+    private static final double MIN_SAVING = 0.1;
+
+    private static final Map<String, ChunkCodec> codecs = new ConcurrentHashMap<>();
+
+    static {
+        register(new DeflateCodec());
+    }
+
+    private ChunkCodecs() {
+    }
+
+    public static void register(ChunkCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * @return the codec, or null for {@link #IDENTITY} and unknown names
+     */
+    public static ChunkCodec get(String name) {
+        return name == null ? null : codecs.get(name);
+    }
+
+    /**
+     * Compresses the start of the file and returns the codec to propose, or {@link #IDENTITY}
+     * when the content is already compressed.
+     */
+    public static String select(File file, String preferred) throws IOException {
+        ChunkCodec codec = get(preferred);
+        if (codec == null) {
+            return IDENTITY;
+        }
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, file.length()));
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileTransferEngine.fill(in.getChannel(), sample);
+        }
+        if (sample.position() == 0) {
+            return IDENTITY;
+        }
+        byte[] encoded = codec.encode(Arrays.copyOf(sample.array(), sample.position()));
+        if (encoded == null || encoded.length > sample.position() * (1 - MIN_SAVING)) {
+            return IDENTITY;
+        }
+        return preferred;
+    }
+}
@@ -0,0 +1,268 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Receiving side of {@link org.taom.izconnect.network.interfaces.FileTransferInterface}, shared by every
+ * device implementation. Sequential {@code fileData} chunks are appended to a hidden temporary file next
+ * to the target. Transfers are written at their offsets into a preallocated partial file under
+ * {@code .transfers}, tracked by a {@link TransferManifest}. Either way the file is moved into place
+ * only when complete. Encoded chunks are decoded with the codec negotiated when the transfer was opened.
+ * <p>
+ * Disk writes happen on a {@link ChunkWriter} thread, so a chunk call returns once the chunk is queued.
+ */
+public class ChunkReceiver {
+    private static final String TAG = "ChunkReceiver";
+    private static final String TRANSFERS_FOLDER = ".transfers";
+    private static final byte[] NO_SIGNATURE = new byte[0];
+
+    private final File root;
+    private final File transfersFolder;
+    private final Map<String, IncomingFile> incomingFiles = new ConcurrentHashMap<>();
+    private final Map<String, IncomingTransfer> transfers = new ConcurrentHashMap<>();
+    private final ChunkWriter writer = new ChunkWriter();
+
+    public ChunkReceiver(File root) {
+        this.root = root;
+        this.transfersFolder = new File(root, TRANSFERS_FOLDER);
+    }
+
+    public void fileData(String filename, byte[] data, boolean isScript) throws IOException {
+        checkFilename(filename);
+        if (data.length == 0) {
+            IncomingFile incoming = incomingFiles.remove(filename);
+            if (incoming != null) {
+                incoming.complete(new File(folder(isScript), filename));
+            }
+        } else {
+            IncomingFile incoming = open(filename, isScript);
+            try {
+                writer.write(incoming, incoming.appendPosition, data);
+            } catch (IOException e) {
+                // the sender starts the file over, so the next chunk opens a new one
+                incomingFiles.remove(filename);
+                try {
+                    incoming.discard();
+                } catch (IOException discardError) {
+                    log(Level.WARNING, TAG, "Cannot discard", filename + ":", discardError.getMessage());
+                }
+                throw e;
+            }
+            incoming.appendPosition += data.length;
+        }
+    }
+
+    /**
+     * Stops the writer thread. Chunks still queued are dropped and their transfers resume later.
+     */
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    /**
+     * @return the accepted codec, {@link ChunkCodecs#IDENTITY} when the proposed one is unknown
+     */
+    public String openTransfer(String transferId, String filename, long length, boolean isScript, String codecName)
+            throws IOException {
+        checkTransferId(transferId);
+        checkFilename(filename);
+        ChunkCodec codec = ChunkCodecs.get(codecName);
+        synchronized (transfers) {
+            IncomingTransfer transfer = transfers.get(transferId);
+            if (transfer != null) {
+                if (transfer.manifest.matches(filename, length, isScript)) {
+                    transfer.reopen();
+                    transfer.codec = codec;
+                    // a new broadcast counts its flushes from the start
+                    transfer.flushed = 0;
+                    return codec == null ? ChunkCodecs.IDENTITY : codec.getName();
+                }
+                transfers.remove(transferId);
+                transfer.awaitWritten();
+                transfer.close();
+            }
+
+            if (!transfersFolder.exists()) {
+                transfersFolder.mkdirs();
+            }
+            File partFile = new File(transfersFolder, transferId + ".part");
+            File manifestFile = new File(transfersFolder, transferId + ".manifest");
+            TransferManifest manifest = TransferManifest.load(transferId, manifestFile);
+            if (manifest == null || !manifest.matches(filename, length, isScript) || !partFile.exists()) {
+                manifest = new TransferManifest(transferId, filename, length, isScript);
+                partFile.delete();
+            }
+            transfer = new IncomingTransfer(manifest, partFile, manifestFile);
+            transfer.preallocate(length);
+            transfer.codec = codec;
+            transfers.put(transferId, transfer);
+        }
+        return codec == null ? ChunkCodecs.IDENTITY : codec.getName();
+    }
+
+    public long[] missingRanges(String transferId) throws IOException {
+        return get(transferId).manifest.getMissing();
+    }
+
+    public long transferChunk(String transferId, long offset, int length, byte[] data) throws IOException {
+        IncomingTransfer transfer = get(transferId);
+        if (offset < 0 || offset + length > transfer.manifest.getLength()) {
+            throw new IOException("Chunk " + offset + "+" + length + " does not fit transfer " + transferId);
+        }
+        if (data.length != length) {
+            ChunkCodec codec = transfer.codec;
+            if (codec == null || data.length > length) {
+                throw new IOException("Chunk " + offset + " has " + data.length + " bytes instead of " + length);
+            }
+            byte[] decoded = new byte[length];
+            codec.decode(data, decoded);
+            data = decoded;
+        }
+        writer.write(transfer, offset, data);
+        return offset + length;
+    }
+
+    /**
+     * Marks the broadcast chunks signalled before {@code flush} as received. Like chunks, flushes of
+     * transfers that are not open are ignored.
+     */
+    public void broadcastFlush(String transferId, int flush) {
+        IncomingTransfer transfer = transfers.get(transferId);
+        if (transfer != null && flush > transfer.flushed) {
+            transfer.flushed = flush;
+        }
+    }
+
+    public int broadcastFlushed(String transferId) throws IOException {
+        return get(transferId).flushed;
+    }
+
+    public long[] closeTransfer(String transferId) throws IOException {
+        IncomingTransfer transfer = get(transferId);
+        transfer.awaitWritten();
+        TransferManifest manifest = transfer.manifest;
+        if (!manifest.isComplete()) {
+            transfer.saveManifest();
+            return manifest.getMissing();
+        }
+
+        transfers.remove(transferId);
+        transfer.complete(new File(folder(manifest.isScript()), manifest.getFilename()));
+        return new long[0];
+    }
+
+    /**
+     * Like {@link #closeTransfer(String)}, but checks the file against the sender's segment digests first.
+     *
+     * @return ranges still missing or whose segment does not match
+     */
+    public long[] commitTransfer(String transferId, byte[] segmentDigests) throws IOException {
+        IncomingTransfer transfer = get(transferId);
+        transfer.awaitWritten();
+        TransferManifest manifest = transfer.manifest;
+        if (!manifest.isComplete()) {
+            transfer.saveManifest();
+            return manifest.getMissing();
+        }
+
+        long[] corrupt = transfer.verify(segmentDigests);
+        if (corrupt.length > 0) {
+            log(Level.WARNING, TAG, manifest.getFilename(), "has", String.valueOf(RangeSet.size(corrupt)),
+                    "corrupt bytes, requesting them again");
+            return corrupt;
+        }
+        transfers.remove(transferId);
+        transfer.complete(new File(folder(manifest.isScript()), manifest.getFilename()));
+        return new long[0];
+    }
+
+    public byte[] scriptSignature(String scriptName, int blockSize) throws IOException {
+        File script = scriptFile(scriptName);
+        if (!script.isFile() || !DeltaSync.isValidBlockSize(blockSize)) {
+            return NO_SIGNATURE;
+        }
+        byte[] signature = BlockSignatures.compute(script, blockSize).toBytes();
+        // a copy this far off is cheaper to replace than to describe
+        return signature.length < FileTransferEngine.DEFAULT_CHUNK_SIZE ? signature : NO_SIGNATURE;
+    }
+
+    public boolean applyScriptDelta(String scriptName, byte[] delta) throws IOException {
+        File script = scriptFile(scriptName);
+        if (!script.isFile()) {
+            return false;
+        }
+        File rebuilt = new File(script.getParentFile(), "." + script.getName() + ".delta");
+        if (!Delta.apply(script, delta, rebuilt)) {
+            return false;
+        }
+        if (!rebuilt.renameTo(script)) {
+            rebuilt.delete();
+            throw new IOException("Cannot replace " + script);
+        }
+        return true;
+    }
+
+    private File scriptFile(String scriptName) throws IOException {
+        File script = new File(new File(root, "scripts"), scriptName);
+        if (!script.getParentFile().equals(new File(root, "scripts"))) {
+            throw new IOException("Invalid script name " + scriptName);
+        }
+        return script;
+    }
+
+    private IncomingTransfer get(String transferId) throws IOException {
+        IncomingTransfer transfer = transfers.get(transferId);
+        if (transfer == null) {
+            throw new IOException("Unknown transfer " + transferId);
+        }
+        return transfer;
+    }
+
+    /**
+     * Transfer ids name files on this device, so only plain identifiers are accepted.
+     */
+    private static void checkTransferId(String transferId) throws IOException {
+        if (transferId.isEmpty() || !transferId.matches("[A-Za-z0-9_-]+")) {
+            throw new IOException("Invalid transfer id " + transferId);
+        }
+    }
+
+    /**
+     * Filenames come from the sender and name a file in the received or scripts folder, so they must
+     * not reach outside it.
+     */
+    private static void checkFilename(String filename) throws IOException {
+        if (filename.isEmpty() || filename.equals(".") || filename.contains("..") || filename.contains("/")
+                || filename.contains("\\") || filename.indexOf('\0') >= 0) {
+            throw new IOException("Invalid filename " + filename);
+        }
+    }
+
+    private IncomingFile open(String filename, boolean isScript) throws IOException {
+        IncomingFile incoming = incomingFiles.get(filename);
+        if (incoming == null) {
+            synchronized (incomingFiles) {
+                incoming = incomingFiles.get(filename);
+                if (incoming == null) {
+                    incoming = new IncomingFile(new File(folder(isScript), "." + filename + ".part"), true);
+                    incomingFiles.put(filename, incoming);
+                }
+            }
+        }
+        return incoming;
+    }
+
+    private File folder(boolean isScript) {
+        File folder = new File(root, isScript ? "scripts" : "");
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        return folder;
+    }
+}
@@ -0,0 +1,27 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+
+/**
+ * Destination of the chunks produced by {@link FileTransferEngine}.
+ * The array passed to {@link #write(long, byte[])} is only valid until the call returns.
+ */
+public interface ChunkSink {
+    /**
+     * @return byte ranges the receiver still needs, as consecutive start and end offsets
+     */
+    long[] open(long length) throws BusException;
+
+    void write(long offset, byte[] chunk) throws BusException;
+
+    /**
+     * Whether chunks may be written concurrently and out of order.
+     */
+    boolean isPipelined();
+
+    /**
+     * @param segmentDigests the file's {@link SegmentedDigest}, checked by the receiver before it completes the file
+     * @return ranges still missing or corrupt on the receiver, empty when the file was completed
+     */
+    long[] close(byte[] segmentDigests) throws BusException;
+}
@@ -0,0 +1,79 @@
+package org.taom.izconnect.network.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk size of one link, adapted AIMD style from the round-trip time of every chunk. Chunks
+ * should come back within {@link #MAX_RTT_MILLIS}, so a lost one is cheap to send again and
+ * interactive traffic never waits long behind one. The size grows by {@link #STEP} after a
+ * window of full chunks whose round trip would still fit at the larger size, and is halved when
+ * a chunk takes longer or fails. The size so settles around what the link moves in that time.
+ * After a decrease the chunks already in flight are not counted, they were sent at the old size.
+ * <p>
+ * The size never exceeds {@link FileTransferEngine#DEFAULT_CHUNK_SIZE}, which keeps a chunk
+ * inside one AllJoyn message.
+ */
+public class ChunkSizer {
+    public static final int MIN_CHUNK_SIZE = 8 * 1024;
+    public static final int MAX_CHUNK_SIZE = FileTransferEngine.DEFAULT_CHUNK_SIZE;
+    public static final int INITIAL_CHUNK_SIZE = 32 * 1024;
+    public static final long MAX_RTT_MILLIS = 250;
+    private static final int STEP = 8 * 1024;
+    private static final long MAX_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(MAX_RTT_MILLIS);
+
+    private final int window;
+    private int chunkSize = INITIAL_CHUNK_SIZE;
+    private int good;
+    private int skip;
+    private int increases;
+    private int decreases;
+
+    public ChunkSizer(int window) {
+        this.window = window;
+    }
+
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized void acked(int bytes, long rttNanos) {
+        if (skip > 0) {
+            skip--;
+            return;
+        }
+        if (rttNanos > MAX_RTT_NANOS) {
+            decrease();
+            return;
+        }
+        // only full chunks say anything about the current size
+        if (bytes < chunkSize || chunkSize >= MAX_CHUNK_SIZE) {
+            return;
+        }
+        long predicted = rttNanos * (chunkSize + STEP) / chunkSize;
+        if (predicted > MAX_RTT_NANOS) {
+            good = 0;
+        } else if (++good >= window) {
+            good = 0;
+            chunkSize = Math.min(MAX_CHUNK_SIZE, chunkSize + STEP);
+            increases++;
+        }
+    }
+
+    public synchronized void failed() {
+        decrease();
+    }
+
+    private void decrease() {
+        good = 0;
+        skip = window;
+        if (chunkSize > MIN_CHUNK_SIZE) {
+            chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+            decreases++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return (chunkSize / 1024) + " KB (+" + increases + " -" + decreases + ")";
+    }
+}
@@ -0,0 +1,140 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Writes received chunks on a background thread so bus threads return as soon as a chunk is queued.
+ * The queue is bounded, which pushes back on the sender when the storage cannot keep up. Queued
+ * chunks are batched per file and contiguous ones are written with a single gathering write.
+ * <p>
+ * Chunks are kept by reference until written, which is safe for arrays unmarshalled from the bus.
+ */
+class ChunkWriter implements Runnable {
+    private static final String TAG = "ChunkWriter";
+    private static final int QUEUE_CAPACITY = 32;
+    private static final int MAX_BATCH = 16;
+
+    private static final Comparator<Write> BY_OFFSET = new Comparator<Write>() {
+        @Override
+        public int compare(Write a, Write b) {
+            return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+        }
+    };
+
+    private final BlockingQueue<Write> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+
+    ChunkWriter() {
+        thread = new Thread(this, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void write(IncomingFile target, long offset, byte[] data) throws IOException {
+        target.enqueued();
+        try {
+            queue.put(new Write(target, offset, data));
+        } catch (InterruptedException e) {
+            target.done(1, null);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing chunk");
+        }
+    }
+
+    void shutdown() {
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        List<Write> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            log(Level.INFO, TAG, "Stopped with", String.valueOf(queue.size()), "chunks queued");
+        }
+    }
+
+    private void flush(List<Write> batch) {
+        Map<IncomingFile, List<Write>> byFile = new IdentityHashMap<>();
+        for (Write write : batch) {
+            List<Write> writes = byFile.get(write.target);
+            if (writes == null) {
+                writes = new ArrayList<>();
+                byFile.put(write.target, writes);
+            }
+            writes.add(write);
+        }
+
+        for (Map.Entry<IncomingFile, List<Write>> entry : byFile.entrySet()) {
+            List<Write> writes = entry.getValue();
+            Collections.sort(writes, BY_OFFSET);
+            int runStart = 0;
+            for (int i = 1; i <= writes.size(); i++) {
+                if (i == writes.size() || writes.get(i).offset != writes.get(i - 1).end()) {
+                    writeRun(entry.getKey(), writes.subList(runStart, i));
+                    runStart = i;
+                }
+            }
+        }
+    }
+
+    private void writeRun(IncomingFile target, List<Write> run) {
+        IOException error = null;
+        try {
+            ByteBuffer[] buffers = new ByteBuffer[run.size()];
+            byte[][] chunks = new byte[run.size()][];
+            long remaining = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                chunks[i] = run.get(i).data;
+                buffers[i] = ByteBuffer.wrap(chunks[i]);
+                remaining += chunks[i].length;
+            }
+            long start = run.get(0).offset;
+            target.channel.position(start);
+            while (remaining > 0) {
+                remaining -= target.channel.write(buffers);
+            }
+            target.written(start, run.get(run.size() - 1).end(), chunks);
+        } catch (IOException e) {
+            log(Level.SEVERE, TAG, "Cannot write chunk:", e.getMessage());
+            error = e;
+        } finally {
+            target.done(run.size(), error);
+        }
+    }
+
+    private static class Write {
+        final IncomingFile target;
+        final long offset;
+        final byte[] data;
+
+        Write(IncomingFile target, long offset, byte[] data) {
+            this.target = target;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        long end() {
+            return offset + data.length;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate at the fastest level. Each sending and receiving thread keeps its own
+ * {@link Deflater} or {@link Inflater} and scratch buffer, reset between chunks.
+ */
+public class DeflateCodec implements ChunkCodec {
+    public static final String NAME = "deflate";
+
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+    private final ThreadLocal<byte[]> scratch = new ThreadLocal<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] chunk) {
+        byte[] out = scratch.get();
+        if (out == null || out.length < chunk.length) {
+            out = new byte[chunk.length];
+            scratch.set(out);
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(chunk);
+        deflater.finish();
+        // the output must end strictly before the input length to be worth sending
+        int limit = chunk.length - 1;
+        int length = 0;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(out, length, limit - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    @Override
+    public void decode(byte[] data, byte[] out) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            int length = 0;
+            while (length < out.length && !inflater.finished()) {
+                int inflated = inflater.inflate(out, length, out.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != out.length) {
+                throw new IOException("Chunk inflated to " + length + " bytes instead of " + out.length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate chunk", e);
+        }
+    }
+}
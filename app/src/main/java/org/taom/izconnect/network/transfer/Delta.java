@@ -0,0 +1,181 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Instructions that rebuild the sender's file from blocks of the receiver's copy plus literal data.
+ */
+public class Delta {
+    private static final int VERSION = 1;
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_DATA = 2;
+
+    private Delta() {
+    }
+
+    /**
+     * Encodes {@code data} against the receiver's block signatures.
+     */
+    public static byte[] create(byte[] data, BlockSignatures signatures) {
+        int blockSize = signatures.getBlockSize();
+        MessageDigest md5 = BlockSignatures.md5();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(VERSION);
+            out.writeInt(blockSize);
+            out.writeLong(data.length);
+            out.write(md5.digest(data));
+
+            Encoder encoder = new Encoder(out);
+            RollingChecksum checksum = new RollingChecksum(blockSize);
+            int position = 0;
+            int literalStart = 0;
+            int weak = data.length >= blockSize ? checksum.reset(data, 0, blockSize) : 0;
+            while (signatures.getBlockCount() > 0 && position + blockSize <= data.length) {
+                int block = signatures.find(weak, md5, data, position);
+                if (block >= 0) {
+                    encoder.data(data, literalStart, position - literalStart);
+                    encoder.copy(block);
+                    position += blockSize;
+                    literalStart = position;
+                    if (position + blockSize <= data.length) {
+                        weak = checksum.reset(data, position, blockSize);
+                    }
+                } else {
+                    if (position + blockSize < data.length) {
+                        weak = checksum.roll(data[position], data[position + blockSize]);
+                    }
+                    position++;
+                }
+            }
+            encoder.data(data, literalStart, data.length - literalStart);
+            encoder.end();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rebuilds the file into {@code target} and checks it against the digest carried by the delta.
+     *
+     * @return false when the result does not match, in which case {@code target} is deleted
+     * @throws IOException also for a malformed delta, {@code target} is deleted then too
+     */
+    public static boolean apply(File base, byte[] delta, File target) throws IOException {
+        try {
+            return rebuild(base, delta, target);
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    private static boolean rebuild(File base, byte[] delta, File target) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(delta);
+        DataInputStream in = new DataInputStream(bytes);
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported delta version");
+        }
+        int blockSize = in.readInt();
+        if (!DeltaSync.isValidBlockSize(blockSize)) {
+            throw new IOException("Invalid block size " + blockSize);
+        }
+        long length = in.readLong();
+        byte[] expected = new byte[BlockSignatures.DIGEST_LENGTH];
+        in.readFully(expected);
+
+        MessageDigest md5 = BlockSignatures.md5();
+        byte[] block = new byte[blockSize];
+        try (RandomAccessFile source = new RandomAccessFile(base, "r");
+             FileOutputStream out = new FileOutputStream(target)) {
+            byte op;
+            while ((op = in.readByte()) != OP_END) {
+                if (op == OP_COPY) {
+                    int first = in.readInt();
+                    int count = in.readInt();
+                    source.seek((long) first * blockSize);
+                    for (int i = 0; i < count; i++) {
+                        source.readFully(block);
+                        out.write(block);
+                        md5.update(block);
+                    }
+                } else if (op == OP_DATA) {
+                    int literalLength = in.readInt();
+                    if (literalLength < 0 || literalLength > bytes.available()) {
+                        throw new IOException("Invalid literal length " + literalLength);
+                    }
+                    byte[] literal = new byte[literalLength];
+                    in.readFully(literal);
+                    out.write(literal);
+                    md5.update(literal);
+                } else {
+                    throw new IOException("Unknown delta instruction " + op);
+                }
+            }
+            out.getFD().sync();
+        }
+        if (target.length() != length || !Arrays.equals(expected, md5.digest())) {
+            target.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merges consecutive block copies into runs.
+     */
+    private static class Encoder {
+        private final DataOutputStream out;
+        private int runStart = -1;
+        private int runLength;
+
+        Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void copy(int block) throws IOException {
+            if (runStart >= 0 && runStart + runLength == block) {
+                runLength++;
+                return;
+            }
+            flushRun();
+            runStart = block;
+            runLength = 1;
+        }
+
+        void data(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            flushRun();
+            out.writeByte(OP_DATA);
+            out.writeInt(length);
+            out.write(data, offset, length);
+        }
+
+        void end() throws IOException {
+            flushRun();
+            out.writeByte(OP_END);
+        }
+
+        private void flushRun() throws IOException {
+            if (runStart >= 0) {
+                out.writeByte(OP_COPY);
+                out.writeInt(runStart);
+                out.writeInt(runLength);
+                runStart = -1;
+            }
+        }
+    }
+}
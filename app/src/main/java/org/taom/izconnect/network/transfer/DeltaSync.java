@@ -0,0 +1,90 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.ErrorReplyBusException;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Updates a script on the receiver by sending only the blocks that differ from the receiver's copy.
+ */
+public class DeltaSync {
+    private static final String TAG = "DeltaSync";
+
+    /** Scripts above this size are sent as regular transfers. */
+    static final long MAX_SCRIPT_SIZE = 8 * 1024 * 1024;
+    static final int MIN_BLOCK_SIZE = 512;
+    static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private DeltaSync() {
+    }
+
+    /**
+     * @return true when the receiver's copy now matches {@code script}, false when the script has
+     * to be sent as a full transfer instead
+     */
+    public static boolean sync(FileTransferInterface remote, File script) throws IOException, BusException {
+        if (script.length() > MAX_SCRIPT_SIZE) {
+            return false;
+        }
+        byte[] data = readFully(script);
+
+        byte[] signatureBytes;
+        try {
+            signatureBytes = remote.scriptSignature(script.getName(), blockSize(data.length));
+        } catch (ErrorReplyBusException e) {
+            return false;
+        }
+        if (signatureBytes.length == 0) {
+            return false;
+        }
+
+        BlockSignatures signatures = BlockSignatures.fromBytes(signatureBytes);
+        if (Arrays.equals(signatures.getFileDigest(), BlockSignatures.md5().digest(data))) {
+            log(Level.INFO, TAG, script.getName(), "is already up to date");
+            return true;
+        }
+
+        byte[] delta = Delta.create(data, signatures);
+        if (delta.length >= FileTransferEngine.DEFAULT_CHUNK_SIZE || delta.length >= data.length) {
+            return false;
+        }
+        if (!remote.applyScriptDelta(script.getName(), delta)) {
+            log(Level.WARNING, TAG, "Receiver could not apply delta of", script.getName());
+            return false;
+        }
+        log(Level.INFO, TAG, "Updated", script.getName(), "with", String.valueOf(delta.length), "of", String.valueOf(data.length), "bytes");
+        return true;
+    }
+
+    /**
+     * Roughly the square root of the length, which balances signature size against missed matches.
+     */
+    static int blockSize(long length) {
+        int size = (int) Math.sqrt(length) & ~63;
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * @return false for a block size {@link #blockSize(long)} never picks, asked for by a broken or hostile peer
+     */
+    static boolean isValidBlockSize(int blockSize) {
+        return blockSize >= MIN_BLOCK_SIZE && blockSize <= MAX_BLOCK_SIZE;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,88 @@
+package org.taom.izconnect.network.transfer;
+
+import org.taom.izconnect.network.TrafficLanes;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shares the outbound link between concurrent transfers by chunk. Each transfer is a {@link Flow}
+ * that must pass the gate before sending a chunk; when several flows are waiting, the one that has
+ * sent the fewest bytes goes first. Flows that are not waiting never hold the others back.
+ * Before that, every chunk waits for the bulk lane of the given {@link TrafficLanes}.
+ */
+public class FairShare {
+    private final TrafficLanes lanes;
+    private final List<Flow> flows = new ArrayList<>();
+
+    public FairShare(TrafficLanes lanes) {
+        this.lanes = lanes;
+    }
+
+    public synchronized Flow join() {
+        long start = Long.MAX_VALUE;
+        for (Flow flow : flows) {
+            start = Math.min(start, flow.sent);
+        }
+        // a new flow starts level with the others instead of owing them everything they already sent
+        Flow flow = new Flow(flows.isEmpty() ? 0 : start);
+        flows.add(flow);
+        return flow;
+    }
+
+    private synchronized void leave(Flow flow) {
+        flows.remove(flow);
+        notifyAll();
+    }
+
+    private void take(Flow flow, int bytes) throws InterruptedIOException {
+        lanes.awaitBulk();
+        share(flow, bytes);
+    }
+
+    private synchronized void share(Flow flow, int bytes) throws InterruptedIOException {
+        flow.waiting = true;
+        try {
+            while (isBehind(flow)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk slot");
+        } finally {
+            flow.waiting = false;
+        }
+        flow.sent += bytes;
+        notifyAll();
+    }
+
+    private boolean isBehind(Flow flow) {
+        for (Flow other : flows) {
+            if (other != flow && other.waiting && other.sent < flow.sent) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public class Flow {
+        private long sent;
+        private boolean waiting;
+
+        private Flow(long sent) {
+            this.sent = sent;
+        }
+
+        /**
+         * Blocks until this flow may send a chunk of {@code bytes}.
+         */
+        public void take(int bytes) throws InterruptedIOException {
+            FairShare.this.take(this, bytes);
+        }
+
+        public void leave() {
+            FairShare.this.leave(this);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+
+/**
+ * Sends chunks in order through {@link FileTransferInterface#fileData}, terminating the file with an
+ * empty chunk. Used for receivers that predate offset-addressed transfers, which cannot verify digests.
+ */
+public class FileDataSink implements ChunkSink {
+    private static final byte[] END_OF_FILE = new byte[0];
+    private static final long[] NOTHING_MISSING = new long[0];
+
+    private final FileTransferInterface remote;
+    private final String filename;
+    private final boolean isScript;
+
+    public FileDataSink(FileTransferInterface remote, String filename, boolean isScript) {
+        this.remote = remote;
+        this.filename = filename;
+        this.isScript = isScript;
+    }
+
+    @Override
+    public long[] open(long length) throws BusException {
+        return new long[]{0, length};
+    }
+
+    @Override
+    public void write(long offset, byte[] chunk) throws BusException {
+        remote.fileData(filename, chunk, isScript);
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return false;
+    }
+
+    @Override
+    public long[] close(byte[] segmentDigests) throws BusException {
+        remote.fileData(filename, END_OF_FILE, isScript);
+        return NOTHING_MISSING;
+    }
+}
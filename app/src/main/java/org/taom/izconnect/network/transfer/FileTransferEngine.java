@@ -0,0 +1,265 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Streams a file into a {@link ChunkSink}. Full chunks are read through a {@link FileChannel}
+ * into pooled buffers of the chunk size, so the only allocation per file is the shorter trailing chunk.
+ * The chunks are hashed into a {@link SegmentedDigest} as they are read, which the receiver checks the
+ * file against before completing it.
+ * <p>
+ * When the sink is pipelined, up to {@code window} chunks are in flight at once on a
+ * dedicated pool of sender threads.
+ */
+public class FileTransferEngine {
+    private static final String TAG = "FileTransferEngine";
+
+    /** Stays below the AllJoyn maximum message size once headers are added. */
+    public static final int DEFAULT_CHUNK_SIZE = 114500;
+    public static final int DEFAULT_WINDOW = 4;
+    private static final int MAX_ROUNDS = 3;
+
+    private final ChunkBufferPool pool;
+    private final int window;
+    private final ExecutorService senders;
+
+    public FileTransferEngine() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public FileTransferEngine(int window) {
+        // one buffer per chunk in flight plus the one being filled
+        this(new ChunkBufferPool(DEFAULT_CHUNK_SIZE, window + 1), window);
+    }
+
+    /**
+     * An engine shared by up to {@code transfers} concurrent sends, each with its own window.
+     */
+    public FileTransferEngine(int window, int transfers) {
+        this(new ChunkBufferPool(DEFAULT_CHUNK_SIZE, (window + 1) * transfers), window, window * transfers);
+    }
+
+    public FileTransferEngine(ChunkBufferPool pool, int window) {
+        this(pool, window, window);
+    }
+
+    private FileTransferEngine(ChunkBufferPool pool, int window, int threads) {
+        this.pool = pool;
+        this.window = window;
+        this.senders = Executors.newFixedThreadPool(threads, new SenderThreadFactory());
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sends every range the receiver is missing and closes the sink once all of them are
+     * acknowledged. Ranges the receiver still reports as missing are sent again.
+     *
+     * @return number of bytes sent
+     */
+    public long send(File file, ChunkSink sink) throws IOException, BusException {
+        return send(file, sink, null, null);
+    }
+
+    /**
+     * Like {@link #send(File, ChunkSink)}, but every chunk first passes {@code flow}'s fair share gate
+     * and is cut to the size {@code sizer} currently allows.
+     */
+    public long send(File file, ChunkSink sink, FairShare.Flow flow, ChunkSizer sizer)
+            throws IOException, BusException {
+        Window inFlight = new Window(window);
+        long sent = 0;
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            SegmentedDigest digest = new SegmentedDigest(channel.size());
+            byte[] segmentDigests = null;
+            long[] missing = sink.open(digest.getLength());
+            int round = 0;
+            do {
+                if (round++ == MAX_ROUNDS) {
+                    throw new BusException("Receiver still misses " + RangeSet.size(missing) + " bytes of " + file.getName());
+                }
+                for (int i = 0; i + 1 < missing.length; i += 2) {
+                    sent += sendRange(channel, missing[i], missing[i + 1], sink, inFlight, flow, sizer, digest);
+                }
+                inFlight.drain();
+                if (segmentDigests == null) {
+                    // ranges the receiver already had are read here, the rest was hashed while sending
+                    segmentDigests = digest.finish(channel);
+                }
+                missing = sink.close(segmentDigests);
+            } while (missing.length > 0);
+        } finally {
+            inFlight.drainQuietly();
+        }
+        log(Level.INFO, TAG, "Sent", file.getName(), String.valueOf(sent), "bytes");
+        return sent;
+    }
+
+    private long sendRange(FileChannel channel, long start, long end, ChunkSink sink, Window inFlight,
+                           FairShare.Flow flow, ChunkSizer sizer, SegmentedDigest digest)
+            throws IOException, BusException {
+        long offset = start;
+        channel.position(start);
+        while (offset < end) {
+            int chunkSize = sizer == null ? pool.getChunkSize() : Math.min(pool.getChunkSize(), sizer.getChunkSize());
+            int length = (int) Math.min(chunkSize, end - offset);
+            if (flow != null) {
+                flow.take(length);
+            }
+            // the bus sends whole arrays, so a shorter trailing chunk is read into one of its own size
+            ByteBuffer buffer = length == chunkSize ? acquire(chunkSize) : null;
+            ByteBuffer target = buffer != null ? buffer : ByteBuffer.allocate(length);
+            int read;
+            try {
+                read = fill(channel, target);
+                if (read < length) {
+                    throw new IOException("File shrank while sending, expected " + end + " bytes");
+                }
+            } catch (IOException e) {
+                release(buffer);
+                throw e;
+            }
+
+            byte[] chunk = target.array();
+            digest.update(offset, chunk);
+
+            if (window > 1 && sink.isPipelined()) {
+                inFlight.submit(sink, offset, chunk, buffer);
+            } else {
+                try {
+                    sink.write(offset, chunk);
+                } finally {
+                    release(buffer);
+                }
+            }
+            offset += read;
+        }
+        return offset - start;
+    }
+
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+
+    private ByteBuffer acquire(int size) throws InterruptedIOException {
+        try {
+            return pool.acquire(size);
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (buffer != null) {
+            pool.release(buffer);
+        }
+    }
+
+    private static InterruptedIOException interrupted() {
+        Thread.currentThread().interrupt();
+        return new InterruptedIOException("Interrupted while sending file");
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the channel is reached.
+     */
+    static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Bounds the number of outstanding chunks of one transfer and collects the first failure.
+     */
+    private class Window {
+        private final int size;
+        private final Semaphore permits;
+        private final AtomicReference<BusException> failure = new AtomicReference<>();
+
+        Window(int size) {
+            this.size = size;
+            this.permits = new Semaphore(size);
+        }
+
+        void submit(final ChunkSink sink, final long offset, final byte[] chunk, final ByteBuffer buffer)
+                throws InterruptedIOException, BusException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                release(buffer);
+                throw interrupted();
+            }
+            if (failure.get() != null) {
+                permits.release();
+                release(buffer);
+                throw failure.get();
+            }
+            senders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sink.write(offset, chunk);
+                    } catch (BusException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, new BusException(String.valueOf(e)));
+                    } finally {
+                        release(buffer);
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        void drain() throws InterruptedIOException, BusException {
+            try {
+                permits.acquire(size);
+            } catch (InterruptedException e) {
+                throw interrupted();
+            }
+            permits.release(size);
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        void drainQuietly() {
+            permits.acquireUninterruptibly(size);
+            permits.release(size);
+        }
+    }
+
+    private static class SenderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ChunkSender-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file being received into a temporary file. Its chunks are written by the {@link ChunkWriter}
+ * thread; the bus threads only count them in and wait for them when the file is closed.
+ */
+class IncomingFile {
+    private final RandomAccessFile file;
+    protected final FileChannel channel;
+    private final File tempFile;
+    volatile long appendPosition;
+    private int pending;
+    private IOException failure;
+
+    IncomingFile(File tempFile, boolean truncate) throws IOException {
+        this.tempFile = tempFile;
+        this.file = new RandomAccessFile(tempFile, "rw");
+        this.channel = file.getChannel();
+        if (truncate) {
+            channel.truncate(0);
+        }
+    }
+
+    /**
+     * Reserves the space up front so the file system does not grow the file chunk by chunk.
+     */
+    void preallocate(long length) throws IOException {
+        if (file.length() < length) {
+            file.setLength(length);
+        }
+    }
+
+    /**
+     * Called by the writer thread once a contiguous run of chunks, starting at {@code start}, has been written.
+     */
+    void written(long start, long end, byte[][] chunks) throws IOException {
+    }
+
+    synchronized void enqueued() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        pending++;
+    }
+
+    synchronized void done(int count, IOException error) {
+        pending -= count;
+        if (error != null && failure == null) {
+            failure = error;
+        }
+        notifyAll();
+    }
+
+    synchronized void awaitWritten() throws IOException {
+        awaitPending();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Forgets a failed write once the queued chunks are done, for a transfer opened again. Chunks that
+     * failed were never reported {@link #written}, so they are still missing and get sent again.
+     */
+    synchronized void reopen() throws IOException {
+        awaitPending();
+        failure = null;
+    }
+
+    /**
+     * Drops a file that will not be completed, once the queued chunks are done.
+     */
+    synchronized void discard() throws IOException {
+        awaitPending();
+        file.close();
+        tempFile.delete();
+    }
+
+    private void awaitPending() throws InterruptedIOException {
+        try {
+            while (pending > 0) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing " + tempFile);
+        }
+    }
+
+    void close() throws IOException {
+        channel.force(false);
+        file.close();
+    }
+
+    /**
+     * Waits for the queued chunks, then atomically replaces {@code destination} with the received file.
+     * The rename replaces an existing file in one step, so a crash leaves either the old or the new one.
+     */
+    void complete(File destination) throws IOException {
+        awaitWritten();
+        close();
+        if (!tempFile.renameTo(destination)) {
+            throw new IOException("Cannot move " + tempFile + " to " + destination);
+        }
+    }
+}
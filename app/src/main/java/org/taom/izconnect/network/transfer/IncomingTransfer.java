@@ -0,0 +1,74 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An offset-addressed transfer whose persisted ranges are tracked in a {@link TransferManifest}.
+ */
+class IncomingTransfer extends IncomingFile {
+    private static final int MANIFEST_SAVE_INTERVAL = 16;
+
+    final TransferManifest manifest;
+    private final File manifestFile;
+    volatile ChunkCodec codec;
+    volatile int flushed;
+    private final SegmentedDigest digest;
+    private int unsavedChunks;
+
+    IncomingTransfer(TransferManifest manifest, File partFile, File manifestFile) throws IOException {
+        super(partFile, false);
+        this.manifest = manifest;
+        this.manifestFile = manifestFile;
+        this.digest = new SegmentedDigest(manifest.getLength());
+    }
+
+    @Override
+    void written(long start, long end, byte[][] chunks) throws IOException {
+        long offset = start;
+        for (byte[] chunk : chunks) {
+            digest.update(offset, chunk);
+            offset += chunk.length;
+        }
+        manifest.getPersisted().add(start, end);
+        boolean save;
+        synchronized (this) {
+            save = (unsavedChunks += chunks.length) >= MANIFEST_SAVE_INTERVAL;
+        }
+        if (save) {
+            saveManifest();
+        }
+    }
+
+    /**
+     * Compares the received file with the sender's segment digests. Segments that differ are
+     * marked missing again, so the sender resends them.
+     *
+     * @return ranges of the segments that differ
+     */
+    long[] verify(byte[] expected) throws IOException {
+        long[] corrupt = digest.mismatches(digest.finish(channel), expected);
+        if (corrupt.length > 0) {
+            for (int i = 0; i + 1 < corrupt.length; i += 2) {
+                manifest.getPersisted().remove(corrupt[i], corrupt[i + 1]);
+            }
+            saveManifest();
+        }
+        return corrupt;
+    }
+
+    /**
+     * Forces the data first so the manifest never claims ranges that are not on disk.
+     */
+    synchronized void saveManifest() throws IOException {
+        channel.force(false);
+        manifest.save(manifestFile);
+        unsavedChunks = 0;
+    }
+
+    @Override
+    void complete(File destination) throws IOException {
+        super.complete(destination);
+        manifestFile.delete();
+    }
+}
@@ -0,0 +1,65 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+
+/**
+ * Times every chunk written to the wrapped sink and records it in a {@link TransferStats} and,
+ * when given, the link's {@link ChunkSizer}.
+ * {@code onProgress} runs, on the sending thread, whenever a throughput interval is closed.
+ */
+class MeasuredSink implements ChunkSink {
+    private final ChunkSink sink;
+    private final TransferStats stats;
+    private final ChunkSizer sizer;
+    private final Runnable onProgress;
+
+    MeasuredSink(ChunkSink sink, TransferStats stats, ChunkSizer sizer, Runnable onProgress) {
+        this.sink = sink;
+        this.stats = stats;
+        this.sizer = sizer;
+        this.onProgress = onProgress;
+    }
+
+    @Override
+    public long[] open(long length) throws BusException {
+        long[] missing = sink.open(length);
+        stats.opened(length, RangeSet.size(missing));
+        return missing;
+    }
+
+    @Override
+    public void write(long offset, byte[] chunk) throws BusException {
+        long start = System.nanoTime();
+        try {
+            sink.write(offset, chunk);
+        } catch (BusException e) {
+            if (sizer != null) {
+                sizer.failed();
+            }
+            throw e;
+        }
+        long rtt = System.nanoTime() - start;
+        if (sizer != null) {
+            sizer.acked(chunk.length, rtt);
+        }
+        if (stats.acked(chunk.length, rtt)) {
+            onProgress.run();
+        }
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return sink.isPipelined();
+    }
+
+    @Override
+    public long[] close(byte[] segmentDigests) throws BusException {
+        long[] missing = sink.close(segmentDigests);
+        if (missing.length > 0) {
+            stats.resend(RangeSet.size(missing));
+        } else {
+            stats.closed();
+        }
+        return missing;
+    }
+}
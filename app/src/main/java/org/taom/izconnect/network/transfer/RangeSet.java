@@ -0,0 +1,93 @@
+package org.taom.izconnect.network.transfer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Set of disjoint half-open byte ranges, merged as they are added.
+ * Ranges are exchanged over the bus as consecutive start and end offsets.
+ */
+public class RangeSet {
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    public synchronized void add(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        Map.Entry<Long, Long> previous = ranges.floorEntry(start);
+        if (previous != null && previous.getValue() >= start) {
+            start = previous.getKey();
+            end = Math.max(end, previous.getValue());
+        }
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+        }
+        ranges.put(start, end);
+    }
+
+    public synchronized void remove(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        Map.Entry<Long, Long> previous = ranges.lowerEntry(start);
+        if (previous != null && previous.getValue() > start) {
+            ranges.put(previous.getKey(), start);
+            if (previous.getValue() > end) {
+                ranges.put(end, previous.getValue());
+            }
+        }
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() < end) {
+            ranges.remove(next.getKey());
+            if (next.getValue() > end) {
+                ranges.put(end, next.getValue());
+            }
+        }
+    }
+
+    public synchronized boolean covers(long length) {
+        return length == 0 || (ranges.size() == 1 && ranges.firstKey() == 0 && ranges.firstEntry().getValue() >= length);
+    }
+
+    /**
+     * @return ranges of {@code [0, length)} not in this set
+     */
+    public synchronized long[] complement(long length) {
+        RangeSet gaps = new RangeSet();
+        long position = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            gaps.add(position, Math.min(range.getKey(), length));
+            position = Math.max(position, range.getValue());
+        }
+        gaps.add(position, length);
+        return gaps.toArray();
+    }
+
+    public synchronized long[] toArray() {
+        long[] array = new long[ranges.size() * 2];
+        int i = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            array[i++] = range.getKey();
+            array[i++] = range.getValue();
+        }
+        return array;
+    }
+
+    public static RangeSet fromArray(long[] array) {
+        RangeSet set = new RangeSet();
+        for (int i = 0; i + 1 < array.length; i += 2) {
+            set.add(array[i], array[i + 1]);
+        }
+        return set;
+    }
+
+    public static long size(long[] array) {
+        long size = 0;
+        for (int i = 0; i + 1 < array.length; i += 2) {
+            size += array[i + 1] - array[i];
+        }
+        return size;
+    }
+}
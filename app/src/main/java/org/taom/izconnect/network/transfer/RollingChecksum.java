@@ -0,0 +1,39 @@
+package org.taom.izconnect.network.transfer;
+
+/**
+ * The rsync weak checksum: two 16 bit sums that can be rolled one byte forward in constant time.
+ */
+public class RollingChecksum {
+    private final int blockSize;
+    private int a;
+    private int b;
+
+    public RollingChecksum(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public int reset(byte[] data, int offset, int length) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+        return value();
+    }
+
+    /**
+     * Drops {@code out} from the front of the window and appends {@code in} to its end.
+     */
+    public int roll(byte out, byte in) {
+        int x = out & 0xff;
+        a += (in & 0xff) - x;
+        b += a - blockSize * x;
+        return value();
+    }
+
+    public int value() {
+        return (a & 0xffff) | (b << 16);
+    }
+}
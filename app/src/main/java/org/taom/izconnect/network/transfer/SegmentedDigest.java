@@ -0,0 +1,268 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * SHA-256 of every segment of a file, computed from the chunks as they pass by instead of in a
+ * second read. Chunks may come in any order: a chunk that is not next in its segment is kept
+ * until the gap is filled, up to {@link #MAX_PENDING_BYTES}. Whatever was never seen, like the
+ * ranges skipped when resuming, is read back from the file by {@link #finish(FileChannel)}, one
+ * segment per core. Segments also tell which part of a file is wrong.
+ */
+public class SegmentedDigest {
+    public static final String ALGORITHM = "SHA-256";
+    public static final int DIGEST_LENGTH = 32;
+    private static final long MIN_SEGMENT_SIZE = 4 << 20;
+    /** Keeps the digest list of any file inside one bus message. */
+    private static final int MAX_SEGMENTS = 2048;
+    private static final long MAX_PENDING_BYTES = 2 << 20;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static ExecutorService hashers;
+
+    private final long length;
+    private final long segmentSize;
+    private final Segment[] segments;
+    private long pendingBytes;
+
+    public SegmentedDigest(long length) {
+        this.length = length;
+        this.segmentSize = segmentSize(length);
+        this.segments = new Segment[(int) Math.max(1, (length + segmentSize - 1) / segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(i * segmentSize, Math.min(length, (i + 1) * segmentSize));
+        }
+    }
+
+    /**
+     * Both ends derive the segment size from the file length alone.
+     */
+    public static long segmentSize(long length) {
+        long size = MIN_SEGMENT_SIZE;
+        while (length / size >= MAX_SEGMENTS) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    public synchronized void update(long offset, byte[] data) {
+        long end = offset + data.length;
+        int first = (int) (offset / segmentSize);
+        for (int i = first; i < segments.length && segments[i].start < end; i++) {
+            Segment segment = segments[i];
+            long from = Math.max(offset, segment.start);
+            long to = Math.min(end, segment.end);
+            segment.update(from, data, (int) (from - offset), (int) (to - from));
+        }
+    }
+
+    /**
+     * Hashes what has not been seen yet from {@code channel} and completes every segment.
+     *
+     * @return the segment digests, concatenated
+     */
+    public byte[] finish(final FileChannel channel) throws IOException {
+        List<Callable<Void>> catchUp = new ArrayList<>();
+        synchronized (this) {
+            for (final Segment segment : segments) {
+                if (segment.result == null) {
+                    pendingBytes -= segment.dropPending();
+                    catchUp.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            segment.readRest(channel);
+                            return null;
+                        }
+                    });
+                }
+            }
+        }
+
+        if (catchUp.size() == 1) {
+            readRest(catchUp.get(0));
+        } else if (!catchUp.isEmpty()) {
+            try {
+                for (Future<Void> future : hashers().invokeAll(catchUp)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while hashing");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        synchronized (this) {
+            byte[] digests = new byte[segments.length * DIGEST_LENGTH];
+            for (int i = 0; i < segments.length; i++) {
+                System.arraycopy(segments[i].result, 0, digests, i * DIGEST_LENGTH, DIGEST_LENGTH);
+            }
+            return digests;
+        }
+    }
+
+    /**
+     * Compares finished digests with {@code expected} and starts over the segments that differ.
+     *
+     * @return byte ranges of the segments that differ, as consecutive start and end offsets
+     */
+    public synchronized long[] mismatches(byte[] digests, byte[] expected) {
+        RangeSet wrong = new RangeSet();
+        for (int i = 0; i < segments.length; i++) {
+            int from = i * DIGEST_LENGTH;
+            boolean matches = expected.length == digests.length
+                    && Arrays.equals(Arrays.copyOfRange(digests, from, from + DIGEST_LENGTH),
+                    Arrays.copyOfRange(expected, from, from + DIGEST_LENGTH));
+            if (!matches) {
+                segments[i].reset();
+                wrong.add(segments[i].start, segments[i].end);
+            }
+        }
+        return wrong.toArray();
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    private static void readRest(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static synchronized ExecutorService hashers() {
+        if (hashers == null) {
+            hashers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SegmentHasher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return hashers;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class Segment {
+        final long start;
+        final long end;
+        MessageDigest digest = sha256();
+        long hashed;
+        byte[] result;
+        TreeMap<Long, byte[]> pending;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.hashed = start;
+            if (start == end) {
+                result = digest.digest();
+            }
+        }
+
+        void update(long from, byte[] data, int offset, int count) {
+            if (result != null || from + count <= hashed) {
+                return;
+            }
+            if (from > hashed) {
+                if (pendingBytes + count <= MAX_PENDING_BYTES) {
+                    if (pending == null) {
+                        pending = new TreeMap<>();
+                    }
+                    if (!pending.containsKey(from)) {
+                        pending.put(from, Arrays.copyOfRange(data, offset, offset + count));
+                        pendingBytes += count;
+                    }
+                }
+                return;
+            }
+            int skip = (int) (hashed - from);
+            digest.update(data, offset + skip, count - skip);
+            hashed = from + count;
+
+            while (pending != null && !pending.isEmpty() && pending.firstKey() <= hashed) {
+                Map.Entry<Long, byte[]> next = pending.pollFirstEntry();
+                byte[] piece = next.getValue();
+                pendingBytes -= piece.length;
+                long pieceEnd = next.getKey() + piece.length;
+                if (pieceEnd > hashed) {
+                    int pieceSkip = (int) (hashed - next.getKey());
+                    digest.update(piece, pieceSkip, piece.length - pieceSkip);
+                    hashed = pieceEnd;
+                }
+            }
+            if (hashed == end) {
+                result = digest.digest();
+                pendingBytes -= dropPending();
+            }
+        }
+
+        long dropPending() {
+            long dropped = 0;
+            if (pending != null) {
+                for (byte[] piece : pending.values()) {
+                    dropped += piece.length;
+                }
+                pending = null;
+            }
+            return dropped;
+        }
+
+        /**
+         * Runs without the digest's lock, only on segments nobody updates any more.
+         */
+        void readRest(FileChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            long position = hashed;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File ends at " + position + " instead of " + end);
+                }
+                digest.update(buffer.array(), 0, read);
+                position += read;
+            }
+            hashed = end;
+            result = digest.digest();
+        }
+
+        void reset() {
+            digest = sha256();
+            hashed = start;
+            result = start == end ? digest.digest() : null;
+            pendingBytes -= dropPending();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.taom.izconnect.network.transfer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Receiver-side record of an incoming transfer: where it goes and which ranges are persisted.
+ * Saved next to the partial file so a transfer can be resumed after the bus or the receiver restarts.
+ */
+public class TransferManifest {
+    private static final int VERSION = 1;
+
+    private final String transferId;
+    private final String filename;
+    private final long length;
+    private final boolean isScript;
+    private final RangeSet persisted;
+
+    public TransferManifest(String transferId, String filename, long length, boolean isScript) {
+        this(transferId, filename, length, isScript, new RangeSet());
+    }
+
+    private TransferManifest(String transferId, String filename, long length, boolean isScript, RangeSet persisted) {
+        this.transferId = transferId;
+        this.filename = filename;
+        this.length = length;
+        this.isScript = isScript;
+        this.persisted = persisted;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isScript() {
+        return isScript;
+    }
+
+    public RangeSet getPersisted() {
+        return persisted;
+    }
+
+    public boolean matches(String filename, long length, boolean isScript) {
+        return this.filename.equals(filename) && this.length == length && this.isScript == isScript;
+    }
+
+    public boolean isComplete() {
+        return persisted.covers(length);
+    }
+
+    public long[] getMissing() {
+        return persisted.complement(length);
+    }
+
+    /**
+     * Writes to a temporary file first so a crash never leaves a truncated manifest behind.
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeInt(VERSION);
+            out.writeUTF(filename);
+            out.writeLong(length);
+            out.writeBoolean(isScript);
+            long[] ranges = persisted.toArray();
+            out.writeInt(ranges.length);
+            for (long offset : ranges) {
+                out.writeLong(offset);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * @return the saved manifest, or null when there is none or it cannot be read
+     */
+    public static TransferManifest load(String transferId, File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            String filename = in.readUTF();
+            long length = in.readLong();
+            boolean isScript = in.readBoolean();
+            long[] ranges = new long[in.readInt()];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = in.readLong();
+            }
+            return new TransferManifest(transferId, filename, length, isScript, RangeSet.fromArray(ranges));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+import org.taom.izconnect.network.TrafficLanes;
+import org.taom.izconnect.network.client.RemoteFuture;
+import org.taom.izconnect.network.interfaces.FileBroadcastInterface;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Runs file transfers to any number of devices, a few at a time, off the caller's thread.
+ * Running transfers share one {@link FileTransferEngine} and take turns by chunk through a
+ * {@link FairShare}, so a large upload does not starve the others, and give way to interactive
+ * traffic on the shared {@link TrafficLanes}.
+ */
+public class TransferScheduler {
+    private static final String TAG = "TransferScheduler";
+
+    public static final int DEFAULT_CONCURRENT_TRANSFERS = 3;
+    private static final int FINISHED_HISTORY = 32;
+
+    public enum State {
+        QUEUED, RUNNING, FINISHED, FAILED, CANCELLED;
+
+        public boolean isDone() {
+            return this == FINISHED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    public interface Listener {
+        void onTransferChanged(Transfer transfer);
+
+        /**
+         * Called from a sending thread at most every 250 ms per transfer, see {@link Transfer#getStats()}.
+         */
+        void onTransferProgress(Transfer transfer);
+    }
+
+    private final FileTransferEngine engine;
+    private final TrafficLanes lanes;
+    private final FairShare share;
+    private final ExecutorService workers;
+    private final List<Transfer> transfers = new ArrayList<>();
+    private final ConcurrentMap<String, ChunkSizer> sizers = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private volatile Listener listener;
+
+    public TransferScheduler() {
+        this(DEFAULT_CONCURRENT_TRANSFERS, new TrafficLanes());
+    }
+
+    public TransferScheduler(int concurrentTransfers, TrafficLanes lanes) {
+        this.lanes = lanes;
+        this.share = new FairShare(lanes);
+        this.engine = new FileTransferEngine(FileTransferEngine.DEFAULT_WINDOW, concurrentTransfers);
+        this.workers = Executors.newFixedThreadPool(concurrentTransfers, new TransferThreadFactory());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues {@code file} for {@code device}. Scripts are delta synced when the device already has a copy.
+     */
+    public Transfer submit(String device, FileTransferInterface remote, File file, boolean isScript) {
+        Map<String, FileTransferInterface> remotes = Collections.singletonMap(device, remote);
+        return enqueue(new Transfer(ids.incrementAndGet(), device, remotes, null, file, isScript));
+    }
+
+    /**
+     * Queues {@code file} for every device of a group. Devices that join {@code session} get the
+     * file in one broadcast; the others, and those missing chunks afterwards, are sent to one by one.
+     *
+     * @param devices keyed by unique bus name
+     */
+    public Transfer submitBroadcast(String group, Map<String, FileTransferInterface> devices, BroadcastSession session,
+                                    File file, boolean isScript) {
+        Map<String, FileTransferInterface> remotes = new LinkedHashMap<>(devices);
+        return enqueue(new Transfer(ids.incrementAndGet(), group, remotes, session, file, isScript));
+    }
+
+    private Transfer enqueue(Transfer transfer) {
+        File file = transfer.file;
+        String device = transfer.device;
+        synchronized (transfers) {
+            pruneFinished();
+            transfers.add(transfer);
+            transfer.future = workers.submit(transfer);
+        }
+        log(Level.INFO, TAG, "Queued", file.getName(), "for", device);
+        notifyListener(transfer);
+        return transfer;
+    }
+
+    /**
+     * @return a snapshot of queued, running and recently finished transfers, oldest first
+     */
+    public List<Transfer> getTransfers() {
+        synchronized (transfers) {
+            return new ArrayList<>(transfers);
+        }
+    }
+
+    /**
+     * @return the chunk size each device's link currently sustains, broadcast groups included
+     */
+    public Map<String, Integer> getChunkSizes() {
+        Map<String, Integer> chunkSizes = new LinkedHashMap<>();
+        for (Map.Entry<String, ChunkSizer> sizer : sizers.entrySet()) {
+            chunkSizes.put(sizer.getKey(), sizer.getValue().getChunkSize());
+        }
+        return chunkSizes;
+    }
+
+    /**
+     * Chunk sizes are kept per device, so the next transfer starts from what the link sustained.
+     */
+    private ChunkSizer getSizer(String device) {
+        ChunkSizer sizer = sizers.get(device);
+        if (sizer == null) {
+            sizer = new ChunkSizer(FileTransferEngine.DEFAULT_WINDOW);
+            ChunkSizer previous = sizers.putIfAbsent(device, sizer);
+            if (previous != null) {
+                sizer = previous;
+            }
+        }
+        return sizer;
+    }
+
+    /**
+     * Cancels the transfers to a device that went away. A broadcast goes on without it, and is cancelled
+     * once none of its devices are left.
+     */
+    public void cancelAll(String device) {
+        for (Transfer transfer : getTransfers()) {
+            if (transfer.device.equals(device) || transfer.lose(device)) {
+                transfer.cancel();
+            }
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+        engine.shutdown();
+    }
+
+    private void pruneFinished() {
+        int finished = 0;
+        for (Transfer transfer : transfers) {
+            if (transfer.state.isDone()) {
+                finished++;
+            }
+        }
+        Iterator<Transfer> iterator = transfers.iterator();
+        while (finished > FINISHED_HISTORY && iterator.hasNext()) {
+            if (iterator.next().state.isDone()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    private void notifyListener(Transfer transfer) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onTransferChanged(transfer);
+        }
+    }
+
+    private void notifyProgress(Transfer transfer) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onTransferProgress(transfer);
+        }
+    }
+
+    public class Transfer implements Runnable {
+        private final int id;
+        private final String device;
+        private final Map<String, FileTransferInterface> remotes;
+        private final BroadcastSession session;
+        private final File file;
+        private final boolean isScript;
+        private final Set<String> lost = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile State state = State.QUEUED;
+        private final TransferStats stats = new TransferStats();
+        private volatile String error;
+        private Future<?> future;
+        private final RemoteFuture<Transfer> completion = new RemoteFuture<>();
+
+        private Transfer(int id, String device, Map<String, FileTransferInterface> remotes, BroadcastSession session,
+                         File file, boolean isScript) {
+            this.id = id;
+            this.device = device;
+            this.remotes = remotes;
+            this.session = session;
+            this.file = file;
+            this.isScript = isScript;
+            completion.addCallback(new RemoteFuture.Callback<Transfer>() {
+                @Override
+                public void onSuccess(Transfer transfer) {
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    if (error instanceof CancellationException && !state.isDone()) {
+                        cancel();
+                    }
+                }
+            });
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public TransferStats getStats() {
+            return stats;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Completes when the transfer finishes, fails with its error. Cancelling it cancels the transfer.
+         */
+        public RemoteFuture<Transfer> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * Drops a queued transfer or interrupts a running one at its next chunk. The receiver keeps
+         * what it has, so sending the file again resumes it.
+         */
+        public void cancel() {
+            boolean dequeued = moveTo(State.QUEUED, State.CANCELLED);
+            Future<?> future;
+            synchronized (transfers) {
+                future = this.future;
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+            if (dequeued) {
+                log(Level.INFO, TAG, "Cancelled", file.getName(), "for", device);
+                notifyListener(this);
+                completion.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!moveTo(State.QUEUED, State.RUNNING)) {
+                return;
+            }
+            notifyListener(this);
+
+            FairShare.Flow flow = share.join();
+            State result;
+            try {
+                lanes.awaitBulk();
+                if (session != null) {
+                    broadcast(flow);
+                } else {
+                    FileTransferInterface remote = remotes.values().iterator().next();
+                    if (!isScript || !DeltaSync.sync(remote, file)) {
+                        send(device, remote, ChunkCodecs.select(file, DeflateCodec.NAME), flow);
+                    }
+                }
+                result = State.FINISHED;
+            } catch (InterruptedIOException | InterruptedException e) {
+                result = State.CANCELLED;
+            } catch (Exception e) {
+                error = String.valueOf(e.getMessage());
+                result = Thread.currentThread().isInterrupted() ? State.CANCELLED : State.FAILED;
+            } finally {
+                flow.leave();
+            }
+
+            state = result;
+            if (result == State.FAILED) {
+                log(Level.SEVERE, TAG, "Cannot send", file.getName(), "to", device + ":", error);
+            } else {
+                log(Level.INFO, TAG, result.name(), file.getName(), "for", device + ":", stats.summary() + ",",
+                        "chunk", String.valueOf(getSizer(device)));
+            }
+            notifyListener(this);
+            if (result == State.FINISHED) {
+                completion.complete(this);
+            } else if (result == State.FAILED) {
+                completion.fail(new BusException(error));
+            } else {
+                completion.cancel(false);
+            }
+        }
+
+        /**
+         * @return true when no device of the transfer is left
+         */
+        private boolean lose(String member) {
+            if (!remotes.containsKey(member) || state.isDone()) {
+                return false;
+            }
+            lost.add(member);
+            log(Level.INFO, TAG, "Dropping", member, "from", file.getName(), "for", device);
+            return lost.containsAll(remotes.keySet());
+        }
+
+        private Map<String, FileTransferInterface> getRemaining() {
+            Map<String, FileTransferInterface> remaining = new LinkedHashMap<>(remotes);
+            remaining.keySet().removeAll(lost);
+            return remaining;
+        }
+
+        private void send(String device, FileTransferInterface remote, String codec, FairShare.Flow flow)
+                throws Exception {
+            ChunkSizer sizer = getSizer(device);
+            engine.send(file, measured(new TransferSink(remote, file, isScript, codec), sizer), flow, sizer);
+        }
+
+        private void broadcast(FairShare.Flow flow) throws Exception {
+            String codec = ChunkCodecs.select(file, DeflateCodec.NAME);
+            Map<String, FileTransferInterface> unicast = getRemaining();
+            Map<String, FileTransferInterface> members = session.join(unicast);
+            FileBroadcastInterface emitter = session.getEmitter();
+            // a broadcast to a single device only adds the session overhead
+            if (members.size() > 1 && emitter != null) {
+                BroadcastSink sink = new BroadcastSink(emitter, members, file, isScript, codec);
+                ChunkSizer sizer = getSizer(device);
+                try {
+                    engine.send(file, measured(sink, sizer), flow, sizer);
+                } catch (BusException e) {
+                    log(Level.INFO, TAG, "Broadcast of", file.getName(), "incomplete:", e.getMessage());
+                }
+                unicast = getRemaining();
+                unicast.keySet().removeAll(members.keySet());
+                unicast.putAll(sink.getIncomplete());
+            }
+
+            List<String> failed = new ArrayList<>();
+            for (Map.Entry<String, FileTransferInterface> remote : unicast.entrySet()) {
+                // members lost during the broadcast fail in it and are not sent to again
+                if (lost.contains(remote.getKey())) {
+                    continue;
+                }
+                try {
+                    send(remote.getKey(), remote.getValue(), codec, flow);
+                } catch (BusException e) {
+                    if (lost.contains(remote.getKey())) {
+                        continue;
+                    }
+                    log(Level.SEVERE, TAG, "Cannot send", file.getName(), "to", remote.getKey() + ":", e.getMessage());
+                    failed.add(remote.getKey());
+                }
+            }
+            if (!failed.isEmpty()) {
+                throw new BusException("Not delivered to " + failed);
+            }
+        }
+
+        private ChunkSink measured(ChunkSink sink, ChunkSizer sizer) {
+            return new MeasuredSink(sink, stats, sizer, new Runnable() {
+                @Override
+                public void run() {
+                    notifyProgress(Transfer.this);
+                }
+            });
+        }
+
+        private synchronized boolean moveTo(State from, State to) {
+            if (state != from) {
+                return false;
+            }
+            state = to;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + " " + file.getName() + " -> " + device + " " + state;
+        }
+    }
+
+    private static class TransferThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Transfer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.taom.izconnect.network.transfer;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.ErrorReplyBusException;
+import org.taom.izconnect.network.interfaces.FileTransferInterface;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import static org.taom.izconnect.network.GFLogger.log;
+
+/**
+ * Sends a file as a resumable, offset-addressed transfer. The transfer id is derived from the file's
+ * name, length and modification time, so sending the same file again after a dropped connection
+ * resumes it and only the ranges the receiver is missing are sent.
+ * <p>
+ * Chunks are encoded with the codec the receiver accepted; chunks that do not shrink are sent as is.
+ * The transfer is committed with the file's segment digests, and closed unverified by receivers that
+ * do not know {@code commitTransfer}. Falls back to a {@link FileDataSink} when the receiver does not
+ * know {@code openTransfer}.
+ */
+public class TransferSink implements ChunkSink {
+    private static final String TAG = "TransferSink";
+
+    private final FileTransferInterface remote;
+    private final String transferId;
+    private final String filename;
+    private final boolean isScript;
+    private final String proposedCodec;
+    private ChunkCodec codec;
+    private ChunkSink legacy;
+    private boolean verifies = true;
+
+    public TransferSink(FileTransferInterface remote, File file, boolean isScript) {
+        this(remote, file, isScript, ChunkCodecs.IDENTITY);
+    }
+
+    /**
+     * @param codec encoding to propose to the receiver, see {@link ChunkCodecs#select}
+     */
+    public TransferSink(FileTransferInterface remote, File file, boolean isScript, String codec) {
+        this.remote = remote;
+        this.transferId = transferId(file);
+        this.filename = file.getName();
+        this.isScript = isScript;
+        this.proposedCodec = codec;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    @Override
+    public long[] open(long length) throws BusException {
+        try {
+            codec = ChunkCodecs.get(remote.openTransfer(transferId, filename, length, isScript, proposedCodec));
+        } catch (ErrorReplyBusException e) {
+            log(Level.INFO, TAG, "Receiver does not accept transfers, sending", filename, "sequentially");
+            legacy = new FileDataSink(remote, filename, isScript);
+            return legacy.open(length);
+        }
+        long[] missing = remote.missingRanges(transferId);
+        long resumed = length - RangeSet.size(missing);
+        if (resumed > 0) {
+            log(Level.INFO, TAG, "Resuming", filename, "after", String.valueOf(resumed), "bytes");
+        }
+        return missing;
+    }
+
+    @Override
+    public void write(long offset, byte[] chunk) throws BusException {
+        if (legacy != null) {
+            legacy.write(offset, chunk);
+            return;
+        }
+        byte[] encoded = codec == null ? null : codec.encode(chunk);
+        long acked = remote.transferChunk(transferId, offset, chunk.length, encoded != null ? encoded : chunk);
+        if (acked != offset + chunk.length) {
+            throw new BusException("Chunk at " + offset + " acknowledged up to " + acked);
+        }
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return legacy == null;
+    }
+
+    @Override
+    public long[] close(byte[] segmentDigests) throws BusException {
+        if (legacy != null) {
+            return legacy.close(segmentDigests);
+        }
+        if (verifies) {
+            try {
+                return remote.commitTransfer(transferId, segmentDigests);
+            } catch (ErrorReplyBusException e) {
+                log(Level.INFO, TAG, "Receiver does not verify transfers, closing", filename, "unverified");
+                verifies = false;
+            }
+        }
+        return remote.closeTransfer(transferId);
+    }
+
+    static String transferId(File file) {
+        String key = file.getName() + ":" + file.length() + ":" + file.lastModified();
+        try {
+            return UUID.nameUUIDFromBytes(key.getBytes("UTF-8")).toString();
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.taom.izconnect.network.transfer;
+
+import org.taom.izconnect.network.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live numbers of one transfer: bytes and chunks acknowledged, average and instantaneous
+ * throughput, ETA and the round-trip time of every chunk. Fed by {@link MeasuredSink}.
+ */
+public class TransferStats {
+    /** Instantaneous throughput is measured over intervals of this length. */
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final LatencyHistogram chunkRtt = new LatencyHistogram();
+    private long length;
+    private long toSend;
+    private long acked;
+    private int chunks;
+    private long started;
+    private long finished;
+    private long intervalStart;
+    private long intervalAcked;
+    private double instantaneous;
+
+    synchronized void opened(long length, long missing) {
+        this.length = length;
+        this.toSend += missing;
+        if (started == 0) {
+            started = System.nanoTime();
+            intervalStart = started;
+        }
+    }
+
+    /**
+     * @return true when a new throughput interval has been closed, at most every 250 ms
+     */
+    synchronized boolean acked(int bytes, long rttNanos) {
+        chunkRtt.record(rttNanos);
+        acked += bytes;
+        chunks++;
+        long now = System.nanoTime();
+        if (now - intervalStart < INTERVAL_NANOS) {
+            return false;
+        }
+        instantaneous = (acked - intervalAcked) * 1e9 / (now - intervalStart);
+        intervalStart = now;
+        intervalAcked = acked;
+        return true;
+    }
+
+    synchronized void resend(long missing) {
+        toSend += missing;
+    }
+
+    synchronized void closed() {
+        finished = System.nanoTime();
+    }
+
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * @return bytes that had to be sent, less than the length when resuming
+     */
+    public synchronized long getBytesToSend() {
+        return toSend;
+    }
+
+    public synchronized long getBytesAcked() {
+        return acked;
+    }
+
+    public synchronized int getChunksAcked() {
+        return chunks;
+    }
+
+    public synchronized int getPercent() {
+        return toSend == 0 ? 0 : (int) Math.min(100, acked * 100 / toSend);
+    }
+
+    public synchronized double getElapsedSeconds() {
+        if (started == 0) {
+            return 0;
+        }
+        return ((finished != 0 ? finished : System.nanoTime()) - started) / 1e9;
+    }
+
+    /**
+     * @return bytes per second since the transfer started
+     */
+    public synchronized double getAverageThroughput() {
+        double elapsed = getElapsedSeconds();
+        return elapsed == 0 ? 0 : acked / elapsed;
+    }
+
+    /**
+     * @return bytes per second over the last closed interval
+     */
+    public synchronized double getInstantaneousThroughput() {
+        return instantaneous;
+    }
+
+    /**
+     * @return estimated seconds left, or -1 while nothing is known yet
+     */
+    public synchronized double getEtaSeconds() {
+        double rate = instantaneous > 0 ? instantaneous : getAverageThroughput();
+        if (rate <= 0) {
+            return -1;
+        }
+        return Math.max(0, toSend - acked) / rate;
+    }
+
+    public LatencyHistogram getChunkRtt() {
+        return chunkRtt;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "%d of %d bytes in %d chunks, %.1f s, avg %s, rtt %s",
+                acked, length, chunks, getElapsedSeconds(), formatRate(getAverageThroughput()), chunkRtt);
+    }
+
+    public static String formatRate(double bytesPerSecond) {
+        if (bytesPerSecond >= 1024 * 1024) {
+            return String.format(Locale.US, "%.1f MB/s", bytesPerSecond / 1024 / 1024);
+        }
+        return String.format(Locale.US, "%.0f KB/s", bytesPerSecond / 1024);
+    }
+}
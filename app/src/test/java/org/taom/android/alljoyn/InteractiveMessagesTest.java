@@ -0,0 +1,42 @@
+package org.taom.android.alljoyn;
+
+import org.junit.Test;
+import org.taom.android.tabs.fragments.ControlsFragment;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Input messages that miss the interactive lane queue behind file transfers.
+ */
+public class InteractiveMessagesTest {
+
+    @Test
+    public void everyInputMessageIsInteractive() throws Exception {
+        int checked = 0;
+        for (Field field : ControlsFragment.class.getFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers) || field.getType() != int.class) {
+                continue;
+            }
+            int what = field.getInt(null);
+            // 1xx are PC input messages, 2xx board controls
+            if (what >= 100 && what < 300) {
+                assertTrue(field.getName() + " is not interactive", AllJoynService.isInteractive(what));
+                checked++;
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void bulkMessagesAreNotInteractive() {
+        assertFalse(AllJoynService.isInteractive(ControlsFragment.FILE_SEND));
+        assertFalse(AllJoynService.isInteractive(ControlsFragment.FILE_BROADCAST));
+        assertFalse(AllJoynService.isInteractive(ControlsFragment.SCRIPT_ADD));
+        assertFalse(AllJoynService.isInteractive(ControlsFragment.SCRIPT_RUN));
+    }
+}
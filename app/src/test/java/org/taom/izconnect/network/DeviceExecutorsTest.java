@@ -0,0 +1,129 @@
+package org.taom.izconnect.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceExecutorsTest {
+    private static final String DEVICE = ":device.1";
+
+    @Test
+    public void commandsDroppedWithTheirDeviceAreReleased() throws Exception {
+        DeviceExecutors executors = new DeviceExecutors();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executors.execute(DEVICE, block(running, release));
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+
+        AtomicInteger dropped = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(executors.execute(DEVICE, droppable(dropped)));
+        }
+        executors.remove(DEVICE);
+        assertEquals(3, dropped.get());
+
+        assertTrue(executors.execute(DEVICE, droppable(dropped)));
+        executors.shutdown();
+        assertEquals(4, dropped.get());
+        assertFalse(executors.execute(DEVICE, droppable(dropped)));
+        assertEquals(4, dropped.get());
+        release.countDown();
+    }
+
+    @Test
+    public void commandsAfterLastKeepTheirOrder() throws Exception {
+        DeviceExecutors executors = new DeviceExecutors();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        executors.execute(DEVICE, block(running, release));
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+
+        assertTrue(executors.remove(DEVICE, record(order, "last")));
+        // the device is rediscovered while its last command waits
+        executors.execute(DEVICE, record(order, "added"));
+        release.countDown();
+
+        CountDownLatch done = new CountDownLatch(1);
+        executors.execute(DEVICE, countDown(done));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(2, order.size());
+        assertEquals("last", order.get(0));
+        assertEquals("added", order.get(1));
+    }
+
+    @Test
+    public void lastWithoutALaneHoldsBackNewCommands() throws Exception {
+        DeviceExecutors executors = new DeviceExecutors();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        assertTrue(executors.remove(DEVICE, block(running, release)));
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+
+        executors.execute(DEVICE, record(order, "added"));
+        Thread.sleep(50);
+        assertEquals(0, order.size());
+        release.countDown();
+
+        CountDownLatch done = new CountDownLatch(1);
+        executors.execute(DEVICE, countDown(done));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(1, order.size());
+        assertEquals(0, executors.getQueueDepth(DEVICE));
+    }
+
+    private static Runnable block(final CountDownLatch running, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static Runnable droppable(final AtomicInteger dropped) {
+        return new DeviceExecutors.DroppableCommand() {
+            @Override
+            public void run() {
+            }
+
+            @Override
+            public void onDropped() {
+                dropped.incrementAndGet();
+            }
+        };
+    }
+
+    private static Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+}
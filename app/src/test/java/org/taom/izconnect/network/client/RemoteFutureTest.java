@@ -0,0 +1,180 @@
+package org.taom.izconnect.network.client;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteFutureTest {
+
+    @Test
+    public void completesOnce() throws Exception {
+        RemoteFuture<String> future = new RemoteFuture<>();
+        assertTrue(future.complete("first"));
+        assertFalse(future.complete("second"));
+        assertFalse(future.fail(new IOException()));
+        assertFalse(future.cancel(false));
+        assertEquals("first", future.get());
+    }
+
+    @Test
+    public void thenPassesValuesAlong() throws Exception {
+        RemoteFuture<Integer> first = new RemoteFuture<>();
+        RemoteFuture<Integer> chain = first.then(new RemoteFuture.Step<Integer, Integer>() {
+            @Override
+            public RemoteFuture<Integer> apply(Integer value) {
+                return RemoteFuture.succeeded(value * 3);
+            }
+        }).then(new RemoteFuture.Step<Integer, Integer>() {
+            @Override
+            public RemoteFuture<Integer> apply(Integer value) {
+                return RemoteFuture.delayed(value + 1, 10, TimeUnit.MILLISECONDS);
+            }
+        });
+        assertFalse(chain.isDone());
+        first.complete(2);
+        assertEquals(7, (long) chain.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failureSkipsTheLaterSteps() throws Exception {
+        IOException error = new IOException("lost");
+        final AtomicBoolean issued = new AtomicBoolean();
+        RemoteFuture<Integer> chain = RemoteFuture.<Integer>failed(error).then(
+                new RemoteFuture.Step<Integer, Integer>() {
+                    @Override
+                    public RemoteFuture<Integer> apply(Integer value) {
+                        issued.set(true);
+                        return RemoteFuture.succeeded(value);
+                    }
+                });
+        assertSame(error, failure(chain));
+        assertFalse(issued.get());
+    }
+
+    @Test
+    public void stepThatThrowsFailsTheChain() throws Exception {
+        final IOException error = new IOException("refused");
+        RemoteFuture<Integer> chain = RemoteFuture.succeeded(1).then(new RemoteFuture.Step<Integer, Integer>() {
+            @Override
+            public RemoteFuture<Integer> apply(Integer value) throws IOException {
+                throw error;
+            }
+        });
+        assertSame(error, failure(chain));
+    }
+
+    @Test
+    public void cancellingAChainCancelsWhatItWaitsFor() {
+        RemoteFuture<Integer> first = new RemoteFuture<>();
+        final RemoteFuture<Integer> second = new RemoteFuture<>();
+        RemoteFuture<Integer> chain = first.then(new RemoteFuture.Step<Integer, Integer>() {
+            @Override
+            public RemoteFuture<Integer> apply(Integer value) {
+                return second;
+            }
+        });
+        first.complete(1);
+        assertTrue(chain.cancel(false));
+        assertTrue(second.isCancelled());
+
+        RemoteFuture<Integer> pending = new RemoteFuture<>();
+        pending.then(new RemoteFuture.Step<Integer, Integer>() {
+            @Override
+            public RemoteFuture<Integer> apply(Integer value) {
+                fail("step issued after cancel");
+                return null;
+            }
+        }).cancel(false);
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void deadlineFailsWithTimeoutAndCancelsUpstream() throws Exception {
+        RemoteFuture<Integer> call = new RemoteFuture<>();
+        RemoteFuture<Integer> chain = call.then(new RemoteFuture.Step<Integer, Integer>() {
+            @Override
+            public RemoteFuture<Integer> apply(Integer value) {
+                return RemoteFuture.succeeded(value);
+            }
+        }).withDeadline(20, TimeUnit.MILLISECONDS);
+        assertTrue(failure(chain) instanceof TimeoutException);
+        // cancelled by the deadline thread right after it fails the chain
+        try {
+            call.get(1, TimeUnit.SECONDS);
+            fail("upstream call not cancelled");
+        } catch (CancellationException expected) {
+            // the call is not sent once the chain gave up on it
+        }
+    }
+
+    @Test
+    public void earliestDeadlineApplies() throws Exception {
+        RemoteFuture<Integer> future = new RemoteFuture<Integer>()
+                .withDeadline(10, TimeUnit.SECONDS)
+                .withDeadline(20, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        assertTrue(failure(future) instanceof TimeoutException);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void callbacksRunOnCompletionOrRightAway() {
+        final StringBuilder calls = new StringBuilder();
+        RemoteFuture.Callback<String> callback = new RemoteFuture.Callback<String>() {
+            @Override
+            public void onSuccess(String value) {
+                calls.append(value);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                calls.append(error instanceof CancellationException ? "cancelled" : "failed");
+            }
+        };
+        RemoteFuture<String> future = new RemoteFuture<>();
+        future.addCallback(callback);
+        assertEquals("", calls.toString());
+        future.complete("a");
+        future.addCallback(callback);
+        assertEquals("aa", calls.toString());
+
+        RemoteFuture<String> cancelled = new RemoteFuture<>();
+        cancelled.addCallback(callback);
+        cancelled.cancel(false);
+        assertEquals("aacancelled", calls.toString());
+    }
+
+    @Test
+    public void cancelledDelayNeverCompletes() throws Exception {
+        RemoteFuture<String> delayed = RemoteFuture.delayed("late", 30, TimeUnit.MILLISECONDS);
+        assertTrue(delayed.cancel(false));
+        Thread.sleep(60);
+        try {
+            delayed.get();
+            fail("delay completed after cancel");
+        } catch (CancellationException expected) {
+            // cancelled, not completed
+        }
+    }
+
+    private static Throwable failure(RemoteFuture<?> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("future did not fail");
+        return null;
+    }
+}
@@ -0,0 +1,179 @@
+package org.taom.izconnect.network.input;
+
+import org.alljoyn.bus.BusException;
+import org.junit.Test;
+import org.taom.izconnect.network.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how long input takes from the touch or key event to the {@link LoopbackPC} on the other end of
+ * a simulated link, through the same path as the app: touch samples gather in a {@link MouseDeltas} that is
+ * queued once per 60 Hz frame, and every send runs through an {@link InputSender} on one thread standing in
+ * for the bus handler thread. Queue depth is the number of messages waiting on that thread, sampled at every
+ * generated event.
+ * <p>
+ * Runs on a plain JVM:
+ * <pre>
+ * java org.taom.izconnect.network.input.InputLatencyBenchmark [delayMillis] [jitterMillis] [seconds]
+ * </pre>
+ * As a unit test it runs a short pass of every configuration and only checks that all input arrives.
+ */
+public class InputLatencyBenchmark {
+    private static final int FRAME_HZ = 60;
+    private static final int[] RATES_HZ = {60, 120, 240};
+    private static final long DRAIN_TIMEOUT_MILLIS = 10000;
+
+    enum Input {
+        /** touchpad movement, one pixel per sample */
+        MOUSE,
+        /** single key presses */
+        KEYS,
+        /** typed characters, one text call per key */
+        TEXT
+    }
+
+    static class Result {
+        final LoopbackPC.Stream stream;
+        final int maxQueueDepth;
+        final double meanQueueDepth;
+
+        Result(LoopbackPC.Stream stream, int maxQueueDepth, double meanQueueDepth) {
+            this.stream = stream;
+            this.maxQueueDepth = maxQueueDepth;
+            this.meanQueueDepth = meanQueueDepth;
+        }
+
+        @Override
+        public String toString() {
+            LatencyHistogram latencies = stream.getLatencies();
+            return String.format(Locale.US, "%6d/%-6d p50=%7.1fms p99=%7.1fms max=%7.1fms queue max=%4d mean=%6.1f",
+                    stream.getDelivered(), stream.getGenerated(), latencies.getPercentileMillis(50),
+                    latencies.getPercentileMillis(99), latencies.getMaxMillis(), maxQueueDepth, meanQueueDepth);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long delayMillis = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        long jitterMillis = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        System.out.printf(Locale.US, "link delay %d ms, jitter %d ms, %d s per run%n", delayMillis, jitterMillis, seconds);
+        for (Input input : Input.values()) {
+            for (LoopbackPC.Support support : LoopbackPC.Support.values()) {
+                for (int rate : RATES_HZ) {
+                    Result result = run(input, support, rate, TimeUnit.SECONDS.toMillis(seconds), delayMillis, jitterMillis);
+                    System.out.printf(Locale.US, "%-5s %-7s %3d Hz  %s%n", input, support, rate, result);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deliversAllInput() throws Exception {
+        for (Input input : Input.values()) {
+            for (LoopbackPC.Support support : LoopbackPC.Support.values()) {
+                Result result = run(input, support, 240, 300, 2, 2);
+                assertEquals(input + " " + support, result.stream.getGenerated(), result.stream.getDelivered());
+            }
+        }
+    }
+
+    static Result run(final Input input, LoopbackPC.Support support, int rateHz, long millis,
+                      long delayMillis, long jitterMillis) throws InterruptedException {
+        final LoopbackPC pc = new LoopbackPC(support, delayMillis, jitterMillis);
+        final InputSender sender = new InputSender("loopback", pc.proxy());
+        final LoopbackPC.Stream stream = input == Input.MOUSE ? pc.moves : pc.keys;
+        final ThreadPoolExecutor busThread = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        final MouseDeltas deltas = new MouseDeltas();
+        final long[] depth = new long[3];
+        ScheduledExecutorService clock = Executors.newScheduledThreadPool(2);
+
+        clock.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                int queued = busThread.getQueue().size();
+                synchronized (depth) {
+                    depth[0] = Math.max(depth[0], queued);
+                    depth[1] += queued;
+                    depth[2]++;
+                }
+                stream.generated(System.nanoTime());
+                if (input == Input.MOUSE) {
+                    deltas.add(1, 0);
+                } else {
+                    busThread.execute(new Send(sender, input, null));
+                }
+            }
+        }, 0, TimeUnit.SECONDS.toNanos(1) / rateHz, TimeUnit.NANOSECONDS);
+        if (input == Input.MOUSE) {
+            clock.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    if (deltas.schedule()) {
+                        busThread.execute(new Send(sender, input, deltas));
+                    }
+                }
+            }, 0, TimeUnit.SECONDS.toNanos(1) / FRAME_HZ, TimeUnit.NANOSECONDS);
+        }
+
+        Thread.sleep(millis);
+        clock.shutdown();
+        clock.awaitTermination(1, TimeUnit.SECONDS);
+        if (deltas.schedule()) {
+            busThread.execute(new Send(sender, input, deltas));
+        }
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (stream.getDelivered() < stream.getGenerated() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        busThread.shutdown();
+        busThread.awaitTermination(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        sender.close();
+        pc.close();
+        synchronized (depth) {
+            return new Result(stream, (int) depth[0], depth[2] == 0 ? 0 : (double) depth[1] / depth[2]);
+        }
+    }
+
+    /**
+     * One message of the bus handler thread.
+     */
+    private static class Send implements Runnable {
+        private final InputSender sender;
+        private final Input input;
+        private final MouseDeltas deltas;
+
+        Send(InputSender sender, Input input, MouseDeltas deltas) {
+            this.sender = sender;
+            this.input = input;
+            this.deltas = deltas;
+        }
+
+        @Override
+        public void run() {
+            try {
+                switch (input) {
+                    case MOUSE:
+                        sender.moveMouse(deltas.drain());
+                        break;
+                    case KEYS:
+                        sender.command(InputCommand.KEY_PRESSED, 'A');
+                        break;
+                    case TEXT:
+                        sender.typeText("a");
+                        break;
+                }
+            } catch (BusException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
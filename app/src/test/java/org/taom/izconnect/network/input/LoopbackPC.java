@@ -0,0 +1,212 @@
+package org.taom.izconnect.network.input;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.ErrorReplyBusException;
+import org.taom.izconnect.network.LatencyHistogram;
+import org.taom.izconnect.network.interfaces.PCInterface;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PCInterface} stand-in for benchmarks. Calls cross a simulated link with a one-way delay plus
+ * random jitter: blocking calls return after the round trip, one-way calls and datagrams return at once
+ * and are delivered later, in the order they were sent like on a bus session.
+ * <p>
+ * Which methods the PC has is chosen with a {@link Support} level; calls beyond it fail like on a PC
+ * that does not know them. Every mouse pixel and typed character delivered is counted by a {@link Stream}.
+ */
+class LoopbackPC implements InvocationHandler {
+
+    enum Support {
+        /** only the original blocking methods */
+        LEGACY("mouseMove", "keyPressed"),
+        /** batched blocking methods */
+        BATCH("mouseMove", "keyPressed", "mouseMoveBatch", "typeText", "keyEvents"),
+        /** one-way bus methods */
+        ONE_WAY("mouseMove", "keyPressed", "mouseMoveBatch", "typeText", "keyEvents",
+                "inputMouseMove", "inputCommand", "inputKeyEvents", "inputText", "getInputStats"),
+        /** the datagram input channel, over real UDP on this host */
+        CHANNEL("mouseMove", "keyPressed", "mouseMoveBatch", "typeText", "keyEvents",
+                "inputMouseMove", "inputCommand", "inputKeyEvents", "inputText", "getInputStats",
+                "openInputChannel");
+
+        private final Set<String> methods;
+
+        Support(String... methods) {
+            this.methods = new HashSet<>(Arrays.asList(methods));
+        }
+    }
+
+    /**
+     * Matches delivered units, like pixels or characters, to the time they were generated, in order.
+     */
+    static class Stream {
+        private final ConcurrentLinkedQueue<Long> generated = new ConcurrentLinkedQueue<>();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long generatedCount;
+        private long deliveredCount;
+
+        synchronized void generated(long nanos) {
+            generated.add(nanos);
+            generatedCount++;
+        }
+
+        synchronized void delivered(int units, long nanos) {
+            for (int i = 0; i < units; i++) {
+                Long start = generated.poll();
+                if (start == null) {
+                    return;
+                }
+                latencies.record(nanos - start);
+                deliveredCount++;
+            }
+        }
+
+        synchronized long getGenerated() {
+            return generatedCount;
+        }
+
+        synchronized long getDelivered() {
+            return deliveredCount;
+        }
+
+        LatencyHistogram getLatencies() {
+            return latencies;
+        }
+    }
+
+    final Stream moves = new Stream();
+    final Stream keys = new Stream();
+
+    private final Support support;
+    private final long delayNanos;
+    private final long jitterNanos;
+    private final Random random = new Random(42);
+    private final ScheduledExecutorService link = Executors.newSingleThreadScheduledExecutor();
+    private final InputDatagramReceiver receiver = new InputDatagramReceiver(new InputDatagramReceiver.Listener() {
+        @Override
+        public void onInput(InputRecord record) {
+            if (record.getType() == InputRecord.MOUSE_MOVE) {
+                sendOneWay(moves, Math.abs(record.getDx()) + Math.abs(record.getDy()));
+            } else if (record.getType() == InputCommand.KEY_PRESSED || record.getType() == InputRecord.CHARACTER
+                    || record.getType() == InputRecord.KEY_EVENT && record.getDx() != KeyEvents.UP) {
+                sendOneWay(keys, 1);
+            }
+        }
+    });
+    private long lastDelivery;
+
+    LoopbackPC(Support support, long delayMillis, long jitterMillis) {
+        this.support = support;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+    }
+
+    PCInterface proxy() {
+        return (PCInterface) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PCInterface.class}, this);
+    }
+
+    void close() {
+        receiver.close();
+        link.shutdownNow();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (!support.methods.contains(name)) {
+            throw new ErrorReplyBusException("org.freedesktop.DBus.Error.UnknownMethod", name);
+        }
+        switch (name) {
+            case "inputMouseMove":
+                sendOneWay(moves, pixels((int[]) args[1]));
+                return null;
+            case "inputCommand":
+                sendOneWay(keys, (Integer) args[1] == InputCommand.KEY_PRESSED ? 1 : 0);
+                return null;
+            case "inputKeyEvents":
+                sendOneWay(keys, pressed((int[]) args[1]));
+                return null;
+            case "inputText":
+                sendOneWay(keys, ((String) args[1]).length());
+                return null;
+            case "openInputChannel":
+                return roundTrip(null, 0, receiver.open((Integer) args[0]));
+            case "getInputStats":
+                return roundTrip(null, 0, new int[]{0, 0, 0, -1, DeliveryTracker.KEYS});
+            case "mouseMove":
+                return roundTrip(moves, Math.abs((Integer) args[0]) + Math.abs((Integer) args[1]), null);
+            case "mouseMoveBatch":
+                return roundTrip(moves, pixels((int[]) args[0]), null);
+            case "keyPressed":
+                return roundTrip(keys, 1, null);
+            case "typeText":
+                return roundTrip(keys, ((String) args[0]).length(), null);
+            case "keyEvents":
+                return roundTrip(keys, pressed((int[]) args[0]), null);
+            default:
+                return null;
+        }
+    }
+
+    private Object roundTrip(Stream stream, int units, Object reply) throws BusException {
+        sleep(oneWayNanos());
+        if (stream != null) {
+            stream.delivered(units, System.nanoTime());
+        }
+        sleep(oneWayNanos());
+        return reply;
+    }
+
+    private synchronized void sendOneWay(final Stream stream, final int units) {
+        long deliverAt = Math.max(lastDelivery, System.nanoTime() + oneWayNanos());
+        lastDelivery = deliverAt;
+        link.schedule(new Runnable() {
+            @Override
+            public void run() {
+                stream.delivered(units, System.nanoTime());
+            }
+        }, deliverAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized long oneWayNanos() {
+        return delayNanos + (jitterNanos == 0 ? 0 : (long) (random.nextDouble() * jitterNanos));
+    }
+
+    private static int pressed(int[] events) {
+        int pressed = 0;
+        for (int event : events) {
+            if (KeyEvents.getAction(event) != KeyEvents.UP) {
+                pressed++;
+            }
+        }
+        return pressed;
+    }
+
+    private static int pixels(int[] samples) {
+        int total = 0;
+        for (int delta : samples) {
+            total += Math.abs(delta);
+        }
+        return total;
+    }
+
+    private static void sleep(long nanos) throws BusException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusException("Interrupted on the loopback link");
+        }
+    }
+}
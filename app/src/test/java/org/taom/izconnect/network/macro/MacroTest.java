@@ -0,0 +1,145 @@
+package org.taom.izconnect.network.macro;
+
+import org.alljoyn.bus.BusException;
+import org.junit.Test;
+import org.taom.izconnect.network.interfaces.BoardInterface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class MacroTest {
+
+    @Test
+    public void encodingRoundTripKeepsTheChecksum() throws IOException {
+        Macro macro = pcMacro();
+        Macro copy = Macro.fromBytes(macro.toBytes());
+        assertEquals(macro.getName(), copy.getName());
+        assertEquals(macro.getStepCount(), copy.getStepCount());
+        assertEquals(macro.getDelayMillis(), copy.getDelayMillis());
+        assertArrayEquals(macro.toBytes(), copy.toBytes());
+        assertEquals(macro.getChecksum(), copy.getChecksum());
+    }
+
+    @Test
+    public void anyChangeChangesTheChecksum() {
+        String checksum = pcMacro().getChecksum();
+        assertNotEquals(checksum, pcMacro().delay(1).getChecksum());
+        assertNotEquals(checksum, new Macro("other").keyEvents(1, 2, 3).delay(250).typeText("hello")
+                .volume(40).runScript("backup").getChecksum());
+    }
+
+    @Test
+    public void encodedMacroCannotChange() {
+        Macro macro = pcMacro();
+        macro.toBytes();
+        try {
+            macro.volume(10);
+            fail("step added after encoding");
+        } catch (IllegalStateException expected) {
+            // the checksum would no longer match the steps
+        }
+    }
+
+    @Test
+    public void damagedEncodingsAreRejected() throws IOException {
+        byte[] bytes = pcMacro().toBytes();
+        rejected(Arrays.copyOf(bytes, bytes.length - 1));
+        rejected(Arrays.copyOf(bytes, bytes.length + 1));
+
+        byte[] version = bytes.clone();
+        version[3]++;
+        rejected(version);
+
+        ByteArrayOutputStream unknown = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(unknown);
+        out.writeInt(1);
+        out.writeUTF("unknown");
+        out.writeInt(1);
+        out.writeByte(99);
+        rejected(unknown.toByteArray());
+    }
+
+    @Test
+    public void delaysOutOfRangeAreRejected() throws IOException {
+        try {
+            new Macro("long").delay(Macro.MAX_DELAY_MILLIS + 1);
+            fail("delay over the maximum");
+        } catch (IllegalArgumentException expected) {
+            // refused when building
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1);
+        out.writeUTF("negative");
+        out.writeInt(1);
+        out.writeByte(9);
+        out.writeInt(-1);
+        rejected(bytes.toByteArray());
+    }
+
+    @Test
+    public void playStepsStopsAtEachDelay() throws BusException {
+        Macro macro = new Macro("lights").light(true).autoMode(false).delay(300).runScript("night")
+                .delay(0).light(false);
+        List<String> calls = new ArrayList<>();
+        BoardInterface board = board(calls);
+
+        assertEquals(2, macro.playSteps(board, 0));
+        assertEquals(300, macro.getDelay(2));
+        assertEquals(4, macro.playSteps(board, 3));
+        assertEquals(0, macro.getDelay(4));
+        assertEquals(0, macro.getDelay(3));
+        assertEquals(macro.getStepCount(), macro.playSteps(board, 5));
+        assertEquals(macro.getStepCount(), macro.playSteps(board, macro.getStepCount()));
+        assertEquals(Arrays.asList("setLight [true]", "setAutoMode [false]", "runScript [night]",
+                "setLight [false]"), calls);
+    }
+
+    @Test
+    public void stepsForAnotherDeviceFail() {
+        List<String> calls = new ArrayList<>();
+        try {
+            new Macro("typing").light(true).typeText("x").playSteps(board(calls), 0);
+            fail("PC step ran on a board");
+        } catch (BusException expected) {
+            assertEquals(Arrays.asList("setLight [true]"), calls);
+        }
+    }
+
+    private static Macro pcMacro() {
+        return new Macro("login").keyEvents(1, 2, 3).delay(250).typeText("hello").volume(40).runScript("backup");
+    }
+
+    private static void rejected(byte[] bytes) {
+        try {
+            Macro.fromBytes(bytes);
+            fail("damaged macro accepted");
+        } catch (IOException expected) {
+            // refused before it runs
+        }
+    }
+
+    private static BoardInterface board(final List<String> calls) {
+        return (BoardInterface) Proxy.newProxyInstance(BoardInterface.class.getClassLoader(),
+                new Class<?>[]{BoardInterface.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        calls.add(method.getName() + " " + Arrays.toString(args));
+                        return null;
+                    }
+                });
+    }
+}
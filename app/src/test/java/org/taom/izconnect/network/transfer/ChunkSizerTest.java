@@ -0,0 +1,75 @@
+package org.taom.izconnect.network.transfer;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChunkSizerTest {
+    private static final int WINDOW = 4;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(ChunkSizer.MAX_RTT_MILLIS + 1);
+
+    @Test
+    public void growsAfterAWindowOfFastChunks() {
+        ChunkSizer sizer = new ChunkSizer(WINDOW);
+        ackWindow(sizer, FAST);
+        assertEquals(ChunkSizer.INITIAL_CHUNK_SIZE + 8 * 1024, sizer.getChunkSize());
+    }
+
+    @Test
+    public void neverExceedsTheMaximum() {
+        ChunkSizer sizer = new ChunkSizer(WINDOW);
+        for (int i = 0; i < 100; i++) {
+            ackWindow(sizer, FAST);
+        }
+        assertEquals(ChunkSizer.MAX_CHUNK_SIZE, sizer.getChunkSize());
+    }
+
+    @Test
+    public void slowOrFailedChunksHalveDownToTheMinimum() {
+        ChunkSizer sizer = new ChunkSizer(WINDOW);
+        sizer.acked(sizer.getChunkSize(), SLOW);
+        assertEquals(ChunkSizer.INITIAL_CHUNK_SIZE / 2, sizer.getChunkSize());
+
+        for (int i = 0; i < 10; i++) {
+            sizer.failed();
+        }
+        assertEquals(ChunkSizer.MIN_CHUNK_SIZE, sizer.getChunkSize());
+    }
+
+    @Test
+    public void chunksInFlightAtADecreaseAreNotCounted() {
+        ChunkSizer sizer = new ChunkSizer(WINDOW);
+        sizer.failed();
+        int size = sizer.getChunkSize();
+        // sent at the old size, their round trips say nothing about the new one
+        for (int i = 0; i < WINDOW; i++) {
+            sizer.acked(ChunkSizer.INITIAL_CHUNK_SIZE, SLOW);
+        }
+        assertEquals(size, sizer.getChunkSize());
+
+        ackWindow(sizer, FAST);
+        assertEquals(size + 8 * 1024, sizer.getChunkSize());
+    }
+
+    @Test
+    public void partialChunksAndTightRoundTripsDoNotGrow() {
+        ChunkSizer sizer = new ChunkSizer(WINDOW);
+        for (int i = 0; i < WINDOW * 3; i++) {
+            sizer.acked(sizer.getChunkSize() - 1, FAST);
+        }
+        assertEquals(ChunkSizer.INITIAL_CHUNK_SIZE, sizer.getChunkSize());
+
+        // fits now, but would not at the next size
+        ackWindow(sizer, TimeUnit.MILLISECONDS.toNanos(ChunkSizer.MAX_RTT_MILLIS) * 9 / 10);
+        assertEquals(ChunkSizer.INITIAL_CHUNK_SIZE, sizer.getChunkSize());
+    }
+
+    private static void ackWindow(ChunkSizer sizer, long rttNanos) {
+        for (int i = 0; i < WINDOW; i++) {
+            sizer.acked(sizer.getChunkSize(), rttNanos);
+        }
+    }
+}
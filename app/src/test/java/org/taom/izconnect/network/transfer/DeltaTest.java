@@ -0,0 +1,150 @@
+package org.taom.izconnect.network.transfer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeltaTest {
+    private static final int BLOCK_SIZE = 512;
+
+    private final Random random = new Random(11);
+    private byte[] base;
+    private File baseFile;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        base = new byte[BLOCK_SIZE * 40 + 100];
+        random.nextBytes(base);
+        baseFile = File.createTempFile("delta-base", ".bin");
+        write(baseFile, base);
+        target = File.createTempFile("delta-target", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        baseFile.delete();
+        target.delete();
+    }
+
+    @Test
+    public void editedFileIsRebuiltFromBlocksAndLiterals() throws IOException {
+        // insert, overwrite and append, shifting the later blocks off their boundaries
+        byte[] edited = new byte[base.length + 37 + 200];
+        byte[] inserted = new byte[37];
+        random.nextBytes(inserted);
+        System.arraycopy(base, 0, edited, 0, 3000);
+        System.arraycopy(inserted, 0, edited, 3000, inserted.length);
+        System.arraycopy(base, 3000, edited, 3037, base.length - 3000);
+        edited[10000] ^= 1;
+        for (int i = base.length + 37; i < edited.length; i++) {
+            edited[i] = (byte) i;
+        }
+
+        byte[] delta = Delta.create(edited, signatures());
+        assertTrue(Delta.apply(baseFile, delta, target));
+        assertArrayEquals(edited, read(target));
+        assertTrue("delta of " + delta.length + " bytes", delta.length < edited.length / 4);
+    }
+
+    @Test
+    public void unchangedFileIsAllCopies() throws IOException {
+        BlockSignatures signatures = signatures();
+        assertArrayEquals(BlockSignatures.md5().digest(base), signatures.getFileDigest());
+
+        byte[] delta = Delta.create(base, signatures);
+        assertTrue(Delta.apply(baseFile, delta, target));
+        assertArrayEquals(base, read(target));
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 200);
+    }
+
+    @Test
+    public void baseShorterThanABlockSendsEverything() throws IOException {
+        write(baseFile, new byte[BLOCK_SIZE - 1]);
+        BlockSignatures signatures = signatures();
+        assertEquals(0, signatures.getBlockCount());
+
+        byte[] delta = Delta.create(base, signatures);
+        assertTrue(Delta.apply(baseFile, delta, target));
+        assertArrayEquals(base, read(target));
+    }
+
+    @Test
+    public void baseChangedSinceTheSignaturesFailsTheDigest() throws IOException {
+        byte[] delta = Delta.create(base, signatures());
+        try (RandomAccessFile file = new RandomAccessFile(baseFile, "rw")) {
+            file.seek(BLOCK_SIZE * 3);
+            file.write(base[BLOCK_SIZE * 3] + 1);
+        }
+        assertFalse(Delta.apply(baseFile, delta, target));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void malformedDeltasAreRejected() throws IOException {
+        byte[] delta = Delta.create(base, signatures());
+        ByteBuffer.wrap(delta).putInt(4, Integer.MAX_VALUE);
+        rejected(delta);
+        ByteBuffer.wrap(delta).putInt(4, -1);
+        rejected(delta);
+
+        rejected(literal(-1));
+        rejected(literal(Integer.MAX_VALUE));
+    }
+
+    private void rejected(byte[] delta) {
+        try {
+            Delta.apply(baseFile, delta, target);
+            fail("malformed delta applied");
+        } catch (IOException expected) {
+            assertFalse(target.exists());
+        }
+    }
+
+    private static byte[] literal(int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1);
+        out.writeInt(BLOCK_SIZE);
+        out.writeLong(10);
+        out.write(new byte[BlockSignatures.DIGEST_LENGTH]);
+        out.writeByte(2);
+        out.writeInt(length);
+        out.write(new byte[10]);
+        return bytes.toByteArray();
+    }
+
+    private BlockSignatures signatures() throws IOException {
+        // the way the receiver sends them
+        return BlockSignatures.fromBytes(BlockSignatures.compute(baseFile, BLOCK_SIZE).toBytes());
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.readFully(data);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,69 @@
+package org.taom.izconnect.network.transfer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangeSetTest {
+
+    @Test
+    public void overlappingAndAdjacentRangesMerge() {
+        RangeSet set = new RangeSet();
+        set.add(10, 20);
+        set.add(30, 40);
+        set.add(20, 25);
+        set.add(38, 50);
+        assertArrayEquals(new long[]{10, 25, 30, 50}, set.toArray());
+
+        set.add(5, 35);
+        assertArrayEquals(new long[]{5, 50}, set.toArray());
+    }
+
+    @Test
+    public void emptyRangesAreIgnored() {
+        RangeSet set = new RangeSet();
+        set.add(10, 10);
+        set.add(20, 15);
+        assertArrayEquals(new long[0], set.toArray());
+    }
+
+    @Test
+    public void removeSplitsRanges() {
+        RangeSet set = RangeSet.fromArray(new long[]{0, 100});
+        set.remove(40, 60);
+        assertArrayEquals(new long[]{0, 40, 60, 100}, set.toArray());
+
+        set.remove(30, 70);
+        assertArrayEquals(new long[]{0, 30, 70, 100}, set.toArray());
+
+        set.remove(0, 100);
+        assertArrayEquals(new long[0], set.toArray());
+    }
+
+    @Test
+    public void complementIsWhatIsMissing() {
+        RangeSet persisted = RangeSet.fromArray(new long[]{0, 10, 20, 30});
+        assertArrayEquals(new long[]{10, 20, 30, 50}, persisted.complement(50));
+        assertArrayEquals(new long[]{10, 20}, persisted.complement(25));
+        assertArrayEquals(new long[]{0, 50}, new RangeSet().complement(50));
+    }
+
+    @Test
+    public void coversOnlyAWholePrefix() {
+        RangeSet set = RangeSet.fromArray(new long[]{0, 10, 20, 30});
+        assertFalse(set.covers(30));
+        set.add(10, 20);
+        assertTrue(set.covers(30));
+        assertFalse(set.covers(31));
+        assertTrue(new RangeSet().covers(0));
+    }
+
+    @Test
+    public void sizeCountsBytes() {
+        assertEquals(25, RangeSet.size(new long[]{0, 10, 20, 35}));
+        assertEquals(0, RangeSet.size(new long[0]));
+    }
+}
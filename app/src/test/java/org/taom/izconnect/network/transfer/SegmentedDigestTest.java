@@ -0,0 +1,111 @@
+package org.taom.izconnect.network.transfer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SegmentedDigestTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private byte[] data;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        // three segments, the last one short
+        data = new byte[(int) (SegmentedDigest.segmentSize(0) * 2 + 12345)];
+        new Random(7).nextBytes(data);
+        file = File.createTempFile("segmented", ".bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void chunksInOrderGiveTheSegmentDigests() throws IOException {
+        SegmentedDigest digest = new SegmentedDigest(data.length);
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            digest.update(offset, chunk(offset));
+        }
+        assertArrayEquals(expected(), finish(digest));
+    }
+
+    @Test
+    public void resumedTransferReadsTheSkippedRangesFromTheFile() throws IOException {
+        SegmentedDigest digest = new SegmentedDigest(data.length);
+        // the receiver already had the first half, only the rest passes by
+        int resumedAt = data.length / 2 / CHUNK_SIZE * CHUNK_SIZE;
+        for (int offset = resumedAt; offset < data.length; offset += CHUNK_SIZE) {
+            digest.update(offset, chunk(offset));
+        }
+        assertArrayEquals(expected(), finish(digest));
+    }
+
+    @Test
+    public void chunksOutOfOrderAreHeldUntilTheGapFills() throws IOException {
+        SegmentedDigest digest = new SegmentedDigest(data.length);
+        for (int offset = CHUNK_SIZE; offset < data.length; offset += 2 * CHUNK_SIZE) {
+            digest.update(offset, chunk(offset));
+        }
+        for (int offset = 0; offset < data.length; offset += 2 * CHUNK_SIZE) {
+            digest.update(offset, chunk(offset));
+        }
+        assertArrayEquals(expected(), finish(digest));
+    }
+
+    @Test
+    public void mismatchesNameTheWrongSegment() throws IOException {
+        long segmentSize = SegmentedDigest.segmentSize(data.length);
+        byte[] expected = expected();
+        try (RandomAccessFile corrupt = new RandomAccessFile(file, "rw")) {
+            corrupt.seek(segmentSize + 10);
+            corrupt.write(data[(int) segmentSize + 10] + 1);
+        }
+        SegmentedDigest digest = new SegmentedDigest(data.length);
+        assertArrayEquals(new long[]{segmentSize, segmentSize * 2}, digest.mismatches(finish(digest), expected));
+    }
+
+    @Test
+    public void emptyFileHasOneSegment() throws IOException {
+        assertEquals(SegmentedDigest.DIGEST_LENGTH, new SegmentedDigest(0).finish(null).length);
+    }
+
+    private byte[] chunk(int offset) {
+        return Arrays.copyOfRange(data, offset, Math.min(data.length, offset + CHUNK_SIZE));
+    }
+
+    private byte[] finish(SegmentedDigest digest) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return digest.finish(in.getChannel());
+        }
+    }
+
+    private byte[] expected() {
+        int segmentSize = (int) SegmentedDigest.segmentSize(data.length);
+        int segments = (data.length + segmentSize - 1) / segmentSize;
+        byte[] digests = new byte[segments * SegmentedDigest.DIGEST_LENGTH];
+        for (int i = 0; i < segments; i++) {
+            MessageDigest sha256 = SegmentedDigest.sha256();
+            sha256.update(data, i * segmentSize, Math.min(segmentSize, data.length - i * segmentSize));
+            System.arraycopy(sha256.digest(), 0, digests, i * SegmentedDigest.DIGEST_LENGTH,
+                    SegmentedDigest.DIGEST_LENGTH);
+        }
+        return digests;
+    }
+}